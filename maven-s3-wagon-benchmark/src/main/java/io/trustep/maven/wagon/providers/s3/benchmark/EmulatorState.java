@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import io.trustep.maven.wagon.providers.s3.S3Emulator;
+
+/**
+ * The {@link S3Emulator} shared by the threads of a trial, with the network conditions given by its parameters.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+@State( Scope.Benchmark )
+public class EmulatorState
+{
+    static final String BUCKET = "benchmark";
+
+    /**
+     * milliseconds every request waits before it is handled, like the round trip to a distant region
+     */
+    @Param( { "0" } )
+    public long latencyMillis;
+
+    /**
+     * milliseconds the first request of a connection waits on top of the latency, like the TCP and TLS handshakes
+     */
+    @Param( { "0" } )
+    public long handshakeMillis;
+
+    /**
+     * bytes per second each request or response body is limited to; 0 means no limit
+     */
+    @Param( { "0" } )
+    public long bandwidth;
+
+    /**
+     * share of requests answered with 503 Slow Down
+     */
+    @Param( { "0" } )
+    public double errorRate;
+
+    S3Emulator emulator;
+
+    @Setup( Level.Trial )
+    public void start()
+        throws IOException
+    {
+        emulator = new S3Emulator();
+        emulator.setLatencyMillis( latencyMillis );
+        emulator.setHandshakeMillis( handshakeMillis );
+        emulator.setBandwidth( bandwidth );
+        emulator.setErrorRate( errorRate );
+    }
+
+    @TearDown( Level.Trial )
+    public void stop()
+    {
+        emulator.close();
+    }
+
+    /**
+     * Stores {@code size} random bytes under {@code key}, unless an object is already there.
+     */
+    void seed( String key, int size )
+    {
+        if ( emulator.getObject( BUCKET, key ) == null )
+        {
+            byte[] content = new byte[size];
+            new Random( size ).nextBytes( content );
+            emulator.putObject( BUCKET, key, content );
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.trustep.maven.wagon.providers.s3.S3Wagon;
+
+/**
+ * Time to list a directory with {@link S3Wagon#getFileList(String)}, as done to resolve version ranges. Directories
+ * of more than 1000 entries take several ListObjectsV2 pages.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class GetFileListBenchmark
+{
+    @Param( { "10", "1000", "5000" } )
+    public int entries;
+
+    private S3Wagon wagon;
+
+    private String directory;
+
+    @Setup( Level.Trial )
+    public void setUp( EmulatorState state )
+        throws Exception
+    {
+        directory = "list/" + entries;
+        for ( int i = 0; i < entries; i++ )
+        {
+            // half of them sub directories, the other half files
+            String name = i % 2 == 0 ? "1." + i + "/artifact-1." + i + ".pom" : "artifact-" + i + ".jar";
+            state.seed( Wagons.BASE_DIRECTORY + "/" + directory + "/" + name, 16 );
+        }
+        wagon = Wagons.connect( state, 8 * 1024 * 1024, 1, "sync" );
+    }
+
+    @Benchmark
+    public List<String> getFileList()
+        throws Exception
+    {
+        return wagon.getFileList( directory );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+        throws Exception
+    {
+        wagon.disconnect();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import io.trustep.maven.wagon.providers.s3.S3Wagon;
+
+/**
+ * Time to upload a file with {@link S3Wagon#put(File, String)}, checksum files included. Each benchmark thread has
+ * its own wagon and puts to its own key.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class PutBenchmark
+{
+    @Param( { "4096", "1048576", "67108864" } )
+    public int objectSize;
+
+    @Param( { "8388608" } )
+    public long partSize;
+
+    @Param( { "1", "4" } )
+    public int concurrency;
+
+    @Param( { "sync" } )
+    public String transferEngine;
+
+    private S3Wagon wagon;
+
+    private String resourceName;
+
+    private File source;
+
+    @Setup( Level.Trial )
+    public void setUp( EmulatorState state, ThreadParams thread )
+        throws Exception
+    {
+        resourceName = "put/" + thread.getThreadIndex() + "/object-" + objectSize + ".jar";
+        wagon = Wagons.connect( state, partSize, concurrency, transferEngine );
+        source = File.createTempFile( "s3-wagon-benchmark", ".jar" );
+        byte[] content = new byte[objectSize];
+        new Random( objectSize ).nextBytes( content );
+        Files.write( source.toPath(), content );
+    }
+
+    @Benchmark
+    public void put()
+        throws Exception
+    {
+        wagon.put( source, resourceName );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+        throws Exception
+    {
+        wagon.disconnect();
+        source.delete();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.trustep.maven.wagon.providers.s3.S3Wagon;
+
+/**
+ * Time for the first wagon of a JVM to get its first small object, as at the start of a build. Each measure is taken
+ * once in a JVM of its own, so that it pays for loading the classes, building the S3 client and opening the
+ * connections like a build does. Connecting alone is not measured: the client is only built by the first request, or
+ * by the pre-warming in the background.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 0 )
+@Measurement( iterations = 1 )
+@Fork( 10 )
+@State( Scope.Thread )
+public class StartupBenchmark
+{
+    private static final String RESOURCE_NAME = "startup/artifact-1.0.pom";
+
+    @Param( { "0", "4" } )
+    public int prewarmConnections;
+
+    /**
+     * milliseconds between the connection and the first get, that Maven spends on other work
+     */
+    @Param( { "200" } )
+    public long pauseMillis;
+
+    private EmulatorState state;
+
+    private S3Wagon wagon;
+
+    private File destination;
+
+    @Setup( Level.Trial )
+    public void setUp( EmulatorState emulatorState )
+        throws Exception
+    {
+        // kept for the setup of each iteration, JMH does not generate two setups taking the same state
+        state = emulatorState;
+        state.seed( Wagons.BASE_DIRECTORY + "/" + RESOURCE_NAME, 4096 );
+        destination = File.createTempFile( "s3-wagon-benchmark", ".pom" );
+    }
+
+    @Setup( Level.Iteration )
+    public void createWagon()
+    {
+        wagon = Wagons.create( state, 8L * 1024 * 1024, 1, "sync" );
+        wagon.setPrewarmConnections( prewarmConnections );
+    }
+
+    /**
+     * Connects the wagon and gets a small object right away, the time to the first byte of a build with no other
+     * work in between.
+     */
+    @Benchmark
+    public long firstGet()
+        throws Exception
+    {
+        Wagons.connect( wagon );
+        wagon.get( RESOURCE_NAME, destination );
+        return destination.length();
+    }
+
+    /**
+     * Connects the wagon, waits for {@link #pauseMillis}, which the measure includes, and gets a small object.
+     */
+    @Benchmark
+    public long connectAndGet()
+        throws Exception
+    {
+        Wagons.connect( wagon );
+        Thread.sleep( pauseMillis );
+        wagon.get( RESOURCE_NAME, destination );
+        return destination.length();
+    }
+
+    @TearDown( Level.Iteration )
+    public void disconnect()
+        throws Exception
+    {
+        wagon.disconnect();
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        destination.delete();
+    }
+}
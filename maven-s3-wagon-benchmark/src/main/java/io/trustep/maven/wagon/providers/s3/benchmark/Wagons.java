@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3.benchmark;
+
+import org.apache.maven.wagon.authentication.AuthenticationInfo;
+import org.apache.maven.wagon.repository.Repository;
+
+import io.trustep.maven.wagon.providers.s3.S3Wagon;
+
+/**
+ * Creates the wagons under test, connected to the emulator of a trial.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class Wagons
+{
+    /**
+     * The resources of the benchmarks are under this directory of the bucket.
+     */
+    static final String BASE_DIRECTORY = "repository";
+
+    private Wagons()
+    {
+    }
+
+    /**
+     * @param partSize the size of the parts of multipart uploads and of the ranges of downloads, also the size above
+     *            which they are used
+     * @param concurrency how many parts or ranges of the same object are transferred at the same time
+     * @param transferEngine {@code sync} or {@code async}
+     */
+    static S3Wagon connect( EmulatorState state, long partSize, int concurrency, String transferEngine )
+        throws Exception
+    {
+        S3Wagon wagon = create( state, partSize, concurrency, transferEngine );
+        connect( wagon );
+        return wagon;
+    }
+
+    /**
+     * Same as {@link #connect(EmulatorState, long, int, String)}, leaving the wagon to be configured further and
+     * {@link #connect(S3Wagon) connected}.
+     */
+    static S3Wagon create( EmulatorState state, long partSize, int concurrency, String transferEngine )
+    {
+        S3Wagon wagon = new S3Wagon();
+        wagon.setEndpoint( state.emulator.getEndpoint() );
+        wagon.setPathStyleAccess( true );
+        wagon.setRegion( "us-east-1" );
+        wagon.setTransferEngine( transferEngine );
+        wagon.setMultipartThreshold( partSize );
+        wagon.setMultipartPartSize( partSize );
+        wagon.setMultipartConcurrency( concurrency );
+        wagon.setRangedGetPartSize( partSize );
+        wagon.setRangedGetConcurrency( concurrency );
+        // every operation must reach the emulator
+        wagon.setExistenceCacheTtl( 0 );
+        wagon.setListingCacheTtl( 0 );
+        // a client per trial, closed with it
+        wagon.setClientIdleTimeout( 0 );
+        return wagon;
+    }
+
+    static void connect( S3Wagon wagon )
+        throws Exception
+    {
+        AuthenticationInfo authentication = new AuthenticationInfo();
+        authentication.setUserName( "benchmark" );
+        authentication.setPassword( "benchmark" );
+        wagon.connect( new Repository( "benchmark", "s3://" + EmulatorState.BUCKET + "/" + BASE_DIRECTORY ),
+                       authentication );
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Slows the requests of a client down once S3 throttles them. Nothing is limited until the first 503 Slow Down; from
+ * then on requests take tokens from a bucket whose fill rate is cut to 70% of the measured request rate on every
+ * throttling response and grows back, along a cubic curve, while requests succeed. This is the adaptive retry mode of
+ * later SDK versions, which 2.13 does not have.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class AdaptiveRateLimiter
+{
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    private static final double BETA = 0.7;
+
+    private static final double SCALE_CONSTANT = 0.4;
+
+    private static final double SMOOTH = 0.8;
+
+    private static final double MIN_FILL_RATE = 0.5;
+
+    private static final double MIN_CAPACITY = 1;
+
+    private static final double RATE_BUCKET_SECONDS = 0.5;
+
+    private final ExecutionInterceptor interceptor = new Interceptor();
+
+    private boolean enabled;
+
+    private double fillRate;
+
+    private double maxCapacity;
+
+    private double capacity;
+
+    private double lastRefill;
+
+    private double measuredRate;
+
+    private double lastRateBucket = Math.floor( now() / RATE_BUCKET_SECONDS ) * RATE_BUCKET_SECONDS;
+
+    private long requestsInBucket;
+
+    private double lastMaxRate;
+
+    private double lastThrottle = now();
+
+    private double timeWindow;
+
+    /**
+     * @return the interceptor that makes the requests of a client wait for a token and feeds their responses back
+     */
+    ExecutionInterceptor interceptor()
+    {
+        return interceptor;
+    }
+
+    /**
+     * Takes a token, waiting for one to be available if the requests are being limited.
+     */
+    void acquire()
+    {
+        long waitNanos;
+        synchronized ( this )
+        {
+            if ( !enabled )
+            {
+                return;
+            }
+            refill();
+            capacity -= 1;
+            waitNanos = capacity >= 0 ? 0 : (long) ( -capacity / fillRate * 1e9 );
+        }
+        if ( waitNanos > 0 )
+        {
+            try
+            {
+                Thread.sleep( waitNanos / 1000000, (int) ( waitNanos % 1000000 ) );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Adjusts the fill rate to a response, throttled or not.
+     */
+    synchronized void update( boolean throttled )
+    {
+        double now = now();
+        updateMeasuredRate( now );
+        double rate;
+        if ( throttled )
+        {
+            lastMaxRate = enabled ? Math.min( measuredRate, fillRate ) : measuredRate;
+            timeWindow = Math.cbrt( lastMaxRate * ( 1 - BETA ) / SCALE_CONSTANT );
+            lastThrottle = now;
+            rate = lastMaxRate * BETA;
+            enabled = true;
+        }
+        else
+        {
+            rate = SCALE_CONSTANT * Math.pow( now - lastThrottle - timeWindow, 3 ) + lastMaxRate;
+        }
+        setFillRate( Math.min( rate, 2 * measuredRate ) );
+    }
+
+    private void refill()
+    {
+        double now = now();
+        if ( lastRefill > 0 )
+        {
+            capacity = Math.min( maxCapacity, capacity + ( now - lastRefill ) * fillRate );
+        }
+        lastRefill = now;
+    }
+
+    private void setFillRate( double rate )
+    {
+        refill();
+        fillRate = Math.max( rate, MIN_FILL_RATE );
+        maxCapacity = Math.max( rate, MIN_CAPACITY );
+        capacity = Math.min( capacity, maxCapacity );
+    }
+
+    private void updateMeasuredRate( double now )
+    {
+        double bucket = Math.floor( now / RATE_BUCKET_SECONDS ) * RATE_BUCKET_SECONDS;
+        requestsInBucket++;
+        if ( bucket > lastRateBucket )
+        {
+            double rate = requestsInBucket / ( bucket - lastRateBucket );
+            measuredRate = rate * SMOOTH + measuredRate * ( 1 - SMOOTH );
+            requestsInBucket = 0;
+            lastRateBucket = bucket;
+        }
+    }
+
+    private static double now()
+    {
+        return System.nanoTime() / 1e9;
+    }
+
+    private final class Interceptor
+        implements ExecutionInterceptor
+    {
+        @Override
+        public void beforeTransmission( Context.BeforeTransmission context, ExecutionAttributes executionAttributes )
+        {
+            acquire();
+        }
+
+        @Override
+        public void afterTransmission( Context.AfterTransmission context, ExecutionAttributes executionAttributes )
+        {
+            int status = context.httpResponse().statusCode();
+            update( status == HTTP_SERVICE_UNAVAILABLE || status == HTTP_TOO_MANY_REQUESTS );
+        }
+    }
+}
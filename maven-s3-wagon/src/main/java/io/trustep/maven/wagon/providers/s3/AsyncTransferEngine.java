@@ -0,0 +1,415 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+/**
+ * A {@link TransferEngine} on top of {@link S3AsyncClient}. Transfers run on the event loop of the non-blocking HTTP
+ * client, so many of them can be in flight without a thread each. Bodies are read and written with positional file
+ * I/O one buffer at a time, as the other side asks for more, which keeps memory bounded whatever the object size.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class AsyncTransferEngine
+    implements TransferEngine
+{
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final S3AsyncClient s3AsyncClient;
+
+    AsyncTransferEngine( S3AsyncClient s3AsyncClient )
+    {
+        this.s3AsyncClient = s3AsyncClient;
+    }
+
+    @Override
+    public CompletableFuture<GetObjectResponse> download( GetObjectRequest request, FileChannel channel,
+                                                          long position, Consumer<GetObjectResponse> onResponse,
+                                                          TransferProgress progress )
+    {
+        return s3AsyncClient.getObject( request,
+                                        new FileChannelTransformer( channel, position, onResponse, progress ) );
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> upload( PutObjectRequest request, File source,
+                                                        TransferProgress progress )
+    {
+        return s3AsyncClient.putObject( request, new FileSegmentBody( source, 0, source.length(), progress ) );
+    }
+
+    @Override
+    public CompletableFuture<UploadPartResponse> uploadPart( UploadPartRequest request, File source, long offset,
+                                                             long length, TransferProgress progress )
+    {
+        return s3AsyncClient.uploadPart( request, new FileSegmentBody( source, offset, length, progress ) );
+    }
+
+    @Override
+    public void close()
+    {
+        // the client is shared, it is released by the wagon
+    }
+
+    /**
+     * Writes the response body into a file channel at a given position, asking for the next buffer only once the
+     * previous one is on disk. Writes and progress reports run in the pool of the {@link BlockingTransferEngine}, a
+     * slow disk or listener must not hold the event loop, which serves every other transfer too.
+     */
+    private static final class FileChannelTransformer
+        implements AsyncResponseTransformer<GetObjectResponse, GetObjectResponse>
+    {
+        private final FileChannel channel;
+
+        private final long start;
+
+        private final Consumer<GetObjectResponse> onResponse;
+
+        private final TransferProgress progress;
+
+        private volatile CompletableFuture<GetObjectResponse> future;
+
+        private volatile GetObjectResponse response;
+
+        private FileChannelTransformer( FileChannel channel, long start, Consumer<GetObjectResponse> onResponse,
+                                        TransferProgress progress )
+        {
+            this.channel = channel;
+            this.start = start;
+            this.onResponse = onResponse;
+            this.progress = progress;
+        }
+
+        @Override
+        public CompletableFuture<GetObjectResponse> prepare()
+        {
+            // called again for every retry
+            future = new CompletableFuture<>();
+            return future;
+        }
+
+        @Override
+        public void onResponse( GetObjectResponse response )
+        {
+            this.response = response;
+            onResponse.accept( response );
+        }
+
+        @Override
+        public void onStream( SdkPublisher<ByteBuffer> publisher )
+        {
+            final CompletableFuture<GetObjectResponse> result = future;
+            publisher.subscribe( new Subscriber<ByteBuffer>()
+            {
+                private Subscription subscription;
+
+                private long position = start;
+
+                /**
+                 * The write of the last buffer; there is never more than one, the next buffer is only asked for
+                 * once it is done.
+                 */
+                private CompletableFuture<Void> writing = CompletableFuture.completedFuture( null );
+
+                @Override
+                public void onSubscribe( Subscription s )
+                {
+                    subscription = s;
+                    s.request( 1 );
+                }
+
+                @Override
+                public void onNext( ByteBuffer buffer )
+                {
+                    long offset = position;
+                    position += buffer.remaining();
+                    writing = CompletableFuture.runAsync( () -> write( buffer, offset ),
+                                                          BlockingTransferEngine.executor() );
+                    writing.whenComplete( ( written, error ) -> {
+                        if ( error == null )
+                        {
+                            subscription.request( 1 );
+                        }
+                        else
+                        {
+                            subscription.cancel();
+                            result.completeExceptionally( error.getCause() == null ? error : error.getCause() );
+                        }
+                    } );
+                }
+
+                @Override
+                public void onError( Throwable t )
+                {
+                    // the channel is closed once the result is known, the last write must be over by then
+                    writing.whenComplete( ( written, error ) -> result.completeExceptionally( t ) );
+                }
+
+                @Override
+                public void onComplete()
+                {
+                    writing.whenComplete( ( written, error ) -> {
+                        if ( error == null )
+                        {
+                            result.complete( response );
+                        }
+                    } );
+                }
+            } );
+        }
+
+        private void write( ByteBuffer buffer, long offset )
+        {
+            try
+            {
+                ByteBuffer written = buffer.duplicate();
+                long position = offset;
+                while ( buffer.hasRemaining() )
+                {
+                    position += channel.write( buffer, position );
+                }
+                progress.update( offset, written );
+            }
+            catch ( IOException e )
+            {
+                throw new UncheckedIOException( e );
+            }
+        }
+
+        @Override
+        public void exceptionOccurred( Throwable error )
+        {
+            CompletableFuture<GetObjectResponse> result = future;
+            if ( result != null )
+            {
+                result.completeExceptionally( error );
+            }
+        }
+    }
+
+    /**
+     * Publishes a region of a file, reading the next chunk only when the subscriber asks for it. Every subscription
+     * starts over from the beginning of the region, as the SDK subscribes again when it retries a request.
+     */
+    private static final class FileSegmentBody
+        implements AsyncRequestBody
+    {
+        private final File file;
+
+        private final long offset;
+
+        private final long length;
+
+        private final TransferProgress progress;
+
+        private FileSegmentBody( File file, long offset, long length, TransferProgress progress )
+        {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.progress = progress;
+        }
+
+        @Override
+        public Optional<Long> contentLength()
+        {
+            return Optional.of( length );
+        }
+
+        @Override
+        public void subscribe( Subscriber<? super ByteBuffer> subscriber )
+        {
+            FileChannel channel;
+            try
+            {
+                channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+            }
+            catch ( IOException e )
+            {
+                subscriber.onSubscribe( new Subscription()
+                {
+                    @Override
+                    public void request( long n )
+                    {
+                    }
+
+                    @Override
+                    public void cancel()
+                    {
+                    }
+                } );
+                subscriber.onError( e );
+                return;
+            }
+            subscriber.onSubscribe( new SegmentSubscription( channel, subscriber ) );
+        }
+
+        private final class SegmentSubscription
+            implements Subscription
+        {
+            private final FileChannel channel;
+
+            private final Subscriber<? super ByteBuffer> subscriber;
+
+            private final AtomicLong demand = new AtomicLong();
+
+            private final AtomicInteger draining = new AtomicInteger();
+
+            private long position = offset;
+
+            private volatile boolean done;
+
+            private SegmentSubscription( FileChannel channel, Subscriber<? super ByteBuffer> subscriber )
+            {
+                this.channel = channel;
+                this.subscriber = subscriber;
+            }
+
+            @Override
+            public void request( long n )
+            {
+                if ( n <= 0 )
+                {
+                    finish( new IllegalArgumentException( "Non-positive request of " + n + " buffers" ) );
+                    return;
+                }
+                long current;
+                do
+                {
+                    current = demand.get();
+                }
+                while ( !demand.compareAndSet( current, current + n < 0 ? Long.MAX_VALUE : current + n ) );
+                drain();
+            }
+
+            @Override
+            public void cancel()
+            {
+                done = true;
+                closeChannel();
+            }
+
+            /**
+             * Emits buffers while there is demand. Requests made from within {@code onNext} only add demand, the
+             * thread already draining picks it up, so the stack never grows with the number of chunks.
+             */
+            private void drain()
+            {
+                if ( draining.getAndIncrement() != 0 )
+                {
+                    return;
+                }
+                do
+                {
+                    while ( !done && demand.get() > 0 )
+                    {
+                        long end = offset + length;
+                        if ( position >= end )
+                        {
+                            finish( null );
+                            return;
+                        }
+                        ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( CHUNK_SIZE, end - position ) );
+                        try
+                        {
+                            long start = position;
+                            while ( buffer.hasRemaining() )
+                            {
+                                int n = channel.read( buffer, position );
+                                if ( n < 0 )
+                                {
+                                    throw new IOException( "Unexpected end of " + file.getAbsolutePath() );
+                                }
+                                position += n;
+                            }
+                            buffer.flip();
+                            progress.update( start, buffer );
+                        }
+                        catch ( IOException | UncheckedIOException e )
+                        {
+                            finish( e );
+                            return;
+                        }
+                        demand.decrementAndGet();
+                        subscriber.onNext( buffer );
+                    }
+                    if ( !done && position >= offset + length )
+                    {
+                        finish( null );
+                        return;
+                    }
+                }
+                while ( draining.decrementAndGet() != 0 );
+            }
+
+            private void finish( Throwable error )
+            {
+                if ( done )
+                {
+                    return;
+                }
+                done = true;
+                closeChannel();
+                if ( error == null )
+                {
+                    subscriber.onComplete();
+                }
+                else
+                {
+                    subscriber.onError( error );
+                }
+            }
+
+            private void closeChannel()
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch ( IOException e )
+                {
+                    // nothing left to read from it anyway
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+/**
+ * A {@link TransferEngine} on top of the blocking {@link S3Client}: each transfer holds a thread of a pool shared by
+ * all the engines of the JVM, the {@link ParallelTransfer} of each operation keeping no more of its transfers in
+ * flight than its concurrency. With a single thread transfers simply run in the calling thread.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class BlockingTransferEngine
+    implements TransferEngine
+{
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    /**
+     * How many transfers of the whole JVM run at the same time at most, the others waiting in line. It is above the
+     * default connection pool size, more would only wait for a connection.
+     */
+    private static final int MAX_THREADS = 64;
+
+    private static final ThreadPoolExecutor EXECUTOR = newExecutor();
+
+    private final S3Client s3Client;
+
+    private final boolean parallel;
+
+    /**
+     * @param threads how many transfers of the operation may be in flight at the same time; with 1 they run in the
+     *            calling thread
+     */
+    BlockingTransferEngine( S3Client s3Client, int threads )
+    {
+        this.s3Client = s3Client;
+        this.parallel = threads > 1;
+    }
+
+    private static ThreadPoolExecutor newExecutor()
+    {
+        ThreadPoolExecutor executor =
+            new ThreadPoolExecutor( MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                    new DaemonThreadFactory( "s3-wagon-transfer" ) );
+        // idle threads go away between builds of a long lived JVM
+        executor.allowCoreThreadTimeOut( true );
+        return executor;
+    }
+
+    /**
+     * @return the pool transfers run in, for other blocking requests that should not run on threads of their own
+     */
+    static Executor executor()
+    {
+        return EXECUTOR;
+    }
+
+    @Override
+    public CompletableFuture<GetObjectResponse> download( GetObjectRequest request, FileChannel channel,
+                                                          long position, Consumer<GetObjectResponse> onResponse,
+                                                          TransferProgress progress )
+    {
+        return run( () -> {
+            ResponseInputStream<GetObjectResponse> in = s3Client.getObject( request );
+            try
+            {
+                onResponse.accept( in.response() );
+                copy( in, channel, position, progress );
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                // do not drain the rest of the body just to reuse the connection
+                in.abort();
+                throw e;
+            }
+            finally
+            {
+                in.close();
+            }
+            return in.response();
+        } );
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> upload( PutObjectRequest request, File source,
+                                                        TransferProgress progress )
+    {
+        RequestBody body = body( source, 0, source.length(), contentType( source ), progress );
+        return run( () -> s3Client.putObject( request, body ) );
+    }
+
+    @Override
+    public CompletableFuture<UploadPartResponse> uploadPart( UploadPartRequest request, File source, long offset,
+                                                             long length, TransferProgress progress )
+    {
+        RequestBody body = body( source, offset, length, OCTET_STREAM, progress );
+        return run( () -> s3Client.uploadPart( request, body ) );
+    }
+
+    /**
+     * Guesses the content type from the file name, as uploading the file directly would.
+     */
+    private static String contentType( File source )
+    {
+        String contentType = URLConnection.guessContentTypeFromName( source.getName() );
+        return contentType == null ? OCTET_STREAM : contentType;
+    }
+
+    private static RequestBody body( File source, long offset, long length, String contentType,
+                                     TransferProgress progress )
+    {
+        return RequestBody.fromContentProvider( () -> {
+            try
+            {
+                return new FileSegmentInputStream( source, offset, length, progress );
+            }
+            catch ( IOException e )
+            {
+                throw SdkClientException.create( "Unable to read " + source.getAbsolutePath(), e );
+            }
+        }, length, contentType );
+    }
+
+    /**
+     * Nothing to release, the threads are shared with the other engines.
+     */
+    @Override
+    public void close()
+    {
+    }
+
+    private <T> CompletableFuture<T> run( Callable<T> transfer )
+    {
+        if ( !parallel )
+        {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            try
+            {
+                future.complete( transfer.call() );
+            }
+            catch ( Exception e )
+            {
+                future.completeExceptionally( e );
+            }
+            return future;
+        }
+        return CompletableFuture.supplyAsync( () -> {
+            try
+            {
+                return transfer.call();
+            }
+            catch ( RuntimeException e )
+            {
+                throw e;
+            }
+            catch ( Exception e )
+            {
+                throw new CompletionException( e );
+            }
+        }, EXECUTOR );
+    }
+
+    private static void copy( InputStream in, FileChannel channel, long position, TransferProgress progress )
+        throws IOException
+    {
+        byte[] buffer = BufferPool.acquire( BufferPool.BUFFER_SIZE );
+        try
+        {
+            ByteBuffer wrapper = ByteBuffer.wrap( buffer );
+            int n;
+            while ( ( n = in.read( buffer ) ) != -1 )
+            {
+                wrapper.clear();
+                wrapper.limit( n );
+                long start = position;
+                while ( wrapper.hasRemaining() )
+                {
+                    position += channel.write( wrapper, position );
+                }
+                progress.update( start, buffer, 0, n );
+            }
+        }
+        finally
+        {
+            BufferPool.release( buffer );
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Copy buffers reused by all {@link S3Wagon} instances of the JVM, so that resolving thousands of small resources
+ * does not allocate a fresh buffer for each of them. The pool holds at most
+ * {@code maven.wagon.s3.bufferPoolSize} buffers of {@link #BUFFER_SIZE} bytes; buffers asked for beyond that, or
+ * bigger than that, are simply allocated and left to the garbage collector.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class BufferPool
+{
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final BlockingQueue<byte[]> BUFFERS =
+        new ArrayBlockingQueue<>( Math.max( 1, Integer.getInteger( "maven.wagon.s3.bufferPoolSize", 32 ) ) );
+
+    private BufferPool()
+    {
+    }
+
+    /**
+     * @return a buffer of at least {@code size} bytes, to be given back with {@link #release(byte[])}
+     */
+    static byte[] acquire( int size )
+    {
+        if ( size > BUFFER_SIZE )
+        {
+            return new byte[size];
+        }
+        byte[] buffer = BUFFERS.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    static void release( byte[] buffer )
+    {
+        if ( buffer != null && buffer.length == BUFFER_SIZE )
+        {
+            BUFFERS.offer( buffer );
+        }
+    }
+}
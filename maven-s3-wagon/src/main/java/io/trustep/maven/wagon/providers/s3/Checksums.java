@@ -0,0 +1,235 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Digests of a resource computed while its bytes stream through the wagon, named after the extension of the checksum
+ * files Maven puts beside artifacts: {@code md5}, {@code sha1}, {@code sha256} and {@code sha512}. Digests can also
+ * be stored as user metadata of the object, {@code x-amz-meta-checksum-<extension>}, so that the checksum files of an
+ * artifact are known from the artifact itself.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class Checksums
+{
+    /**
+     * Checksum file extensions and the algorithm of each, strongest last.
+     */
+    private static final Map<String, String> ALGORITHMS;
+
+    static
+    {
+        Map<String, String> algorithms = new LinkedHashMap<>();
+        algorithms.put( "md5", "MD5" );
+        algorithms.put( "sha1", "SHA-1" );
+        algorithms.put( "sha256", "SHA-256" );
+        algorithms.put( "sha512", "SHA-512" );
+        ALGORITHMS = Collections.unmodifiableMap( algorithms );
+    }
+
+    private static final String METADATA_PREFIX = "checksum-";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+    Checksums( List<String> extensions )
+    {
+        for ( String extension : extensions )
+        {
+            try
+            {
+                digests.put( extension, MessageDigest.getInstance( ALGORITHMS.get( extension ) ) );
+            }
+            catch ( NoSuchAlgorithmException e )
+            {
+                throw new IllegalStateException( ALGORITHMS.get( extension ) + " is not available", e );
+            }
+        }
+    }
+
+    /**
+     * Parses a comma separated list of checksum file extensions.
+     *
+     * @throws IllegalArgumentException if an extension is not known
+     */
+    static List<String> parse( String extensions )
+    {
+        List<String> result = new ArrayList<>();
+        if ( extensions == null )
+        {
+            return result;
+        }
+        for ( String extension : extensions.split( "," ) )
+        {
+            String name = extension.trim().toLowerCase();
+            if ( name.isEmpty() || result.contains( name ) )
+            {
+                continue;
+            }
+            if ( !ALGORITHMS.containsKey( name ) )
+            {
+                throw new IllegalArgumentException( "Unknown checksum '" + extension.trim() + "', expected one of "
+                    + ALGORITHMS.keySet() );
+            }
+            result.add( name );
+        }
+        return result;
+    }
+
+    /**
+     * @return the extension if {@code resourceName} is a checksum file, {@code null} otherwise
+     */
+    static String checksumExtension( String resourceName )
+    {
+        int dot = resourceName.lastIndexOf( '.' );
+        if ( dot < 0 )
+        {
+            return null;
+        }
+        String extension = resourceName.substring( dot + 1 ).toLowerCase();
+        return ALGORITHMS.containsKey( extension ) ? extension : null;
+    }
+
+    /**
+     * Reads the digest out of a checksum file, which may be followed by the file name as {@code sha1sum} writes it.
+     */
+    static String parseChecksumFile( String content )
+    {
+        String trimmed = content.trim();
+        int space = trimmed.indexOf( ' ' );
+        return ( space < 0 ? trimmed : trimmed.substring( 0, space ) ).toLowerCase();
+    }
+
+    void update( byte[] buffer, int offset, int length )
+    {
+        for ( MessageDigest digest : digests.values() )
+        {
+            digest.update( buffer, offset, length );
+        }
+    }
+
+    /**
+     * Completes the digests; can only be called once.
+     *
+     * @return the hex encoded digests by extension
+     */
+    Map<String, String> complete()
+    {
+        Map<String, String> result = new LinkedHashMap<>();
+        for ( Map.Entry<String, MessageDigest> digest : digests.entrySet() )
+        {
+            result.put( digest.getKey(), ETags.hex( digest.getValue().digest() ) );
+        }
+        return result;
+    }
+
+    /**
+     * Computes the digests of a whole file, for when they are needed before its upload starts.
+     */
+    static Map<String, String> compute( File file, List<String> extensions )
+        throws IOException
+    {
+        Checksums checksums = new Checksums( extensions );
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try ( InputStream in = Files.newInputStream( file.toPath() ) )
+        {
+            int n;
+            while ( ( n = in.read( buffer ) ) != -1 )
+            {
+                checksums.update( buffer, 0, n );
+            }
+        }
+        return checksums.complete();
+    }
+
+    /**
+     * @return the user metadata storing {@code digests}, without the {@code x-amz-meta-} prefix the SDK adds
+     */
+    static Map<String, String> toMetadata( Map<String, String> digests )
+    {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        for ( Map.Entry<String, String> digest : digests.entrySet() )
+        {
+            metadata.put( METADATA_PREFIX + digest.getKey(), digest.getValue() );
+        }
+        return metadata;
+    }
+
+    /**
+     * @return the digests found in the user metadata of an object, by extension
+     */
+    static Map<String, String> fromMetadata( Map<String, String> metadata )
+    {
+        Map<String, String> digests = new LinkedHashMap<>();
+        if ( metadata == null )
+        {
+            return digests;
+        }
+        for ( Map.Entry<String, String> entry : metadata.entrySet() )
+        {
+            String name = entry.getKey().toLowerCase();
+            if ( name.startsWith( METADATA_PREFIX )
+                && ALGORITHMS.containsKey( name.substring( METADATA_PREFIX.length() ) ) )
+            {
+                digests.put( name.substring( METADATA_PREFIX.length() ), entry.getValue().trim().toLowerCase() );
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * The digests stored with an object, possibly none, and when it was last modified.
+     */
+    static final class Stored
+    {
+        private final Map<String, String> digests;
+
+        private final long lastModified;
+
+        Stored( Map<String, String> digests, long lastModified )
+        {
+            this.digests = digests;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the hex digest, or {@code null} if it was not stored
+         */
+        String get( String extension )
+        {
+            return digests.get( extension );
+        }
+
+        long getLastModified()
+        {
+            return lastModified;
+        }
+    }
+}
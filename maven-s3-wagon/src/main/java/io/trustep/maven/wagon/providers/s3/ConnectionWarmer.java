@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+
+/**
+ * Gets a client ready in the background while Maven is still busy elsewhere: a few HEAD requests on the bucket, sent
+ * together, build the client, resolve the credentials and leave as many connections, TLS handshake done, in its pool
+ * for the first transfers. Only the blocking client is warmed up, since the small gets and the existence checks that
+ * open a resolution go through it whatever the transfer engine. The answers do not matter, an access denied opens a
+ * connection as well; a failure to reach S3 is left for the first transfer to report.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class ConnectionWarmer
+{
+    private static final ExecutorService EXECUTOR =
+        Executors.newCachedThreadPool( new DaemonThreadFactory( "s3-wagon-warmup" ) );
+
+    private ConnectionWarmer()
+    {
+    }
+
+    /**
+     * Opens {@code connections} connections of {@code client}, the one of {@code configuration}, to {@code bucket},
+     * unless that was already done since the client was built.
+     */
+    static void warm( S3ClientConfiguration configuration, Supplier<S3Client> client, String bucket,
+                      int connections )
+    {
+        if ( connections <= 0 || !S3ClientRegistry.getInstance().claimWarmup( configuration, bucket ) )
+        {
+            return;
+        }
+        for ( int i = 0; i < connections; i++ )
+        {
+            EXECUTOR.execute( () -> {
+                try
+                {
+                    client.get().headBucket( b -> b.bucket( bucket ) );
+                }
+                catch ( SdkException | IllegalStateException e )
+                {
+                    // the connection is open all the same, the first transfer tells what is wrong or the wagon
+                    // disconnected and the client was closed meanwhile
+                }
+            } );
+        }
+    }
+
+    /**
+     * Resolves the credentials of the default provider chain once per JVM, which can take a while when they come
+     * from an instance profile, a container or a web identity.
+     */
+    static void resolveDefaultCredentials()
+    {
+        if ( S3ClientConfiguration.claimDefaultCredentialsResolution() )
+        {
+            EXECUTOR.execute( () -> {
+                try
+                {
+                    S3ClientConfiguration.resolveDefaultCredentials();
+                }
+                catch ( SdkException e )
+                {
+                    // the first request tells what is wrong
+                }
+            } );
+        }
+    }
+}
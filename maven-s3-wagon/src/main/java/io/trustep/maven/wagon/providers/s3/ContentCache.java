@@ -0,0 +1,468 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A directory of object contents shared by every build of a host, so that agents starting from an empty local
+ * repository do not download the same artifacts from S3 over and over. Contents are stored by bucket, key and ETag:
+ * the ETag of the cached content is sent as {@code If-None-Match}, and when S3 answers that it did not change the
+ * content is copied into the destination. Contents are copied in and out, never linked, so that a build writing to or
+ * touching its local repository cannot change the cache.
+ * <p>
+ * Each object has a directory of its own, named after a hash of its bucket and key, holding the content as
+ * {@code <etag>.blob} with the last modified time of the object, and a lock file. Contents are written to a temporary
+ * file and renamed, so nobody ever sees a partial one. Other JVMs are kept out by locking the lock file, other threads
+ * by locking a stripe of this class. The modification time of the directory records the last use of the entry; once
+ * the cache outgrows its maximum size the least recently used entries are deleted, by one JVM at a time.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class ContentCache
+{
+    private static final Map<Path, ContentCache> INSTANCES = new ConcurrentHashMap<>();
+
+    private static final String BLOB_SUFFIX = ".blob";
+
+    private static final String LOCK_FILE = ".lock";
+
+    private static final String EVICTION_LOCK_FILE = ".eviction.lock";
+
+    /**
+     * Eviction goes down to this share of the maximum size, so that it does not run again on the next store.
+     */
+    private static final double LOW_WATER_MARK = 0.9;
+
+    private static final int STRIPES = 64;
+
+    private final Path directory;
+
+    private final Object[] stripes = new Object[STRIPES];
+
+    /**
+     * What this JVM believes the cache holds; other JVMs make it drift, every eviction scan sets it right.
+     */
+    private final AtomicLong size = new AtomicLong( -1 );
+
+    private volatile long maximumSize;
+
+    private ContentCache( Path directory )
+    {
+        this.directory = directory;
+        for ( int i = 0; i < STRIPES; i++ )
+        {
+            stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the cache in {@code directory}, shared by every wagon of the JVM using the same directory
+     */
+    static ContentCache forDirectory( String directory, long maximumSize )
+    {
+        Path path = Paths.get( directory ).toAbsolutePath().normalize();
+        ContentCache cache = INSTANCES.computeIfAbsent( path, ContentCache::new );
+        cache.maximumSize = maximumSize;
+        return cache;
+    }
+
+    /**
+     * A content found in the cache.
+     */
+    static final class Entry
+    {
+        private final Path blob;
+
+        private final String eTag;
+
+        private final long lastModified;
+
+        private final long length;
+
+        private Entry( Path blob, String eTag, long lastModified, long length )
+        {
+            this.blob = blob;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        String getETag()
+        {
+            return eTag;
+        }
+
+        long getLastModified()
+        {
+            return lastModified;
+        }
+
+        long getLength()
+        {
+            return length;
+        }
+    }
+
+    /**
+     * @return the cached content of the object, or {@code null}
+     */
+    Entry lookup( String bucket, String key )
+        throws IOException
+    {
+        Path entry = entryDirectory( bucket, key );
+        if ( !Files.isDirectory( entry ) )
+        {
+            return null;
+        }
+        synchronized ( stripe( entry ) )
+        {
+            try ( FileChannel lock = openLock( entry ); FileLock shared = lock.lock( 0, Long.MAX_VALUE, true ) )
+            {
+                try ( DirectoryStream<Path> blobs = Files.newDirectoryStream( entry, "*" + BLOB_SUFFIX ) )
+                {
+                    for ( Path blob : blobs )
+                    {
+                        String name = blob.getFileName().toString();
+                        String eTag = '"' + name.substring( 0, name.length() - BLOB_SUFFIX.length() ) + '"';
+                        long lastModified = Files.getLastModifiedTime( blob ).toMillis();
+                        return new Entry( blob, eTag, lastModified, Files.size( blob ) );
+                    }
+                }
+            }
+            catch ( NoSuchFileException e )
+            {
+                // evicted meanwhile
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies the cached content to {@code target} and marks the entry as just used.
+     *
+     * @return {@code false} if the content was evicted since it was looked up
+     */
+    boolean copyTo( Entry cached, Path target )
+        throws IOException
+    {
+        Path entry = cached.blob.getParent();
+        synchronized ( stripe( entry ) )
+        {
+            try ( FileChannel lock = openLock( entry ); FileLock shared = lock.lock( 0, Long.MAX_VALUE, true ) )
+            {
+                Files.copy( cached.blob, target, StandardCopyOption.REPLACE_EXISTING );
+                touch( entry );
+                return true;
+            }
+            catch ( NoSuchFileException e )
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Stores the downloaded content of an object, replacing any previous content of the same object.
+     */
+    void store( String bucket, String key, String eTag, long lastModified, Path file )
+        throws IOException
+    {
+        String name = fileName( eTag );
+        if ( name == null )
+        {
+            return;
+        }
+        Path entry = entryDirectory( bucket, key );
+        Files.createDirectories( entry );
+        long length = Files.size( file );
+        synchronized ( stripe( entry ) )
+        {
+            try ( FileChannel lock = openLock( entry ); FileLock exclusive = lock.lock() )
+            {
+                Path blob = entry.resolve( name + BLOB_SUFFIX );
+                if ( !Files.exists( blob ) )
+                {
+                    Path tmp = Files.createTempFile( entry, null, ".tmp" );
+                    try
+                    {
+                        Files.copy( file, tmp, StandardCopyOption.REPLACE_EXISTING );
+                        Files.setLastModifiedTime( tmp, FileTime.fromMillis( lastModified ) );
+                        Files.move( tmp, blob, StandardCopyOption.ATOMIC_MOVE );
+                    }
+                    finally
+                    {
+                        Files.deleteIfExists( tmp );
+                    }
+                    addSize( length );
+                }
+                try ( DirectoryStream<Path> others = Files.newDirectoryStream( entry, "*" + BLOB_SUFFIX ) )
+                {
+                    for ( Path other : others )
+                    {
+                        if ( !other.equals( blob ) )
+                        {
+                            addSize( -Files.size( other ) );
+                            Files.deleteIfExists( other );
+                        }
+                    }
+                }
+                touch( entry );
+            }
+        }
+        if ( size.get() > maximumSize )
+        {
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is below its low water mark. Only one JVM does it at a
+     * time; the others skip it.
+     */
+    private void evict()
+        throws IOException
+    {
+        Path evictionLock = directory.resolve( EVICTION_LOCK_FILE );
+        try ( FileChannel channel =
+            FileChannel.open( evictionLock, StandardOpenOption.CREATE, StandardOpenOption.WRITE ) )
+        {
+            FileLock exclusive;
+            try
+            {
+                exclusive = channel.tryLock();
+            }
+            catch ( OverlappingFileLockException e )
+            {
+                // another thread of this JVM is at it
+                return;
+            }
+            if ( exclusive == null )
+            {
+                return;
+            }
+            try
+            {
+                List<Path> entries = new ArrayList<>();
+                Map<Path, long[]> usage = new HashMap<>();
+                long total = 0;
+                try ( DirectoryStream<Path> shards = Files.newDirectoryStream( directory, Files::isDirectory ) )
+                {
+                    for ( Path shard : shards )
+                    {
+                        try ( DirectoryStream<Path> objects = Files.newDirectoryStream( shard, Files::isDirectory ) )
+                        {
+                            for ( Path entry : objects )
+                            {
+                                long bytes = entrySize( entry );
+                                total += bytes;
+                                entries.add( entry );
+                                usage.put( entry,
+                                           new long[] { Files.getLastModifiedTime( entry ).toMillis(), bytes } );
+                            }
+                        }
+                    }
+                }
+                entries.sort( Comparator.comparingLong( e -> usage.get( e )[0] ) );
+                long target = (long) ( maximumSize * LOW_WATER_MARK );
+                for ( Path entry : entries )
+                {
+                    if ( total <= target )
+                    {
+                        break;
+                    }
+                    if ( delete( entry ) )
+                    {
+                        total -= usage.get( entry )[1];
+                    }
+                }
+                size.set( total );
+            }
+            finally
+            {
+                exclusive.release();
+            }
+        }
+    }
+
+    private boolean delete( Path entry )
+        throws IOException
+    {
+        synchronized ( stripe( entry ) )
+        {
+            try ( FileChannel lock = openLock( entry ); FileLock exclusive = lock.tryLock() )
+            {
+                if ( exclusive == null )
+                {
+                    // in use by another JVM, it is not the least recently used any more
+                    return false;
+                }
+                try ( DirectoryStream<Path> files = Files.newDirectoryStream( entry ) )
+                {
+                    for ( Path file : files )
+                    {
+                        if ( !file.getFileName().toString().equals( LOCK_FILE ) )
+                        {
+                            Files.deleteIfExists( file );
+                        }
+                    }
+                }
+            }
+            catch ( NoSuchFileException e )
+            {
+                return false;
+            }
+            // the lock file goes last: a JVM still holding it open only finds an empty entry
+            Files.deleteIfExists( entry.resolve( LOCK_FILE ) );
+            try
+            {
+                Files.deleteIfExists( entry );
+            }
+            catch ( IOException e )
+            {
+                // recreated meanwhile
+            }
+            return true;
+        }
+    }
+
+    private void addSize( long bytes )
+        throws IOException
+    {
+        if ( size.get() < 0 )
+        {
+            long total = 0;
+            try ( DirectoryStream<Path> shards = Files.newDirectoryStream( directory, Files::isDirectory ) )
+            {
+                for ( Path shard : shards )
+                {
+                    try ( DirectoryStream<Path> objects = Files.newDirectoryStream( shard, Files::isDirectory ) )
+                    {
+                        for ( Path entry : objects )
+                        {
+                            total += entrySize( entry );
+                        }
+                    }
+                }
+            }
+            // the new content is already on disk and counted by the scan
+            size.compareAndSet( -1, total );
+            return;
+        }
+        size.addAndGet( bytes );
+    }
+
+    private static long entrySize( Path entry )
+        throws IOException
+    {
+        long bytes = 0;
+        try ( DirectoryStream<Path> blobs = Files.newDirectoryStream( entry, "*" + BLOB_SUFFIX ) )
+        {
+            for ( Path blob : blobs )
+            {
+                try
+                {
+                    bytes += Files.size( blob );
+                }
+                catch ( NoSuchFileException e )
+                {
+                    // deleted meanwhile
+                }
+            }
+        }
+        catch ( NoSuchFileException e )
+        {
+            // deleted meanwhile
+        }
+        return bytes;
+    }
+
+    private static void touch( Path entry )
+        throws IOException
+    {
+        Files.setLastModifiedTime( entry, FileTime.fromMillis( System.currentTimeMillis() ) );
+    }
+
+    private static FileChannel openLock( Path entry )
+        throws IOException
+    {
+        return FileChannel.open( entry.resolve( LOCK_FILE ), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                 StandardOpenOption.WRITE );
+    }
+
+    private Object stripe( Path entry )
+    {
+        return stripes[( entry.hashCode() & Integer.MAX_VALUE ) % STRIPES];
+    }
+
+    private Path entryDirectory( String bucket, String key )
+    {
+        String hash = sha256( bucket + "/" + key );
+        return directory.resolve( hash.substring( 0, 2 ) ).resolve( hash );
+    }
+
+    /**
+     * @return the ETag without quotes when it is safe as a file name, {@code null} otherwise
+     */
+    private static String fileName( String eTag )
+    {
+        if ( eTag == null )
+        {
+            return null;
+        }
+        String name = eTag.replace( "\"", "" );
+        if ( name.isEmpty() || !name.matches( "[A-Za-z0-9-]+" ) )
+        {
+            return null;
+        }
+        return name;
+    }
+
+    private static String sha256( String value )
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+            return ETags.hex( digest.digest( value.getBytes( StandardCharsets.UTF_8 ) ) );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-256 is not available", e );
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * What a failed download left in its temporary file: which byte ranges of which version of the object are there. It
+ * is stored beside the temporary file, with a {@code .journal} suffix, so that the next get of the resource only asks
+ * for the missing ranges, guarded by the ETag of the version they must belong to.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class DownloadJournal
+{
+    private static final String SUFFIX = ".journal";
+
+    private final String eTag;
+
+    private final long length;
+
+    private final long lastModified;
+
+    private final List<long[]> done;
+
+    /**
+     * @param done the ranges of the object in the temporary file, as {@code {start, end}} pairs with an exclusive end
+     */
+    DownloadJournal( String eTag, long length, long lastModified, List<long[]> done )
+    {
+        this.eTag = eTag;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.done = merge( done, Collections.<long[]>emptyList() );
+    }
+
+    /**
+     * Reads the journal of {@code partial} and deletes it: from now on the caller owns the partial download, and
+     * writes a new journal if it fails again.
+     *
+     * @return the journal, or {@code null} when there is none or it does not match the temporary file
+     */
+    static DownloadJournal take( Path partial )
+    {
+        Path journal = journalOf( partial );
+        Properties properties = new Properties();
+        try ( InputStream in = Files.newInputStream( journal ) )
+        {
+            properties.load( in );
+        }
+        catch ( NoSuchFileException e )
+        {
+            return null;
+        }
+        catch ( IOException e )
+        {
+            delete( partial );
+            return null;
+        }
+        delete( partial );
+        try
+        {
+            List<long[]> done = new ArrayList<>();
+            for ( String range : properties.getProperty( "done", "" ).split( "," ) )
+            {
+                int dash = range.indexOf( '-' );
+                if ( dash > 0 )
+                {
+                    done.add( new long[] { Long.parseLong( range.substring( 0, dash ).trim() ),
+                        Long.parseLong( range.substring( dash + 1 ).trim() ) } );
+                }
+            }
+            long length = Long.parseLong( properties.getProperty( "length" ) );
+            long lastModified = Long.parseLong( properties.getProperty( "lastModified", "0" ) );
+            String eTag = properties.getProperty( "etag" );
+            DownloadJournal result = new DownloadJournal( eTag, length, lastModified, done );
+            if ( result.eTag == null || result.done.isEmpty() || result.missing().isEmpty()
+                || Files.size( partial ) < result.done.get( result.done.size() - 1 )[1] )
+            {
+                return null;
+            }
+            return result;
+        }
+        catch ( NumberFormatException | IOException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the journal beside {@code partial}, replacing any previous one.
+     */
+    void save( Path partial )
+        throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty( "etag", eTag );
+        properties.setProperty( "length", Long.toString( length ) );
+        properties.setProperty( "lastModified", Long.toString( lastModified ) );
+        StringBuilder ranges = new StringBuilder();
+        for ( long[] range : done )
+        {
+            if ( ranges.length() > 0 )
+            {
+                ranges.append( ',' );
+            }
+            ranges.append( range[0] ).append( '-' ).append( range[1] );
+        }
+        properties.setProperty( "done", ranges.toString() );
+        Path journal = journalOf( partial );
+        Path tmp = Files.createTempFile( journal.getParent(), journal.getFileName().toString(), ".tmp" );
+        try
+        {
+            try ( OutputStream out = Files.newOutputStream( tmp ) )
+            {
+                properties.store( out, "Partial download of " + partial.getFileName() );
+            }
+            Files.move( tmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally
+        {
+            Files.deleteIfExists( tmp );
+        }
+    }
+
+    /**
+     * @return whether a failed download left a journal for {@code partial}
+     */
+    static boolean exists( Path partial )
+    {
+        return Files.exists( journalOf( partial ) );
+    }
+
+    static void delete( Path partial )
+    {
+        try
+        {
+            Files.deleteIfExists( journalOf( partial ) );
+        }
+        catch ( IOException e )
+        {
+            // an orphan journal is discarded by the next take, as it will not match
+        }
+    }
+
+    String getETag()
+    {
+        return eTag;
+    }
+
+    long getLength()
+    {
+        return length;
+    }
+
+    long getLastModified()
+    {
+        return lastModified;
+    }
+
+    List<long[]> getDone()
+    {
+        return done;
+    }
+
+    long getDoneLength()
+    {
+        long total = 0;
+        for ( long[] range : done )
+        {
+            total += range[1] - range[0];
+        }
+        return total;
+    }
+
+    /**
+     * @return the ranges of the object still to download, in order
+     */
+    List<long[]> missing()
+    {
+        List<long[]> missing = new ArrayList<>();
+        long position = 0;
+        for ( long[] range : done )
+        {
+            if ( range[0] > position )
+            {
+                missing.add( new long[] { position, range[0] } );
+            }
+            position = Math.max( position, range[1] );
+        }
+        if ( position < length )
+        {
+            missing.add( new long[] { position, length } );
+        }
+        return missing;
+    }
+
+    /**
+     * @return the union of two lists of ranges, merged and in order
+     */
+    static List<long[]> merge( List<long[]> first, List<long[]> second )
+    {
+        List<long[]> all = new ArrayList<>( first );
+        all.addAll( second );
+        all.sort( Comparator.comparingLong( range -> range[0] ) );
+        List<long[]> merged = new ArrayList<>();
+        for ( long[] range : all )
+        {
+            long[] last = merged.isEmpty() ? null : merged.get( merged.size() - 1 );
+            if ( last != null && range[0] <= last[1] )
+            {
+                last[1] = Math.max( last[1], range[1] );
+            }
+            else if ( range[1] > range[0] )
+            {
+                merged.add( new long[] { range[0], range[1] } );
+            }
+        }
+        return merged;
+    }
+
+    private static Path journalOf( Path partial )
+    {
+        return partial.resolveSibling( partial.getFileName() + SUFFIX );
+    }
+}
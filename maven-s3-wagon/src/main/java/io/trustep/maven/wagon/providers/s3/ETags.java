@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Compares local files with the ETag S3 computed for an object. A plain ETag is the MD5 of the content; the ETag of a
+ * multipart upload is the MD5 of the concatenated part MD5s followed by {@code -} and the part count. Only the digest
+ * the ETag calls for is computed, in a single streaming pass over the file.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class ETags
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ETags()
+    {
+    }
+
+    /**
+     * @param partSize the part size requested for multipart uploads, used to rebuild a multipart ETag the way
+     *            {@link MultipartUpload} would have produced it
+     * @return {@code true} if the content of {@code file} matches {@code eTag}; {@code false} also when the ETag can
+     *         not be checked, for example when it does not come from MD5
+     */
+    static boolean matches( File file, String eTag, long partSize )
+        throws IOException
+    {
+        if ( eTag == null )
+        {
+            return false;
+        }
+        String expected = eTag.replace( "\"", "" ).toLowerCase();
+        int dash = expected.indexOf( '-' );
+        MessageDigest digest = md5();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        if ( dash < 0 )
+        {
+            try ( InputStream in = Files.newInputStream( file.toPath() ) )
+            {
+                int n;
+                while ( ( n = in.read( buffer ) ) != -1 )
+                {
+                    digest.update( buffer, 0, n );
+                }
+            }
+            return expected.equals( hex( digest.digest() ) );
+        }
+
+        long length = file.length();
+        long size = MultipartUpload.partSize( length, partSize );
+        long count = Math.max( 1, ( length + size - 1 ) / size );
+        if ( !expected.substring( dash + 1 ).equals( Long.toString( count ) ) )
+        {
+            return false;
+        }
+        MessageDigest part = md5();
+        long inPart = 0;
+        try ( InputStream in = Files.newInputStream( file.toPath() ) )
+        {
+            int n;
+            while ( ( n = in.read( buffer, 0, (int) Math.min( buffer.length, size - inPart ) ) ) != -1 )
+            {
+                part.update( buffer, 0, n );
+                inPart += n;
+                if ( inPart == size )
+                {
+                    digest.update( part.digest() );
+                    inPart = 0;
+                }
+            }
+        }
+        if ( inPart > 0 || length == 0 )
+        {
+            digest.update( part.digest() );
+        }
+        return expected.substring( 0, dash ).equals( hex( digest.digest() ) );
+    }
+
+    static String hex( byte[] bytes )
+    {
+        char[] chars = new char[bytes.length * 2];
+        for ( int i = 0; i < bytes.length; i++ )
+        {
+            chars[2 * i] = HEX[( bytes[i] >> 4 ) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String( chars );
+    }
+
+    private static MessageDigest md5()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "MD5" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            // every Java platform is required to support MD5
+            throw new IllegalStateException( e );
+        }
+    }
+}
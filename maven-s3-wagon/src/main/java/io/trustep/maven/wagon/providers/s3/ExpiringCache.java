@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small cache of answers about S3 objects, meant to be shared by all {@link S3Wagon} instances of the JVM. Plexus
+ * creates a new wagon for every lookup, so these caches are held in static fields to outlive them. Entries are keyed
+ * by store and key, the store being whatever tells a bucket apart from a bucket of the same name on another endpoint
+ * or read with other credentials. They expire after the time to live given by the caller and the least recently used
+ * ones are dropped once the cache is full.
+ *
+ * @param <V> the type of the cached answers
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class ExpiringCache<V>
+{
+    private final Map<List<?>, Answer<V>> entries;
+
+    ExpiringCache( final int maximumEntries )
+    {
+        this.entries = new LinkedHashMap<List<?>, Answer<V>>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<List<?>, Answer<V>> eldest )
+            {
+                return size() > maximumEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached answer, or {@code null} if it is not known or older than {@code ttlMillis}
+     */
+    synchronized V get( Object store, String key, long ttlMillis )
+    {
+        List<?> k = Arrays.asList( store, key );
+        Answer<V> entry = entries.get( k );
+        if ( entry == null )
+        {
+            return null;
+        }
+        if ( System.currentTimeMillis() - entry.timestamp > ttlMillis )
+        {
+            entries.remove( k );
+            return null;
+        }
+        return entry.value;
+    }
+
+    synchronized void put( Object store, String key, V value )
+    {
+        entries.put( Arrays.asList( store, key ), new Answer<V>( value, System.currentTimeMillis() ) );
+    }
+
+    synchronized void invalidate( Object store, String key )
+    {
+        entries.remove( Arrays.asList( store, key ) );
+    }
+
+    private static final class Answer<V>
+    {
+        private final V value;
+
+        private final long timestamp;
+
+        private Answer( V value, long timestamp )
+        {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+}
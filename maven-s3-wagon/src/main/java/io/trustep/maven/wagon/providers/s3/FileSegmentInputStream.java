@@ -0,0 +1,146 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An {@link InputStream} over a fixed region of a file. Reads are positional, so several segments of the same file
+ * can be streamed concurrently without sharing a file pointer. The bytes read can be reported to a
+ * {@link TransferProgress}.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class FileSegmentInputStream
+    extends InputStream
+{
+    private final FileChannel channel;
+
+    private final long end;
+
+    private final TransferProgress progress;
+
+    private long position;
+
+    private long mark;
+
+    FileSegmentInputStream( File file, long offset, long length )
+        throws IOException
+    {
+        this( file, offset, length, null );
+    }
+
+    /**
+     * @param progress notified of every byte read, or {@code null}
+     */
+    FileSegmentInputStream( File file, long offset, long length, TransferProgress progress )
+        throws IOException
+    {
+        this.progress = progress;
+        this.channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+        this.position = offset;
+        this.mark = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read()
+        throws IOException
+    {
+        byte[] b = new byte[1];
+        int n = read( b, 0, 1 );
+        return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read( byte[] b, int off, int len )
+        throws IOException
+    {
+        if ( len == 0 )
+        {
+            return 0;
+        }
+        if ( position >= end )
+        {
+            return -1;
+        }
+        int n = (int) Math.min( len, end - position );
+        int read = channel.read( ByteBuffer.wrap( b, off, n ), position );
+        if ( read < 0 )
+        {
+            return -1;
+        }
+        if ( progress != null )
+        {
+            try
+            {
+                progress.update( position, b, off, read );
+            }
+            catch ( UncheckedIOException e )
+            {
+                throw e.getCause();
+            }
+        }
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip( long n )
+    {
+        long skipped = Math.max( 0, Math.min( n, end - position ) );
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return (int) Math.min( Integer.MAX_VALUE, end - position );
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark( int readlimit )
+    {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        position = mark;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/**
+ * Sends a request a second time when the first one is slower to answer than nearly all requests of its kind, and
+ * keeps whichever answer comes first. A slow request is most often one that landed on a busy server or a bad
+ * connection, so the copy usually answers long before it, at the price of a few percent more requests. An error of
+ * the service is an answer; a client side failure of one request waits for the other one. Both requests run in the
+ * pool of the {@link BlockingTransferEngine}, so hedging never takes more threads than the transfers may.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class HedgedRequest
+{
+    private HedgedRequest()
+    {
+    }
+
+    /**
+     * @param hedgeAfterMicros how long the first request may go unanswered before the second one is sent
+     * @param discard called with the answer that lost the race, to release it
+     * @return the first answer
+     * @throws RuntimeException the failure of the request, as thrown by {@code request}
+     */
+    static <R> R send( Supplier<R> request, long hedgeAfterMicros, Consumer<R> discard )
+        throws InterruptedException
+    {
+        BlockingQueue<CompletableFuture<R>> answers = new LinkedBlockingQueue<>();
+        List<CompletableFuture<R>> sent = new ArrayList<>( 2 );
+        CompletableFuture<R> winner = null;
+        try
+        {
+            sent.add( send( request, answers ) );
+            CompletableFuture<R> answer = answers.poll( hedgeAfterMicros, TimeUnit.MICROSECONDS );
+            if ( answer == null )
+            {
+                TransferMetrics.getInstance().hedged();
+                sent.add( send( request, answers ) );
+            }
+            int answered = 0;
+            while ( winner == null )
+            {
+                if ( answer == null )
+                {
+                    answer = answers.take();
+                }
+                if ( ++answered == sent.size() || !failedOnClient( answer ) )
+                {
+                    winner = answer;
+                }
+                answer = null;
+            }
+        }
+        finally
+        {
+            for ( CompletableFuture<R> loser : sent )
+            {
+                if ( loser != winner )
+                {
+                    loser.thenAccept( discard );
+                }
+            }
+        }
+        try
+        {
+            return winner.join();
+        }
+        catch ( CompletionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static <R> CompletableFuture<R> send( Supplier<R> request, BlockingQueue<CompletableFuture<R>> answers )
+    {
+        CompletableFuture<R> future = CompletableFuture.supplyAsync( request, BlockingTransferEngine.executor() );
+        future.whenComplete( ( result, error ) -> answers.add( future ) );
+        return future;
+    }
+
+    private static boolean failedOnClient( CompletableFuture<?> answer )
+    {
+        try
+        {
+            answer.join();
+            return false;
+        }
+        catch ( CompletionException e )
+        {
+            return !( e.getCause() instanceof SdkServiceException );
+        }
+    }
+}
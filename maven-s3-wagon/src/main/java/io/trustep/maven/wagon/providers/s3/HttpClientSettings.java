@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import io.netty.channel.ChannelOption;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+
+/**
+ * The HTTP layer of the S3 clients: which implementation is used, its timeouts, its connection pool and how failed
+ * requests are retried. It is part of
+ * the {@link S3ClientConfiguration}, so wagons tuned differently never share a client.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class HttpClientSettings
+{
+    static final String APACHE = "apache";
+
+    static final String URL_CONNECTION = "urlconnection";
+
+    private final String httpClient;
+
+    private final int maxConnections;
+
+    private final long connectionTtl;
+
+    private final boolean tcpKeepAlive;
+
+    private final long connectTimeout;
+
+    private final long socketTimeout;
+
+    private final long apiCallTimeout;
+
+    private final long apiCallAttemptTimeout;
+
+    private final int maxRetries;
+
+    private final boolean adaptiveRetries;
+
+    /**
+     * All durations are in milliseconds; a value that is not positive leaves the default of the SDK.
+     *
+     * @param httpClient {@value #APACHE} or {@value #URL_CONNECTION}, the implementation of the blocking client
+     * @param maxConnections the size of the connection pool
+     * @param connectionTtl how long a pooled connection may be reused
+     * @param tcpKeepAlive whether TCP keep-alive probes are sent on idle connections
+     * @param connectTimeout how long establishing a connection may take
+     * @param socketTimeout how long a connection may stay silent while a response is read
+     * @param apiCallTimeout how long a whole call may take, retries included
+     * @param apiCallAttemptTimeout how long a single attempt of a call may take
+     * @param maxRetries how many times a failed request is sent again
+     * @param adaptiveRetries whether requests are slowed down once S3 throttles them, see {@link AdaptiveRateLimiter}
+     * @throws IllegalArgumentException if {@code httpClient} is not a known implementation
+     */
+    HttpClientSettings( String httpClient, int maxConnections, long connectionTtl, boolean tcpKeepAlive,
+                        long connectTimeout, long socketTimeout, long apiCallTimeout, long apiCallAttemptTimeout,
+                        int maxRetries, boolean adaptiveRetries )
+    {
+        String name = httpClient == null ? APACHE : httpClient.trim().toLowerCase();
+        if ( !APACHE.equals( name ) && !URL_CONNECTION.equals( name ) )
+        {
+            throw new IllegalArgumentException( "Unknown HTTP client '" + httpClient + "', expected " + APACHE
+                + " or " + URL_CONNECTION );
+        }
+        this.httpClient = name;
+        this.maxConnections = maxConnections;
+        this.connectionTtl = connectionTtl;
+        this.tcpKeepAlive = tcpKeepAlive;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.apiCallTimeout = apiCallTimeout;
+        this.apiCallAttemptTimeout = apiCallAttemptTimeout;
+        this.maxRetries = maxRetries;
+        this.adaptiveRetries = adaptiveRetries;
+    }
+
+    /**
+     * The URLConnection client has no pool of its own, it relies on the keep-alive cache of the JDK, so only the
+     * timeouts apply to it. TCP keep-alive cannot be set on the Apache client of this SDK version.
+     */
+    SdkHttpClient.Builder<?> syncBuilder()
+    {
+        if ( URL_CONNECTION.equals( httpClient ) )
+        {
+            UrlConnectionHttpClient.Builder builder = UrlConnectionHttpClient.builder();
+            if ( connectTimeout > 0 )
+            {
+                builder.connectionTimeout( Duration.ofMillis( connectTimeout ) );
+            }
+            if ( socketTimeout > 0 )
+            {
+                builder.socketTimeout( Duration.ofMillis( socketTimeout ) );
+            }
+            return builder;
+        }
+        ApacheHttpClient.Builder builder = ApacheHttpClient.builder();
+        if ( maxConnections > 0 )
+        {
+            builder.maxConnections( maxConnections );
+        }
+        if ( connectionTtl > 0 )
+        {
+            builder.connectionTimeToLive( Duration.ofMillis( connectionTtl ) );
+        }
+        if ( connectTimeout > 0 )
+        {
+            builder.connectionTimeout( Duration.ofMillis( connectTimeout ) );
+        }
+        if ( socketTimeout > 0 )
+        {
+            builder.socketTimeout( Duration.ofMillis( socketTimeout ) );
+        }
+        return builder;
+    }
+
+    SdkAsyncHttpClient.Builder<?> asyncBuilder()
+    {
+        NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder();
+        if ( maxConnections > 0 )
+        {
+            builder.maxConcurrency( maxConnections );
+        }
+        if ( connectionTtl > 0 )
+        {
+            builder.connectionTimeToLive( Duration.ofMillis( connectionTtl ) );
+        }
+        if ( tcpKeepAlive )
+        {
+            builder.putChannelOption( ChannelOption.SO_KEEPALIVE, Boolean.TRUE );
+        }
+        if ( connectTimeout > 0 )
+        {
+            builder.connectionTimeout( Duration.ofMillis( connectTimeout ) );
+        }
+        if ( socketTimeout > 0 )
+        {
+            builder.readTimeout( Duration.ofMillis( socketTimeout ) );
+            builder.writeTimeout( Duration.ofMillis( socketTimeout ) );
+        }
+        return builder;
+    }
+
+    /**
+     * Each call builds the configuration of a new client, with a rate limiter of its own. The rate limiter makes the
+     * thread sending a request wait, which an asynchronous client must never do: it sends from the event loop of
+     * Netty, so it gets none.
+     *
+     * @param async whether the configuration is for an asynchronous client
+     */
+    ClientOverrideConfiguration overrideConfiguration( boolean async )
+    {
+        ClientOverrideConfiguration.Builder builder = ClientOverrideConfiguration.builder();
+        builder.addExecutionInterceptor( TransferMetrics.getInstance().interceptor() );
+        builder.retryPolicy( RetryStrategy.sdkPolicy( maxRetries ) );
+        if ( adaptiveRetries && maxRetries > 0 && !async )
+        {
+            builder.addExecutionInterceptor( new AdaptiveRateLimiter().interceptor() );
+        }
+        if ( apiCallTimeout > 0 )
+        {
+            builder.apiCallTimeout( Duration.ofMillis( apiCallTimeout ) );
+        }
+        if ( apiCallAttemptTimeout > 0 )
+        {
+            builder.apiCallAttemptTimeout( Duration.ofMillis( apiCallAttemptTimeout ) );
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+        if ( !( obj instanceof HttpClientSettings ) )
+        {
+            return false;
+        }
+        HttpClientSettings other = (HttpClientSettings) obj;
+        return httpClient.equals( other.httpClient ) && maxConnections == other.maxConnections
+            && connectionTtl == other.connectionTtl && tcpKeepAlive == other.tcpKeepAlive
+            && connectTimeout == other.connectTimeout && socketTimeout == other.socketTimeout
+            && apiCallTimeout == other.apiCallTimeout && apiCallAttemptTimeout == other.apiCallAttemptTimeout
+            && maxRetries == other.maxRetries && adaptiveRetries == other.adaptiveRetries;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash( httpClient, maxConnections, connectionTtl, tcpKeepAlive, connectTimeout, socketTimeout,
+                             apiCallTimeout, apiCallAttemptTimeout, maxRetries, adaptiveRetries );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "httpClient=" + httpClient + ", maxConnections=" + maxConnections + ", connectionTtl=" + connectionTtl
+            + ", tcpKeepAlive=" + tcpKeepAlive + ", connectTimeout=" + connectTimeout + ", socketTimeout="
+            + socketTimeout + ", apiCallTimeout=" + apiCallTimeout + ", apiCallAttemptTimeout="
+            + apiCallAttemptTimeout + ", maxRetries=" + maxRetries + ", adaptiveRetries=" + adaptiveRetries;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads in progress in the JVM, so that wagons asked for the same object at the same time, as happens in parallel
+ * builds, download it once. The first caller leads the flight and downloads; callers joining while it is in progress
+ * wait for it and receive a copy of what it downloaded. Copies, never links: every destination is a file of its own,
+ * changing one must not change the others. A flight ends when its leader lands it; callers asking afterwards start a
+ * new one.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class InFlightDownloads
+{
+    private final Map<Object, Flight> flights = new HashMap<>();
+
+    /**
+     * @param key tells the object apart, and whoever may read it: a caller must only receive what it could have
+     *            downloaded itself
+     * @return {@code null} when no download of {@code key} is in progress: the caller then leads one and must
+     *         {@link #land(Object)} it whatever happens; otherwise the flight to wait for
+     */
+    synchronized Flight join( Object key )
+    {
+        Flight flight = flights.get( key );
+        if ( flight == null )
+        {
+            flights.put( key, new Flight() );
+            return null;
+        }
+        flight.followers.incrementAndGet();
+        return flight;
+    }
+
+    /**
+     * Ends the flight of {@code key}. Its followers are known from now on and wait until the leader either
+     * {@link Flight#share(Path, long, long) shares} its download or {@link Flight#fail(Throwable) fails}.
+     */
+    synchronized Flight land( Object key )
+    {
+        return flights.remove( key );
+    }
+
+    static final class Flight
+    {
+        private final CompletableFuture<Path> outcome = new CompletableFuture<>();
+
+        private final AtomicInteger followers = new AtomicInteger();
+
+        private volatile long length;
+
+        private volatile long lastModified;
+
+        /**
+         * Gives the followers a copy of {@code file}, which the last of them deletes. The leader is then free to move
+         * {@code file}.
+         */
+        void share( Path file, long length, long lastModified )
+        {
+            this.length = length;
+            this.lastModified = lastModified;
+            if ( followers.get() == 0 )
+            {
+                outcome.complete( null );
+                return;
+            }
+            Path spool;
+            try
+            {
+                spool = Files.createTempFile( file.getParent(), file.getFileName().toString(), ".flight" );
+                Files.copy( file, spool, StandardCopyOption.REPLACE_EXISTING );
+            }
+            catch ( IOException e )
+            {
+                outcome.completeExceptionally( e );
+                return;
+            }
+            outcome.complete( spool );
+            if ( followers.get() == 0 )
+            {
+                // they all gave up waiting meanwhile
+                deleteQuietly( spool );
+            }
+        }
+
+        /**
+         * Tells the followers the leader did not download anything; they decide whether to try on their own.
+         */
+        void fail( Throwable error )
+        {
+            outcome.completeExceptionally( error );
+        }
+
+        /**
+         * Waits for the leader and copies its download to a temporary file next to {@code destination}.
+         * The leader may have the same destination, so its temporary file is not reused.
+         *
+         * @return the temporary file, to be moved by the caller
+         * @throws ExecutionException with the failure of the leader
+         */
+        Path receive( Path destination )
+            throws IOException, ExecutionException, InterruptedException
+        {
+            try
+            {
+                Path spool = outcome.get();
+                if ( spool == null )
+                {
+                    throw new IOException( "Download shared with no one" );
+                }
+                Path target = Files.createTempFile( destination.getParent(), destination.getFileName().toString(),
+                                                    ".tmp" );
+                Files.copy( spool, target, StandardCopyOption.REPLACE_EXISTING );
+                return target;
+            }
+            finally
+            {
+                if ( followers.decrementAndGet() == 0 )
+                {
+                    Path spool = outcome.isCompletedExceptionally() ? null : outcome.getNow( null );
+                    if ( spool != null )
+                    {
+                        deleteQuietly( spool );
+                    }
+                }
+            }
+        }
+
+        long getLength()
+        {
+            return length;
+        }
+
+        long getLastModified()
+        {
+            return lastModified;
+        }
+
+        private static void deleteQuietly( Path file )
+        {
+            try
+            {
+                Files.deleteIfExists( file );
+            }
+            catch ( IOException e )
+            {
+                // a leftover next to the local repository, harmless
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies, in microseconds, in logarithmic buckets each 8 times finer than its power of two: any percentile
+ * is known within 12.5%, recording is a single atomic increment and the whole histogram is 512 counters.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+
+    void record( long elapsedNanos )
+    {
+        buckets.incrementAndGet( bucketOf( TimeUnit.NANOSECONDS.toMicros( elapsedNanos ) ) );
+    }
+
+    /**
+     * @return a copy of the counters, for {@link #percentile(long[], double)}
+     */
+    long[] buckets()
+    {
+        long[] copy = new long[BUCKETS];
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            copy[i] = buckets.get( i );
+        }
+        return copy;
+    }
+
+    void reset()
+    {
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            buckets.set( i, 0 );
+        }
+    }
+
+    /**
+     * @return how many latencies were recorded
+     */
+    static long count( long[] buckets )
+    {
+        long total = 0;
+        for ( long count : buckets )
+        {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return the latency in microseconds {@code percentile} of the recorded ones do not exceed, or 0 when none was
+     *         recorded
+     */
+    static long percentile( long[] buckets, double percentile )
+    {
+        long total = count( buckets );
+        if ( total == 0 )
+        {
+            return 0;
+        }
+        long rank = Math.min( total, Math.max( 1, (long) Math.ceil( total * percentile ) ) );
+        long seen = 0;
+        for ( int i = 0; i < buckets.length; i++ )
+        {
+            seen += buckets[i];
+            if ( seen >= rank )
+            {
+                return highestOf( i );
+            }
+        }
+        return highestOf( buckets.length - 1 );
+    }
+
+    /**
+     * @return the bucket counting {@code micros}
+     */
+    static int bucketOf( long micros )
+    {
+        if ( micros < SUB_BUCKETS )
+        {
+            return (int) Math.max( 0, micros );
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( micros );
+        int sub = (int) ( micros >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+        return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest value that falls into {@code bucket}
+     */
+    static long highestOf( int bucket )
+    {
+        if ( bucket < SUB_BUCKETS )
+        {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) ( SUB_BUCKETS + bucket % SUB_BUCKETS ) << shift;
+        return lowest + ( 1L << shift ) - 1;
+    }
+}
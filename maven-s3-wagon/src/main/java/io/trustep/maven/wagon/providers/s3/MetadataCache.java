@@ -0,0 +1,161 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Contents of {@code maven-metadata.xml} files and of their checksum files, kept in memory by all {@link S3Wagon}
+ * instances of the JVM. A build reads the same metadata many times, to resolve snapshots, version ranges and plugin
+ * prefixes; an entry is either served as is while it is fresh or revalidated with its ETag, which costs a round trip
+ * without body when it did not change. The cache is bounded by the total size of the contents, the least recently used
+ * ones are dropped first.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class MetadataCache
+{
+    private static final String METADATA_FILE_NAME = "maven-metadata.xml";
+
+    private final long maximumSize;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+
+    private long size;
+
+    MetadataCache( long maximumSize )
+    {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @return whether {@code resourceName} is a repository metadata file or one of its checksum files
+     */
+    static boolean isMetadata( String resourceName )
+    {
+        String name = resourceName.substring( resourceName.lastIndexOf( '/' ) + 1 );
+        String extension = Checksums.checksumExtension( name );
+        if ( extension != null )
+        {
+            name = name.substring( 0, name.length() - extension.length() - 1 );
+        }
+        return name.equals( METADATA_FILE_NAME );
+    }
+
+    /**
+     * @return the largest content worth keeping; a single entry may use at most a tenth of the cache
+     */
+    long getMaximumEntrySize()
+    {
+        return maximumSize / 10;
+    }
+
+    synchronized Entry get( String bucket, String key )
+    {
+        return entries.get( key( bucket, key ) );
+    }
+
+    synchronized void put( String bucket, String key, Entry entry )
+    {
+        if ( entry.content.length > getMaximumEntrySize() )
+        {
+            return;
+        }
+        Entry previous = entries.put( key( bucket, key ), entry );
+        if ( previous != null )
+        {
+            size -= previous.content.length;
+        }
+        size += entry.content.length;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ( size > maximumSize && eldest.hasNext() )
+        {
+            size -= eldest.next().content.length;
+            eldest.remove();
+        }
+    }
+
+    synchronized void invalidate( String bucket, String key )
+    {
+        Entry previous = entries.remove( key( bucket, key ) );
+        if ( previous != null )
+        {
+            size -= previous.content.length;
+        }
+    }
+
+    private static String key( String bucket, String key )
+    {
+        // bucket names never contain a slash
+        return bucket + "/" + key;
+    }
+
+    /**
+     * A content and what identifies its version in S3.
+     */
+    static final class Entry
+    {
+        private final byte[] content;
+
+        private final String eTag;
+
+        private final long lastModified;
+
+        private volatile long validated;
+
+        Entry( byte[] content, String eTag, long lastModified )
+        {
+            this.content = content;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.validated = System.currentTimeMillis();
+        }
+
+        byte[] getContent()
+        {
+            return content;
+        }
+
+        String getETag()
+        {
+            return eTag;
+        }
+
+        long getLastModified()
+        {
+            return lastModified;
+        }
+
+        /**
+         * @return whether S3 confirmed this content less than {@code ttlMillis} ago
+         */
+        boolean isFresh( long ttlMillis )
+        {
+            return System.currentTimeMillis() - validated < ttlMillis;
+        }
+
+        /**
+         * Records that S3 just answered this content is still the current one.
+         */
+        void revalidated()
+        {
+            validated = System.currentTimeMillis();
+        }
+    }
+}
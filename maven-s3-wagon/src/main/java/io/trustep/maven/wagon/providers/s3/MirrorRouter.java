@@ -0,0 +1,303 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+/**
+ * Chooses which copy of a repository a read goes to: the bucket of the repository, the primary, or one of the
+ * buckets it is replicated to. Copies are tried from the fastest to answer, as measured by an exponentially weighted
+ * moving average of the time to the first response; one not measured for a while is tried first once, so that a copy
+ * that became faster is noticed, and one that just failed is tried last. Latencies are shared by all wagon instances
+ * of the JVM.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class MirrorRouter
+{
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+
+    /**
+     * The weight of a new latency in the average.
+     */
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos( 60 );
+
+    private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos( 30 );
+
+    private static final ConcurrentMap<String, Latency> LATENCIES = new ConcurrentHashMap<>();
+
+    private final List<Mirror> mirrors;
+
+    /**
+     * @param mirrors the primary first
+     */
+    MirrorRouter( List<Mirror> mirrors )
+    {
+        this.mirrors = Collections.unmodifiableList( new ArrayList<>( mirrors ) );
+    }
+
+    /**
+     * @return the primary and the mirrors, the primary first
+     */
+    List<Mirror> getMirrors()
+    {
+        return mirrors;
+    }
+
+    /**
+     * @return the primary alone, for the reads a mirror still catching up would answer with an older version
+     */
+    List<Mirror> primary()
+    {
+        return mirrors.subList( 0, 1 );
+    }
+
+    /**
+     * @return the copies in the order a read should try them
+     */
+    List<Mirror> route()
+    {
+        if ( mirrors.size() == 1 )
+        {
+            return mirrors;
+        }
+        long now = System.nanoTime();
+        Map<Mirror, Double> scores = new IdentityHashMap<>();
+        for ( Mirror mirror : mirrors )
+        {
+            scores.put( mirror, mirror.latency.score( now ) );
+        }
+        List<Mirror> ordered = new ArrayList<>( mirrors );
+        // the sort is stable, the primary comes first among equals
+        ordered.sort( Comparator.comparing( scores::get ) );
+        if ( scores.get( ordered.get( 0 ) ) < 0 )
+        {
+            ordered.get( 0 ).latency.probed( now );
+        }
+        return ordered;
+    }
+
+    /**
+     * Parses the mirrors of a repository, separated by commas, each a bucket optionally followed by {@code @} and the
+     * region it is in, and then by {@code @} and the endpoint to reach it, such as
+     * {@code repo-eu@eu-west-1, repo-local@us-east-1@https://s3.example.com}.
+     *
+     * @return the bucket, region and endpoint of each mirror, the last two {@code null} when not given
+     * @throws IllegalArgumentException if a mirror has no bucket
+     */
+    static List<String[]> parse( String mirrors )
+    {
+        List<String[]> parsed = new ArrayList<>();
+        if ( mirrors == null )
+        {
+            return parsed;
+        }
+        for ( String mirror : mirrors.split( "," ) )
+        {
+            if ( mirror.trim().isEmpty() )
+            {
+                continue;
+            }
+            String[] parts = mirror.trim().split( "@", 3 );
+            String[] spec = new String[3];
+            for ( int i = 0; i < parts.length; i++ )
+            {
+                spec[i] = parts[i].trim().isEmpty() ? null : parts[i].trim();
+            }
+            if ( spec[0] == null )
+            {
+                throw new IllegalArgumentException( "Mirror '" + mirror.trim() + "' has no bucket" );
+            }
+            parsed.add( spec );
+        }
+        return parsed;
+    }
+
+    /**
+     * A copy of the repository and the clients that read it.
+     */
+    static final class Mirror
+    {
+        private final String bucket;
+
+        private final String name;
+
+        private final S3ClientConfiguration configuration;
+
+        private final Supplier<S3Client> client;
+
+        private final Supplier<S3AsyncClient> asyncClient;
+
+        private final boolean primary;
+
+        private final Latency latency;
+
+        /**
+         * @param region the region of the bucket, or {@code null} for the default one
+         * @param endpoint the endpoint the bucket is reached at, or {@code null} for the one of the region
+         * @param asyncClient the client of the asynchronous transfer engine, or {@code null}
+         */
+        Mirror( String bucket, String region, String endpoint, S3ClientConfiguration configuration,
+                Supplier<S3Client> client, Supplier<S3AsyncClient> asyncClient, boolean primary )
+        {
+            this.bucket = bucket;
+            this.name =
+                bucket + ( region == null ? "" : " in " + region ) + ( endpoint == null ? "" : " at " + endpoint );
+            this.configuration = configuration;
+            this.client = client;
+            this.asyncClient = asyncClient;
+            this.primary = primary;
+            this.latency = LATENCIES.computeIfAbsent( name, k -> new Latency() );
+        }
+
+        String getBucket()
+        {
+            return bucket;
+        }
+
+        S3ClientConfiguration getConfiguration()
+        {
+            return configuration;
+        }
+
+        Supplier<S3Client> getClient()
+        {
+            return client;
+        }
+
+        Supplier<S3AsyncClient> getAsyncClient()
+        {
+            return asyncClient;
+        }
+
+        boolean isPrimary()
+        {
+            return primary;
+        }
+
+        /**
+         * Records how long the mirror took to answer a request sent at {@code startNanos}.
+         */
+        void answered( long startNanos )
+        {
+            latency.sample( System.nanoTime() - startNanos );
+        }
+
+        /**
+         * Records a request sent at {@code startNanos} that failed with {@code e} before anything was received.
+         *
+         * @return whether the read should try the next copy: one that does not have the object may lag behind the
+         *         primary and one that fails may be down, but an answer to a conditional request is final
+         */
+        boolean failed( long startNanos, Throwable e )
+        {
+            int status = e instanceof SdkServiceException ? ( (SdkServiceException) e ).statusCode() : 0;
+            if ( status > 0 && status < 500 )
+            {
+                // an error of the service is an answer too
+                answered( startNanos );
+            }
+            if ( status == HTTP_NOT_MODIFIED || status == HTTP_PRECONDITION_FAILED )
+            {
+                return false;
+            }
+            if ( RetryStrategy.isRetryable( e ) )
+            {
+                latency.failed();
+                return true;
+            }
+            return !primary;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    private static final class Latency
+    {
+        private double averageNanos;
+
+        private long lastSample;
+
+        private boolean measured;
+
+        private long lastProbe;
+
+        private boolean probed;
+
+        private long failedAt;
+
+        private boolean failed;
+
+        synchronized void sample( long elapsedNanos )
+        {
+            averageNanos = measured ? EWMA_WEIGHT * elapsedNanos + ( 1 - EWMA_WEIGHT ) * averageNanos : elapsedNanos;
+            measured = true;
+            lastSample = System.nanoTime();
+        }
+
+        synchronized void probed( long now )
+        {
+            probed = true;
+            lastProbe = now;
+        }
+
+        synchronized void failed()
+        {
+            failed = true;
+            failedAt = System.nanoTime();
+        }
+
+        /**
+         * @return the smaller, the sooner the copy is tried; negative when it is due for a measure
+         */
+        synchronized double score( long now )
+        {
+            if ( failed && now - failedAt < FAILURE_PENALTY_NANOS )
+            {
+                return Double.MAX_VALUE;
+            }
+            boolean stale = !measured || now - lastSample > PROBE_INTERVAL_NANOS;
+            if ( stale && ( !probed || now - lastProbe > PROBE_INTERVAL_NANOS ) )
+            {
+                return -1;
+            }
+            // a copy never measured waits for the answer to its probe behind the measured ones
+            return measured ? averageNanos : Double.MAX_VALUE / 2;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import org.apache.maven.wagon.TransferFailedException;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ListMultipartUploadsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.Part;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+/**
+ * Uploads a single file to S3 as a multipart upload. Parts are read straight from the source file and sent
+ * concurrently through a {@link TransferEngine}; each part is retried on its own. The upload is recorded in an
+ * {@link UploadJournal} beside the source: when it fails on a transient error, or the process is killed, the next put
+ * of the same file continues it. Any other failure aborts it, so no orphaned parts are left in the bucket, and
+ * uploads left unfinished for too long are aborted by the next multipart upload to the same directory.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class MultipartUpload
+{
+    /**
+     * S3 rejects parts smaller than 5 MiB, except for the last one.
+     */
+    static final long MINIMUM_PART_SIZE = 5L * 1024 * 1024;
+
+    /**
+     * S3 does not accept more than 10000 parts per upload.
+     */
+    static final int MAXIMUM_PARTS = 10000;
+
+    private final S3Client s3Client;
+
+    private final TransferEngine engine;
+
+    private final String bucket;
+
+    private final String key;
+
+    private final File source;
+
+    private final long partSize;
+
+    private final int concurrency;
+
+    private final int retries;
+
+    private final TransferProgress progress;
+
+    private final Map<String, String> metadata;
+
+    private final long staleUploadAge;
+
+    /**
+     * @param s3Client the client used to start, complete and abort the upload
+     * @param engine the engine sending the parts
+     * @param progress notified of the bytes of every part sent
+     * @param metadata the user metadata of the object
+     * @param staleUploadAge milliseconds after which an unfinished upload beside this one is aborted; 0 never aborts
+     *            them
+     */
+    MultipartUpload( S3Client s3Client, TransferEngine engine, String bucket, String key, File source, long partSize,
+                     int concurrency, int retries, TransferProgress progress, Map<String, String> metadata,
+                     long staleUploadAge )
+    {
+        this.s3Client = s3Client;
+        this.engine = engine;
+        this.bucket = bucket;
+        this.key = key;
+        this.source = source;
+        this.partSize = partSize( source.length(), partSize );
+        this.concurrency = Math.max( 1, concurrency );
+        this.retries = Math.max( 0, retries );
+        this.progress = progress;
+        this.metadata = metadata;
+        this.staleUploadAge = staleUploadAge;
+    }
+
+    /**
+     * Computes the part size actually used for a file: never below {@link #MINIMUM_PART_SIZE} and large enough to
+     * keep the upload within {@link #MAXIMUM_PARTS}.
+     */
+    static long partSize( long length, long requested )
+    {
+        long size = Math.max( MINIMUM_PART_SIZE, requested );
+        long minimumForLength = ( length + MAXIMUM_PARTS - 1 ) / MAXIMUM_PARTS;
+        return Math.max( size, minimumForLength );
+    }
+
+    /**
+     * Uploads the file, continuing the upload recorded in its {@link UploadJournal} when there is one S3 still
+     * knows about: only the parts ListParts does not return are sent again.
+     */
+    void upload()
+        throws TransferFailedException
+    {
+        long length = source.length();
+        UploadJournal journal = UploadJournal.read( source, bucket, key );
+        Map<Integer, String> uploaded = Collections.emptyMap();
+        if ( journal != null )
+        {
+            uploaded = listParts( journal, length );
+            if ( uploaded == null )
+            {
+                journal = null;
+                uploaded = Collections.emptyMap();
+            }
+        }
+        abortStaleUploads( journal == null ? null : journal.getUploadId() );
+        if ( journal == null )
+        {
+            CreateMultipartUploadRequest create =
+                CreateMultipartUploadRequest.builder().bucket( bucket ).key( key ).metadata( metadata ).build();
+            try
+            {
+                journal = new UploadJournal( source, bucket, key, s3Client.createMultipartUpload( create ).uploadId(),
+                                             partSize );
+            }
+            catch ( SdkException e )
+            {
+                throw new TransferFailedException( "Unable to start multipart upload of " + key, e );
+            }
+            journal.save();
+        }
+        final UploadJournal state = journal;
+        final String uploadId = journal.getUploadId();
+        long size = journal.getPartSize();
+        int count = (int) Math.max( 1, ( length + size - 1 ) / size );
+
+        List<CompletedPart> completed = new ArrayList<>( count );
+        List<Supplier<CompletableFuture<CompletedPart>>> parts = new ArrayList<>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            final int partNumber = i + 1;
+            final long offset = i * size;
+            final long partLength = Math.min( size, length - offset );
+            String eTag = uploaded.get( partNumber );
+            if ( eTag != null )
+            {
+                progress.completed( offset, partLength );
+                completed.add( CompletedPart.builder().partNumber( partNumber ).eTag( eTag ).build() );
+                continue;
+            }
+            final UploadPartRequest req = UploadPartRequest.builder().bucket( bucket ).key( key )
+                .uploadId( uploadId ).partNumber( partNumber ).contentLength( partLength ).build();
+            parts.add( () -> engine.uploadPart( req, source, offset, partLength, progress ).thenApply( res -> {
+                state.partDone( partNumber, res.eTag() );
+                return CompletedPart.builder().partNumber( partNumber ).eTag( res.eTag() ).build();
+            } ) );
+        }
+
+        try
+        {
+            completed.addAll( ParallelTransfer.run( parts, concurrency, retries, RetryStrategy::isRetryable ) );
+            completed.sort( Comparator.comparing( CompletedPart::partNumber ) );
+            CompleteMultipartUploadRequest complete =
+                CompleteMultipartUploadRequest.builder().bucket( bucket ).key( key ).uploadId( uploadId )
+                    .multipartUpload( CompletedMultipartUpload.builder().parts( completed ).build() ).build();
+            s3Client.completeMultipartUpload( complete );
+            journal.delete();
+        }
+        catch ( ExecutionException e )
+        {
+            if ( !RetryStrategy.isRetryable( e.getCause() ) )
+            {
+                abort( journal );
+            }
+            throw new TransferFailedException( "Multipart upload of " + key + " failed", e.getCause() );
+        }
+        catch ( InterruptedException e )
+        {
+            // the journal is kept, the next put of the same file continues where this one stopped
+            Thread.currentThread().interrupt();
+            throw new TransferFailedException( "Multipart upload of " + key + " was interrupted", e );
+        }
+        catch ( SdkException e )
+        {
+            if ( !RetryStrategy.isRetryable( e ) )
+            {
+                abort( journal );
+            }
+            throw new TransferFailedException( "Unable to complete multipart upload of " + key, e );
+        }
+    }
+
+    /**
+     * @return the ETags of the parts of the journaled upload S3 holds with the size they must have, by part number,
+     *         or {@code null} when the upload cannot be continued
+     */
+    private Map<Integer, String> listParts( UploadJournal journal, long length )
+    {
+        long size = journal.getPartSize();
+        Map<Integer, String> parts = new HashMap<>();
+        try
+        {
+            ListPartsRequest req =
+                ListPartsRequest.builder().bucket( bucket ).key( key ).uploadId( journal.getUploadId() ).build();
+            for ( Part part : s3Client.listPartsPaginator( req ).parts() )
+            {
+                long offset = ( part.partNumber() - 1 ) * size;
+                if ( offset < length && part.size() == Math.min( size, length - offset ) )
+                {
+                    parts.put( part.partNumber(), part.eTag() );
+                }
+            }
+            return parts;
+        }
+        catch ( SdkException e )
+        {
+            // completed, aborted or expired meanwhile
+            journal.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Aborts the uploads of the directory of {@code key} started more than {@code staleUploadAge} milliseconds ago,
+     * left behind by puts that were killed or failed for good, except the one being continued. Their parts are billed
+     * until then.
+     */
+    private void abortStaleUploads( String resumedUploadId )
+    {
+        if ( staleUploadAge <= 0 )
+        {
+            return;
+        }
+        Instant limit = Instant.now().minusMillis( staleUploadAge );
+        String prefix = key.substring( 0, key.lastIndexOf( '/' ) + 1 );
+        try
+        {
+            ListMultipartUploadsRequest req =
+                ListMultipartUploadsRequest.builder().bucket( bucket ).prefix( prefix ).build();
+            s3Client.listMultipartUploadsPaginator( req ).uploads().forEach( upload -> {
+                if ( upload.initiated() != null && upload.initiated().isBefore( limit )
+                    && !upload.uploadId().equals( resumedUploadId ) )
+                {
+                    abort( upload.key(), upload.uploadId() );
+                }
+            } );
+        }
+        catch ( SdkException e )
+        {
+            // listing uploads may not be allowed, they are then left to a lifecycle rule of the bucket
+        }
+    }
+
+    private void abort( UploadJournal journal )
+    {
+        abort( key, journal.getUploadId() );
+        journal.delete();
+    }
+
+    private void abort( String uploadKey, String uploadId )
+    {
+        try
+        {
+            s3Client.abortMultipartUpload( AbortMultipartUploadRequest.builder().bucket( bucket ).key( uploadKey )
+                .uploadId( uploadId ).build() );
+        }
+        catch ( SdkException e )
+        {
+            // nothing else can be done here, the original failure is the one worth reporting
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.core.exception.SdkException;
+
+/**
+ * Runs the transfers of one operation, the parts of an upload or the ranges of a download, keeping at most a given
+ * number of them in flight. The calling thread only coordinates: it starts transfers as others finish and starts a
+ * failed one again, after the backoff of the {@link RetryStrategy}, while it is worth retrying. It does not depend on
+ * how the {@link TransferEngine} runs the transfers.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class ParallelTransfer
+{
+    private static final long ABORT_WAIT_SECONDS = 30;
+
+    private ParallelTransfer()
+    {
+    }
+
+    /**
+     * @return the results of {@code transfers}, in the same order
+     * @throws ExecutionException with the cause of the first transfer that failed for good; no more transfers are
+     *             started and the ones still in flight are waited for, {@link #ABORT_WAIT_SECONDS} at most, before it
+     *             is thrown, so that an upload can be aborted without parts arriving afterwards
+     */
+    static <R> List<R> run( List<Supplier<CompletableFuture<R>>> transfers, int concurrency, int retries,
+                            Predicate<Throwable> retryable )
+        throws ExecutionException, InterruptedException
+    {
+        int count = transfers.size();
+        List<R> results = new ArrayList<>( Collections.<R>nCopies( count, null ) );
+        int[] attempts = new int[count];
+        Deque<Integer> pending = new ArrayDeque<>();
+        for ( int i = 0; i < count; i++ )
+        {
+            pending.add( i );
+        }
+        BlockingQueue<Outcome<R>> outcomes = new LinkedBlockingQueue<>();
+        Map<Integer, CompletableFuture<R>> inFlight = new HashMap<>();
+        int done = 0;
+        try
+        {
+            while ( done < count )
+            {
+                while ( inFlight.size() < Math.max( 1, concurrency ) && !pending.isEmpty() )
+                {
+                    final int index = pending.poll();
+                    CompletableFuture<R> future = start( transfers.get( index ) );
+                    inFlight.put( index, future );
+                    future.whenComplete( ( result, error ) -> outcomes.add( new Outcome<>( index, result, error ) ) );
+                }
+                Outcome<R> outcome = outcomes.take();
+                inFlight.remove( outcome.index );
+                if ( outcome.error == null )
+                {
+                    results.set( outcome.index, outcome.result );
+                    done++;
+                    continue;
+                }
+                Throwable cause = unwrap( outcome.error );
+                if ( attempts[outcome.index] >= retries || !retryable.test( cause ) )
+                {
+                    throw new ExecutionException( cause );
+                }
+                TransferMetrics.getInstance().retried();
+                Thread.sleep( RetryStrategy.backoffMillis( RetryStrategy.classify( cause ),
+                                                           attempts[outcome.index]++ ) );
+                pending.addFirst( outcome.index );
+            }
+            return results;
+        }
+        catch ( ExecutionException | InterruptedException | RuntimeException e )
+        {
+            awaitInFlight( inFlight.values(), e );
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the transfers still in flight to stop, all of them together for {@link #ABORT_WAIT_SECONDS} at most.
+     * What goes wrong meanwhile, another transfer failing or the wait being interrupted or timing out, is added to
+     * {@code failure}, which stays the exception the caller sees.
+     */
+    private static void awaitInFlight( Collection<? extends CompletableFuture<?>> inFlight, Throwable failure )
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( ABORT_WAIT_SECONDS );
+        boolean interrupted = false;
+        for ( CompletableFuture<?> future : inFlight )
+        {
+            try
+            {
+                future.get( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+            }
+            catch ( ExecutionException e )
+            {
+                failure.addSuppressed( unwrap( e ) );
+            }
+            catch ( TimeoutException e )
+            {
+                failure.addSuppressed( new TimeoutException( "Transfers still in flight after " + ABORT_WAIT_SECONDS
+                    + " seconds" ) );
+                break;
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted = true;
+                failure.addSuppressed( e );
+                break;
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static Throwable unwrap( Throwable error )
+    {
+        Throwable cause = error;
+        while ( ( cause instanceof CompletionException || cause instanceof ExecutionException )
+            && cause.getCause() != null )
+        {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static <R> CompletableFuture<R> start( Supplier<CompletableFuture<R>> transfer )
+    {
+        try
+        {
+            return transfer.get();
+        }
+        catch ( SdkException e )
+        {
+            CompletableFuture<R> failed = new CompletableFuture<>();
+            failed.completeExceptionally( e );
+            return failed;
+        }
+    }
+
+    private static final class Outcome<R>
+    {
+        private final int index;
+
+        private final R result;
+
+        private final Throwable error;
+
+        private Outcome( int index, R result, Throwable error )
+        {
+            this.index = index;
+            this.result = result;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Downloads an object with concurrent byte-range requests. The first range request also tells the object size; if
+ * the object fits in that first range it is done with a single stream, otherwise the remaining ranges are fetched in
+ * parallel and written with positional writes into a file preallocated to the object size. Every range after the
+ * first is guarded by the ETag of the first response, so the object cannot change halfway through. With a
+ * concurrency of 1 the object is fetched with a single plain request.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class RangedDownload
+{
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final TransferEngine engine;
+
+    private final GetObjectRequest request;
+
+    private final long rangeSize;
+
+    private final int concurrency;
+
+    private final int retries;
+
+    private final TransferProgress progress;
+
+    /**
+     * @param progress notified of the bytes of every range written
+     */
+    RangedDownload( TransferEngine engine, GetObjectRequest request, long rangeSize, int concurrency, int retries,
+                    TransferProgress progress )
+    {
+        this.engine = engine;
+        this.request = request;
+        this.rangeSize = Math.max( 1, rangeSize );
+        this.concurrency = Math.max( 1, concurrency );
+        this.retries = Math.max( 0, retries );
+        this.progress = progress;
+    }
+
+    /**
+     * Downloads the object into {@code target}. {@code onResponse} is called in the calling thread with the first
+     * response, as soon as its headers arrive.
+     */
+    GetObjectResponse download( Path target, Consumer<GetObjectResponse> onResponse )
+        throws IOException
+    {
+        try ( RandomAccessFile file = new RandomAccessFile( target.toFile(), "rw" ) )
+        {
+            file.setLength( 0 );
+            FileChannel channel = file.getChannel();
+            if ( concurrency == 1 )
+            {
+                return fetch( request, channel, onResponse );
+            }
+
+            CompletableFuture<GetObjectResponse> headers = new CompletableFuture<>();
+            CompletableFuture<GetObjectResponse> first =
+                engine.download( request.toBuilder().range( range( 0, rangeSize ) ).build(), channel, 0,
+                                 headers::complete, progress );
+            first.whenComplete( ( response, error ) -> {
+                if ( error != null )
+                {
+                    headers.completeExceptionally( error );
+                }
+            } );
+
+            GetObjectResponse response;
+            try
+            {
+                response = await( headers );
+            }
+            catch ( S3Exception e )
+            {
+                if ( e.statusCode() != HTTP_RANGE_NOT_SATISFIABLE )
+                {
+                    throw e;
+                }
+                // an empty object has no range at all
+                return fetch( request, channel, onResponse );
+            }
+            onResponse.accept( response );
+
+            long total = totalLength( response );
+            if ( total > rangeSize )
+            {
+                file.setLength( total );
+                List<long[]> ranges = new ArrayList<>();
+                for ( long offset = rangeSize; offset < total; offset += rangeSize )
+                {
+                    ranges.add( new long[] { offset, Math.min( total, offset + rangeSize ) } );
+                }
+                fetchRanges( guarded( response.eTag() ), ranges, channel, first );
+            }
+            await( first );
+            return response;
+        }
+    }
+
+    /**
+     * Completes the partial download in {@code target} described by {@code journal}, requesting only the ranges
+     * still missing. Every request is guarded by the ETag of the partial content, so a changed object fails the
+     * first one with a 412 status, before anything is written. The ranges already there are reported to the
+     * progress once the first response arrived, so that listeners still see the whole resource in order.
+     */
+    GetObjectResponse resume( Path target, DownloadJournal journal, Consumer<GetObjectResponse> onResponse )
+        throws IOException
+    {
+        List<long[]> ranges = new ArrayList<>();
+        for ( long[] missing : journal.missing() )
+        {
+            // a single stream resumes with one request for each hole, usually just the end of the object
+            long step = concurrency == 1 ? missing[1] - missing[0] : rangeSize;
+            for ( long offset = missing[0]; offset < missing[1]; offset += step )
+            {
+                ranges.add( new long[] { offset, Math.min( missing[1], offset + step ) } );
+            }
+        }
+        GetObjectRequest guarded = guarded( journal.getETag() );
+        try ( RandomAccessFile file = new RandomAccessFile( target.toFile(), "rw" ) )
+        {
+            file.setLength( journal.getLength() );
+            FileChannel channel = file.getChannel();
+            long[] head = ranges.get( 0 );
+            CompletableFuture<GetObjectResponse> headers = new CompletableFuture<>();
+            CompletableFuture<GetObjectResponse> first =
+                engine.download( guarded.toBuilder().range( range( head[0], head[1] - head[0] ) ).build(), channel,
+                                 head[0], headers::complete, progress );
+            first.whenComplete( ( response, error ) -> {
+                if ( error != null )
+                {
+                    headers.completeExceptionally( error );
+                }
+            } );
+            GetObjectResponse response = await( headers );
+            onResponse.accept( response );
+            for ( long[] done : journal.getDone() )
+            {
+                progress.completed( done[0], done[1] - done[0] );
+            }
+            if ( concurrency == 1 )
+            {
+                await( first );
+            }
+            fetchRanges( guarded, ranges.subList( 1, ranges.size() ), channel, first );
+            await( first );
+            return response;
+        }
+    }
+
+    /**
+     * @return the request for the ranges of the version {@code eTag} of the object, whatever the conditions of the
+     *         original request
+     */
+    private GetObjectRequest guarded( String eTag )
+    {
+        return request.toBuilder().ifModifiedSince( null ).ifNoneMatch( null ).ifMatch( eTag ).build();
+    }
+
+    /**
+     * Fetches {@code ranges}, given as {@code {start, end}} pairs, while the {@code first} one may still be in flight.
+     */
+    private void fetchRanges( GetObjectRequest guarded, List<long[]> ranges, FileChannel channel,
+                              CompletableFuture<GetObjectResponse> first )
+        throws IOException
+    {
+        if ( ranges.isEmpty() )
+        {
+            return;
+        }
+        List<Supplier<CompletableFuture<GetObjectResponse>>> transfers = new ArrayList<>();
+        for ( long[] range : ranges )
+        {
+            final long position = range[0];
+            final GetObjectRequest req = guarded.toBuilder().range( range( position, range[1] - position ) ).build();
+            transfers.add( () -> engine.download( req, channel, position, r -> {
+            }, progress ) );
+        }
+        try
+        {
+            // while the first range is in flight, there is one less slot for the others
+            int slots = first.isDone() ? concurrency : concurrency - 1;
+            ParallelTransfer.run( transfers, slots, retries, RetryStrategy::isRetryable );
+        }
+        catch ( ExecutionException e )
+        {
+            first.cancel( true );
+            throw rethrow( e.getCause() );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            first.cancel( true );
+            throw new InterruptedIOException( "Ranged download interrupted" );
+        }
+    }
+
+    private GetObjectResponse fetch( GetObjectRequest req, FileChannel channel, Consumer<GetObjectResponse> onResponse )
+        throws IOException
+    {
+        CompletableFuture<GetObjectResponse> headers = new CompletableFuture<>();
+        CompletableFuture<GetObjectResponse> body = engine.download( req, channel, 0, headers::complete, progress );
+        body.whenComplete( ( response, error ) -> {
+            if ( error != null )
+            {
+                headers.completeExceptionally( error );
+            }
+        } );
+        onResponse.accept( await( headers ) );
+        return await( body );
+    }
+
+    private static String range( long offset, long length )
+    {
+        return "bytes=" + offset + "-" + ( offset + length - 1 );
+    }
+
+    /**
+     * Reads the object size from a {@code Content-Range: bytes first-last/total} header, falling back to the content
+     * length when the service answered the whole object.
+     */
+    static long totalLength( GetObjectResponse response )
+    {
+        String contentRange = response.contentRange();
+        if ( contentRange != null )
+        {
+            int slash = contentRange.lastIndexOf( '/' );
+            if ( slash >= 0 && !"*".equals( contentRange.substring( slash + 1 ) ) )
+            {
+                return Long.parseLong( contentRange.substring( slash + 1 ).trim() );
+            }
+        }
+        return response.contentLength() == null ? 0 : response.contentLength();
+    }
+
+    private static <T> T await( CompletableFuture<T> future )
+        throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            future.cancel( true );
+            throw new InterruptedIOException( "Download interrupted" );
+        }
+        catch ( ExecutionException e )
+        {
+            throw rethrow( ParallelTransfer.unwrap( e ) );
+        }
+    }
+
+    /**
+     * Throws SDK exceptions as they are, so callers still see {@code NoSuchKeyException} and friends.
+     */
+    private static IOException rethrow( Throwable cause )
+    {
+        if ( cause instanceof SdkException )
+        {
+            throw (SdkException) cause;
+        }
+        if ( cause instanceof IOException )
+        {
+            return (IOException) cause;
+        }
+        return new IOException( "Download failed", cause );
+    }
+}
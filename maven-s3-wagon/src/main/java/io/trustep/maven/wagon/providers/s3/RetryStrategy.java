@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryMode;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.RetryUtils;
+import software.amazon.awssdk.core.retry.backoff.EqualJitterBackoffStrategy;
+import software.amazon.awssdk.core.retry.backoff.FullJitterBackoffStrategy;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Decides which failures are worth another try and how long to wait before it, for the requests the SDK repeats by
+ * itself as well as for the parts and ranges the wagon sends again. Waits grow exponentially and are drawn at random
+ * up to that bound, so that the transfers failing together do not come back together; throttling waits longer than
+ * other failures.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class RetryStrategy
+{
+    enum Failure
+    {
+        /** S3 asks to slow down (503 Slow Down, 429); retried after a longer wait. */
+        THROTTLING,
+        /** A broken connection, a timeout or a server error; retried. */
+        TRANSIENT,
+        /** Access denied, missing object or bucket, bad request; repeating it changes nothing. */
+        PERMANENT
+    }
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    private static final long BASE_DELAY_MILLIS = 100;
+
+    private static final long THROTTLING_BASE_DELAY_MILLIS = 500;
+
+    private static final long MAX_DELAY_MILLIS = 20000;
+
+    private RetryStrategy()
+    {
+    }
+
+    static Failure classify( Throwable e )
+    {
+        if ( e instanceof SdkException && RetryUtils.isThrottlingException( (SdkException) e ) )
+        {
+            return Failure.THROTTLING;
+        }
+        if ( e instanceof AwsServiceException )
+        {
+            int status = ( (AwsServiceException) e ).statusCode();
+            if ( status == HTTP_SERVICE_UNAVAILABLE || status == HTTP_TOO_MANY_REQUESTS )
+            {
+                return Failure.THROTTLING;
+            }
+            if ( status >= 500 || RetryUtils.isClockSkewException( (SdkException) e ) )
+            {
+                return Failure.TRANSIENT;
+            }
+            return Failure.PERMANENT;
+        }
+        return e instanceof SdkClientException || e instanceof IOException ? Failure.TRANSIENT : Failure.PERMANENT;
+    }
+
+    static boolean isRetryable( Throwable e )
+    {
+        return classify( e ) != Failure.PERMANENT;
+    }
+
+    /**
+     * @param attempt how many times the request was already retried
+     * @return how long to wait before sending it again, at random between 0 and an exponentially growing bound
+     */
+    static long backoffMillis( Failure failure, int attempt )
+    {
+        long base = failure == Failure.THROTTLING ? THROTTLING_BASE_DELAY_MILLIS : BASE_DELAY_MILLIS;
+        long bound = Math.min( MAX_DELAY_MILLIS, base << Math.min( attempt, 16 ) );
+        return ThreadLocalRandom.current().nextLong( bound + 1 );
+    }
+
+    /**
+     * The retry policy of the S3 clients: the standard mode of the SDK, whose retry quota stops retrying when most
+     * requests fail, with the classification and the waits above.
+     *
+     * @param retries how many times a request is sent again at most; 0 disables the retries of the SDK
+     */
+    static RetryPolicy sdkPolicy( int retries )
+    {
+        if ( retries <= 0 )
+        {
+            return RetryPolicy.none();
+        }
+        Duration maxDelay = Duration.ofMillis( MAX_DELAY_MILLIS );
+        return RetryPolicy.builder( RetryMode.STANDARD ).numRetries( retries )
+            .retryCondition( context -> isRetryable( context.exception() ) )
+            .backoffStrategy( FullJitterBackoffStrategy.builder().baseDelay( Duration.ofMillis( BASE_DELAY_MILLIS ) )
+                .maxBackoffTime( maxDelay ).build() )
+            .throttlingBackoffStrategy( EqualJitterBackoffStrategy.builder()
+                .baseDelay( Duration.ofMillis( THROTTLING_BASE_DELAY_MILLIS ) ).maxBackoffTime( maxDelay ).build() )
+            .build();
+    }
+
+    /**
+     * @return what went wrong, in a sentence that tells whether it is worth trying again
+     */
+    static String describe( Throwable e )
+    {
+        String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        switch ( classify( e ) )
+        {
+            case THROTTLING:
+                return "S3 throttled the requests, retries exhausted (" + message + ")";
+            case TRANSIENT:
+                return ( e instanceof S3Exception ? "S3 failed" : "the connection to S3 failed" )
+                    + ", retries exhausted (" + message + ")";
+            default:
+                return message;
+        }
+    }
+}
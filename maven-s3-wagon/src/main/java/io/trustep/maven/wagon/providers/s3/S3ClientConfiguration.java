@@ -0,0 +1,181 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.net.URI;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3BaseClientBuilder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+/**
+ * Everything needed to build an {@link S3Client} or an {@link S3AsyncClient}. Two wagons with equal configurations
+ * can share the same client, so this class is also the key of the {@link S3ClientRegistry}.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class S3ClientConfiguration
+{
+    /**
+     * The default credentials provider chain, shared by all clients of the JVM. It remembers which provider found
+     * credentials, and credentials that expire, such as those of an instance profile, a container or a web identity,
+     * are refreshed in the background before they do, so no request waits for them.
+     */
+    private static final DefaultCredentialsProvider DEFAULT_CREDENTIALS =
+        DefaultCredentialsProvider.builder().asyncCredentialUpdateEnabled( true ).build();
+
+    /**
+     * What the clients are given of {@link #DEFAULT_CREDENTIALS}: a client closes its credentials provider when it is
+     * closed, the shared one must outlive it.
+     */
+    private static final AwsCredentialsProvider SHARED_CREDENTIALS = DEFAULT_CREDENTIALS::resolveCredentials;
+
+    private static final AtomicBoolean DEFAULT_CREDENTIALS_CLAIMED = new AtomicBoolean();
+
+    private final String region;
+
+    private final String accessKeyId;
+
+    private final String secretAccessKey;
+
+    private final String endpoint;
+
+    private final boolean pathStyleAccess;
+
+    private final HttpClientSettings http;
+
+    /**
+     * @param region the AWS region, or {@code null} to let the SDK find it
+     * @param accessKeyId the access key id, or {@code null} to use the default credentials provider chain
+     * @param secretAccessKey the secret access key that goes with {@code accessKeyId}
+     * @param endpoint an endpoint replacing the default one of the region, or {@code null}
+     * @param pathStyleAccess whether the bucket goes in the path of the URL rather than in the host name
+     * @param http the HTTP client, timeouts and connection pool to use
+     */
+    S3ClientConfiguration( String region, String accessKeyId, String secretAccessKey, String endpoint,
+                           boolean pathStyleAccess, HttpClientSettings http )
+    {
+        this.region = region;
+        this.accessKeyId = accessKeyId;
+        this.secretAccessKey = secretAccessKey;
+        this.endpoint = endpoint;
+        this.pathStyleAccess = pathStyleAccess;
+        this.http = http;
+    }
+
+    /**
+     * @return whether the clients of this configuration use the default credentials provider chain
+     */
+    boolean usesDefaultCredentials()
+    {
+        return accessKeyId == null;
+    }
+
+    /**
+     * @return {@code true} to the first caller only, which then resolves the default credentials ahead of the first
+     *         request
+     */
+    static boolean claimDefaultCredentialsResolution()
+    {
+        return DEFAULT_CREDENTIALS_CLAIMED.compareAndSet( false, true );
+    }
+
+    static AwsCredentials resolveDefaultCredentials()
+    {
+        return DEFAULT_CREDENTIALS.resolveCredentials();
+    }
+
+    S3Client build()
+    {
+        return configure( S3Client.builder().httpClientBuilder( http.syncBuilder() ), false );
+    }
+
+    S3AsyncClient buildAsync()
+    {
+        return configure( S3AsyncClient.builder().httpClientBuilder( http.asyncBuilder() ), true );
+    }
+
+    private <B extends S3BaseClientBuilder<B, C>, C> C configure( B builder, boolean async )
+    {
+        AwsCredentialsProvider credentialsProvider;
+        if ( accessKeyId != null )
+        {
+            // if given by authenticationInfo, use credentials from it
+            credentialsProvider =
+                StaticCredentialsProvider.create( AwsSessionCredentials.create( accessKeyId, secretAccessKey, "" ) );
+        }
+        else
+        {
+            // otherwise uses DefaultCredentialsProvider, resolved once for the JVM
+            credentialsProvider = SHARED_CREDENTIALS;
+        }
+        builder.credentialsProvider( credentialsProvider ).overrideConfiguration( http.overrideConfiguration( async ) );
+        if ( pathStyleAccess )
+        {
+            builder.serviceConfiguration( S3Configuration.builder().pathStyleAccessEnabled( true ).build() );
+        }
+        if ( region != null )
+        {
+            builder.region( Region.of( region.toLowerCase() ) );
+        }
+        if ( endpoint != null )
+        {
+            builder.endpointOverride( URI.create( endpoint ) );
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+        if ( !( obj instanceof S3ClientConfiguration ) )
+        {
+            return false;
+        }
+        S3ClientConfiguration other = (S3ClientConfiguration) obj;
+        return Objects.equals( region, other.region ) && Objects.equals( accessKeyId, other.accessKeyId )
+            && Objects.equals( secretAccessKey, other.secretAccessKey ) && Objects.equals( endpoint, other.endpoint )
+            && pathStyleAccess == other.pathStyleAccess && http.equals( other.http );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        // the secret is left out on purpose, the access key id is enough to spread the entries
+        return Objects.hash( region, accessKeyId, endpoint, pathStyleAccess, http );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "region=" + region + ", accessKeyId=" + ( accessKeyId == null ? "<default>" : accessKeyId )
+            + ", endpoint=" + endpoint + ( pathStyleAccess ? ", pathStyleAccess" : "" ) + ", " + http;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+/**
+ * Shares {@link S3Client} instances among all {@link S3Wagon} instances of the JVM. Plexus creates a wagon per lookup,
+ * and building a client for each of them means a new connection pool, new TLS handshakes and a new credentials
+ * resolution every time. Clients are reference counted: a wagon {@link #acquire(S3ClientConfiguration) acquires} one
+ * when connecting and {@link #release(S3ClientConfiguration, long) releases} it when disconnecting. A client nobody
+ * holds is kept open, with its connections warm, for an idle timeout and closed only if nobody acquired it meanwhile.
+ * {@link S3AsyncClient} instances, used by the asynchronous transfer engine, are shared the same way.
+ * <p>
+ * A client is only built when it is first needed: acquiring one hands out a supplier that builds it on its first call,
+ * so connecting a wagon costs next to nothing and building the client, which loads most of the SDK, happens with the
+ * first request or in the background (see {@link ConnectionWarmer}) rather than when Maven looks the wagon up.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class S3ClientRegistry
+{
+    private static final S3ClientRegistry INSTANCE = new S3ClientRegistry();
+
+    private final Map<Object, Holder<?>> clients = new HashMap<>();
+
+    private final ScheduledThreadPoolExecutor reaper =
+        new ScheduledThreadPoolExecutor( 1, new DaemonThreadFactory( "s3-wagon-client-reaper" ) );
+
+    private S3ClientRegistry()
+    {
+        reaper.setRemoveOnCancelPolicy( true );
+    }
+
+    static S3ClientRegistry getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the client of {@code configuration}, built on the first call of the supplier
+     */
+    Supplier<S3Client> acquire( S3ClientConfiguration configuration )
+    {
+        return acquire( configuration, configuration::build );
+    }
+
+    Supplier<S3AsyncClient> acquireAsync( S3ClientConfiguration configuration )
+    {
+        return acquire( asyncKey( configuration ), configuration::buildAsync );
+    }
+
+    /**
+     * Tells whether the connections of the client of {@code configuration} to {@code bucket} are still to be warmed
+     * up, which only the first caller is told.
+     */
+    synchronized boolean claimWarmup( S3ClientConfiguration configuration, String bucket )
+    {
+        Holder<?> holder = clients.get( configuration );
+        return holder != null && holder.warmed.add( bucket );
+    }
+
+    /**
+     * Gives back a client obtained from {@link #acquire(S3ClientConfiguration)}. Once nobody holds it, the client is
+     * closed after {@code idleTimeoutMillis}, or right away if the timeout is not positive.
+     */
+    void release( S3ClientConfiguration configuration, long idleTimeoutMillis )
+    {
+        release( (Object) configuration, idleTimeoutMillis );
+    }
+
+    /**
+     * Gives back a client obtained from {@link #acquireAsync(S3ClientConfiguration)}.
+     */
+    void releaseAsync( S3ClientConfiguration configuration, long idleTimeoutMillis )
+    {
+        release( asyncKey( configuration ), idleTimeoutMillis );
+    }
+
+    private static Object asyncKey( S3ClientConfiguration configuration )
+    {
+        return Arrays.asList( S3AsyncClient.class, configuration );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private synchronized <C extends SdkAutoCloseable> Supplier<C> acquire( Object key, Supplier<C> factory )
+    {
+        Holder<C> holder = (Holder<C>) clients.get( key );
+        if ( holder == null )
+        {
+            holder = new Holder<>( factory );
+            clients.put( key, holder );
+        }
+        if ( holder.closing != null )
+        {
+            holder.closing.cancel( false );
+            holder.closing = null;
+        }
+        holder.references++;
+        return holder;
+    }
+
+    private synchronized void release( Object key, long idleTimeoutMillis )
+    {
+        final Holder<?> holder = clients.get( key );
+        if ( holder == null || --holder.references > 0 )
+        {
+            return;
+        }
+        if ( idleTimeoutMillis <= 0 )
+        {
+            close( key, holder );
+        }
+        else
+        {
+            holder.closing = reaper.schedule( () -> close( key, holder ), idleTimeoutMillis, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    private synchronized void close( Object key, Holder<?> holder )
+    {
+        if ( holder.references == 0 && clients.get( key ) == holder )
+        {
+            clients.remove( key );
+            holder.close();
+        }
+    }
+
+    /**
+     * A client, built on the first call of {@link #get()}.
+     */
+    private static final class Holder<C extends SdkAutoCloseable>
+        implements Supplier<C>
+    {
+        private final Supplier<C> factory;
+
+        private final Set<String> warmed = new HashSet<>();
+
+        private volatile C client;
+
+        private boolean closed;
+
+        private int references;
+
+        private ScheduledFuture<?> closing;
+
+        private Holder( Supplier<C> factory )
+        {
+            this.factory = factory;
+        }
+
+        @Override
+        public C get()
+        {
+            C built = client;
+            return built != null ? built : build();
+        }
+
+        private synchronized C build()
+        {
+            if ( closed )
+            {
+                throw new IllegalStateException( "The S3 client was closed" );
+            }
+            if ( client == null )
+            {
+                client = factory.get();
+            }
+            return client;
+        }
+
+        private synchronized void close()
+        {
+            closed = true;
+            if ( client != null )
+            {
+                client.close();
+            }
+        }
+    }
+}
@@ -16,17 +16,42 @@
  */
 package io.trustep.maven.wagon.providers.s3;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.apache.maven.wagon.ConnectionException;
 import org.apache.maven.wagon.ResourceDoesNotExistException;
@@ -46,22 +71,30 @@ import org.apache.maven.wagon.proxy.ProxyInfoProvider;
 import org.apache.maven.wagon.repository.Repository;
 import org.apache.maven.wagon.repository.RepositoryPermissions;
 import org.apache.maven.wagon.resource.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.core.sync.ResponseTransformer;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 /**
@@ -75,660 +108,3193 @@ public class S3Wagon
 {
     protected static final int DEFAULT_BUFFER_SIZE = 4 * 1024;
 
+    protected static final int HTTP_NOT_MODIFIED = 304;
+
+    protected static final int HTTP_FORBIDDEN = 403;
+
+    protected static final int HTTP_NOT_FOUND = 404;
+
+    protected static final int HTTP_PRECONDITION_FAILED = 412;
+
+    protected static final int DEFAULT_DIRECTORY_UPLOAD_CONCURRENCY = 8;
+
+    protected static final int DEFAULT_WRITE_BEHIND_QUEUE_SIZE = 16;
+
+    protected static final long DEFAULT_CLIENT_IDLE_TIMEOUT = 60 * 1000;
+
+    protected static final long DEFAULT_EXISTENCE_CACHE_TTL = 60 * 1000;
+
+    protected static final long DEFAULT_METADATA_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The largest page ListObjectsV2 returns.
+     */
+    protected static final int LIST_PAGE_SIZE = 1000;
+
+    /**
+     * Answers of {@link #resourceExists(String)}, shared by all wagon instances of the JVM.
+     */
+    private static final ExpiringCache<Boolean> EXISTENCE_CACHE =
+        new ExpiringCache<>( Integer.getInteger( "maven.wagon.s3.existenceCacheSize", 10000 ) );
+
+    /**
+     * Answers of {@link #getFileList(String)}, shared by all wagon instances of the JVM.
+     */
+    private static final ExpiringCache<List<String>> LISTING_CACHE =
+        new ExpiringCache<>( Integer.getInteger( "maven.wagon.s3.listingCacheSize", 1000 ) );
+
+    /**
+     * Gets in progress, shared by all wagon instances of the JVM.
+     */
+    private static final InFlightDownloads IN_FLIGHT = new InFlightDownloads();
+
+    /**
+     * Contents of repository metadata files, shared by all wagon instances of the JVM.
+     */
+    private static final MetadataCache METADATA_CACHE =
+        new MetadataCache( Long.getLong( "maven.wagon.s3.metadataCacheSize", DEFAULT_METADATA_CACHE_SIZE ) );
+
+    /**
+     * Contents of the checksum files written by {@link #put(File, String)}, shared by all wagon instances of the JVM.
+     */
+    private static final ExpiringCache<String> WRITTEN_CHECKSUMS = new ExpiringCache<>( 10000 );
+
+    /**
+     * Digests found in the metadata of objects by gets and existence checks, shared by all wagon instances of the JVM.
+     */
+    private static final ExpiringCache<Checksums.Stored> STORED_CHECKSUMS =
+        new ExpiringCache<>( Integer.getInteger( "maven.wagon.s3.storedChecksumsCacheSize", 10000 ) );
+
+    /**
+     * Latencies, throughput and cache hits of all wagon instances of the JVM, also published through JMX.
+     */
+    private static final TransferMetrics METRICS = TransferMetrics.getInstance();
+
+    /**
+     * Maven shows what goes through SLF4J on its console; wagon session events only reach listeners.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger( S3Wagon.class );
+
+    /**
+     * How long small gets of all wagon instances of the JVM waited for S3 to answer, to know when to hedge one.
+     */
+    private static final LatencyHistogram SMALL_GET_LATENCY = new LatencyHistogram();
+
+    /**
+     * A small get is sent again when it waits longer than this share of the small gets did.
+     */
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    /**
+     * Small gets are only hedged once this many of them tell how long they usually take.
+     */
+    private static final int HEDGE_MIN_SAMPLES = 20;
+
     protected static final int MAXIMUM_BUFFER_SIZE = 512 * 1024;
 
-    /**
-     * To efficiently buffer data, use a multiple of 4 KiB as this is likely to match the hardware buffer size of
-     * certain storage devices.
-     */
-    protected static final int BUFFER_SEGMENT_SIZE = 4 * 1024;
+    /**
+     * To efficiently buffer data, use a multiple of 4 KiB as this is likely to match the hardware buffer size of
+     * certain storage devices.
+     */
+    protected static final int BUFFER_SEGMENT_SIZE = 4 * 1024;
+
+    /**
+     * The desired minimum amount of chunks in which a {@link Resource} shall be
+     * {@link #transfer(Resource, InputStream, OutputStream, int, long) transferred}. This corresponds to the minimum
+     * times {@link #fireTransferProgress(TransferEvent, byte[], int)} is executed. 100 notifications is a conservative
+     * value that will lead to small chunks for any artifact less that {@link #BUFFER_SEGMENT_SIZE} *
+     * {@link #MINIMUM_AMOUNT_OF_TRANSFER_CHUNKS} in size.
+     */
+    protected static final int MINIMUM_AMOUNT_OF_TRANSFER_CHUNKS = 100;
+
+    /**
+     * Files bigger than this are uploaded with a multipart upload.
+     */
+    protected static final long DEFAULT_MULTIPART_THRESHOLD = 32L * 1024 * 1024;
+
+    protected static final long DEFAULT_MULTIPART_PART_SIZE = 8L * 1024 * 1024;
+
+    protected static final int DEFAULT_MULTIPART_CONCURRENCY = 4;
+
+    protected static final int DEFAULT_MULTIPART_RETRIES = 3;
+
+    protected static final long DEFAULT_STALE_UPLOAD_AGE = 24L * 60 * 60 * 1000;
+
+    protected static final long DEFAULT_RANGED_GET_PART_SIZE = 8L * 1024 * 1024;
+
+    protected static final int DEFAULT_RANGED_GET_CONCURRENCY = 4;
+
+    protected static final int DEFAULT_SMALL_OBJECT_THRESHOLD = 64 * 1024;
+
+    protected static final int DEFAULT_MAX_RETRIES = 3;
+
+    protected static final String TRANSFER_ENGINE_SYNC = "sync";
+
+    protected static final String TRANSFER_ENGINE_ASYNC = "async";
+
+    /**
+     * The size of the connection pool of the SDK.
+     */
+    protected static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+    protected static final long DEFAULT_CONTENT_CACHE_MAX_SIZE = 10L * 1024 * 1024 * 1024;
+
+    protected static final String CHECKSUM_POLICY_IGNORE = "ignore";
+
+    protected static final String CHECKSUM_POLICY_WARN = "warn";
+
+    protected static final String CHECKSUM_POLICY_FAIL = "fail";
+
+    /**
+     * How long the wagon remembers the checksum files it wrote, to skip the identical ones Maven puts afterwards.
+     */
+    protected static final long WRITTEN_CHECKSUMS_TTL = 10 * 60 * 1000;
+
+    /**
+     * Checksum files are a few bytes; a bigger file with a checksum extension is not one of them.
+     */
+    private static final int MAXIMUM_CHECKSUM_FILE_SIZE = 1024;
+
+    protected Repository repository;
+
+    protected SessionEventSupport sessionEventSupport = new SessionEventSupport();
+
+    protected TransferEventSupport transferEventSupport = new TransferEventSupport();
+
+    protected AuthenticationInfo authenticationInfo;
+
+    protected boolean interactive = true;
+
+    private int connectionTimeout =
+        Integer.getInteger( "maven.wagon.s3.connectionTimeout", DEFAULT_CONNECTION_TIMEOUT );
+
+    private String region = null;
+
+    private Supplier<S3Client> s3Client = null;
+
+    private Supplier<S3AsyncClient> s3AsyncClient = null;
+
+    private S3ClientConfiguration clientConfiguration = null;
+
+    /**
+     * the bucket of the repository and its mirrors, with their clients
+     */
+    private MirrorRouter router = null;
+
+    private WriteBehindQueue writeBehindQueue = null;
+
+    /**
+     * an endpoint replacing the default S3 endpoint of the region, for S3 compatible services or VPC endpoints
+     */
+    private String endpoint = System.getProperty( "maven.wagon.s3.endpoint" );
+
+    /**
+     * whether buckets are addressed in the path of the URL instead of the host name, as some S3 compatible services
+     * require
+     */
+    private boolean pathStyleAccess = Boolean.getBoolean( "maven.wagon.s3.pathStyleAccess" );
+
+    /**
+     * buckets the repository is replicated to, read from when they answer faster than its own, as
+     * {@code bucket[@region[@endpoint]]} separated by commas
+     */
+    private String mirrors = System.getProperty( "maven.wagon.s3.mirrors" );
+
+    /**
+     * milliseconds a shared client nobody uses is kept open before it is closed
+     */
+    private long clientIdleTimeout = Long.getLong( "maven.wagon.s3.clientIdleTimeout", DEFAULT_CLIENT_IDLE_TIMEOUT );
+
+    /**
+     * how many connections to the bucket and to each mirror are opened in the background when connecting, 0 for none
+     */
+    private int prewarmConnections = Integer.getInteger( "maven.wagon.s3.prewarmConnections", 0 );
+
+    /**
+     * how object bodies are moved: {@code sync} uses the blocking client and a thread per transfer, {@code async} the
+     * non-blocking client, with all transfers on its event loop
+     */
+    private String transferEngine = System.getProperty( "maven.wagon.s3.transferEngine", TRANSFER_ENGINE_SYNC );
+
+    /**
+     * the implementation of the blocking HTTP client, {@code apache} or {@code urlconnection}
+     */
+    private String httpClient = System.getProperty( "maven.wagon.s3.httpClient", HttpClientSettings.APACHE );
+
+    /**
+     * the size of the connection pool
+     */
+    private int maxConnections = Integer.getInteger( "maven.wagon.s3.maxConnections", DEFAULT_MAX_CONNECTIONS );
+
+    /**
+     * milliseconds a pooled connection may be reused, 0 for no limit
+     */
+    private long connectionTtl = Long.getLong( "maven.wagon.s3.connectionTtl", 0 );
+
+    /**
+     * whether TCP keep-alive probes are sent on idle connections
+     */
+    private boolean tcpKeepAlive = Boolean.getBoolean( "maven.wagon.s3.tcpKeepAlive" );
+
+    /**
+     * milliseconds a whole S3 call may take, retries included, 0 for no limit
+     */
+    private long apiCallTimeout = Long.getLong( "maven.wagon.s3.apiCallTimeout", 0 );
+
+    /**
+     * milliseconds a single attempt of an S3 call may take, 0 for no limit
+     */
+    private long apiCallAttemptTimeout = Long.getLong( "maven.wagon.s3.apiCallAttemptTimeout", 0 );
+
+    /**
+     * how many times the SDK sends a failed S3 request again, 0 to never retry
+     */
+    private int maxRetries = Integer.getInteger( "maven.wagon.s3.maxRetries", DEFAULT_MAX_RETRIES );
+
+    /**
+     * whether the requests of a client are slowed down once S3 throttles them
+     */
+    private boolean adaptiveRetries = Boolean.getBoolean( "maven.wagon.s3.adaptiveRetries" );
+
+    /**
+     * read timeout value
+     *
+     * @since 2.2
+     */
+    private int readTimeout =
+        Integer.parseInt( System.getProperty( "maven.wagon.rto", Integer.toString( Wagon.DEFAULT_READ_TIMEOUT ) ) );
+
+    /**
+     * size in bytes above which {@link #put(File, String)} uses a multipart upload
+     */
+    private long multipartThreshold =
+        Long.getLong( "maven.wagon.s3.multipartThreshold", DEFAULT_MULTIPART_THRESHOLD );
+
+    /**
+     * size in bytes of each part of a multipart upload
+     */
+    private long multipartPartSize = Long.getLong( "maven.wagon.s3.multipartPartSize", DEFAULT_MULTIPART_PART_SIZE );
+
+    /**
+     * how many parts of a multipart upload are sent at the same time
+     */
+    private int multipartConcurrency =
+        Integer.getInteger( "maven.wagon.s3.multipartConcurrency", DEFAULT_MULTIPART_CONCURRENCY );
+
+    /**
+     * how many times a failed part is sent again before the whole upload is aborted
+     */
+    private int multipartRetries = Integer.getInteger( "maven.wagon.s3.multipartRetries", DEFAULT_MULTIPART_RETRIES );
+
+    /**
+     * milliseconds after which an unfinished multipart upload is aborted by the next multipart upload to the same
+     * directory; 0 leaves them alone
+     */
+    private long staleUploadAge = Long.getLong( "maven.wagon.s3.staleUploadAge", DEFAULT_STALE_UPLOAD_AGE );
+
+    /**
+     * size in bytes of each byte range requested by {@link #get(String, File)}; objects up to this size are fetched
+     * with a single request
+     */
+    private long rangedGetPartSize = Long.getLong( "maven.wagon.s3.rangedGetPartSize", DEFAULT_RANGED_GET_PART_SIZE );
+
+    /**
+     * how many byte ranges are fetched at the same time; 1 disables ranged downloads
+     */
+    private int rangedGetConcurrency =
+        Integer.getInteger( "maven.wagon.s3.rangedGetConcurrency", DEFAULT_RANGED_GET_CONCURRENCY );
+
+    /**
+     * up to how many bytes POMs, signatures, checksum and metadata files are downloaded with a single request and read
+     * in pooled buffers, written with a single write when they fit in one; a bigger one is downloaded like any other
+     * resource, and 0 disables this fast path
+     */
+    private int smallObjectThreshold =
+        Integer.getInteger( "maven.wagon.s3.smallObjectThreshold", DEFAULT_SMALL_OBJECT_THRESHOLD );
+
+    /**
+     * whether a small get still unanswered after the 95th percentile of their latency is sent a second time
+     */
+    private boolean hedgedGets = Boolean.getBoolean( "maven.wagon.s3.hedgedGets" );
+
+    /**
+     * whether a download failing on a transient error keeps what it received, to be completed by the next get
+     */
+    private boolean resumableDownloads =
+        Boolean.parseBoolean( System.getProperty( "maven.wagon.s3.resumableDownloads", "true" ) );
+
+    /**
+     * how many files {@link #putDirectory(File, String)} uploads at the same time
+     */
+    private int directoryUploadConcurrency =
+        Integer.getInteger( "maven.wagon.s3.directoryUploadConcurrency", DEFAULT_DIRECTORY_UPLOAD_CONCURRENCY );
+
+    /**
+     * whether {@link #putDirectory(File, String)} skips files that already match the remote objects
+     */
+    private boolean directorySync = Boolean.getBoolean( "maven.wagon.s3.directorySync" );
+
+    /**
+     * whether directory sync trusts a remote object at least as recent as the local file without hashing it
+     */
+    private boolean directorySyncLastModified = Boolean.getBoolean( "maven.wagon.s3.directorySyncLastModified" );
+
+    /**
+     * whether directory sync deletes remote objects that no longer exist locally
+     */
+    private boolean directorySyncDelete = Boolean.getBoolean( "maven.wagon.s3.directorySyncDelete" );
+
+    /**
+     * whether {@link #put(File, String)} returns once the file is queued, the upload running in the background until
+     * the next metadata put or the disconnection
+     */
+    private boolean writeBehind = Boolean.getBoolean( "maven.wagon.s3.writeBehind" );
+
+    /**
+     * how many puts may be queued or running in the background before {@link #put(File, String)} waits
+     */
+    private int writeBehindQueueSize =
+        Integer.getInteger( "maven.wagon.s3.writeBehindQueueSize", DEFAULT_WRITE_BEHIND_QUEUE_SIZE );
+
+    /**
+     * file the metrics of the JVM are written to, as a properties file, at every disconnection; {@code null} writes
+     * none
+     */
+    private String metricsFile = System.getProperty( "maven.wagon.s3.metricsFile" );
+
+    /**
+     * the metrics when the connection was opened, to summarize the session at disconnection
+     */
+    private TransferMetrics.Snapshot sessionMetrics = null;
+
+    /**
+     * whether this wagon counts among the connected ones that keep the metrics MBean published
+     */
+    private boolean metricsPublished = false;
+
+    /**
+     * milliseconds an answer of {@link #resourceExists(String)} is reused; 0 disables the cache
+     */
+    private long existenceCacheTtl =
+        Long.getLong( "maven.wagon.s3.existenceCacheTtl", DEFAULT_EXISTENCE_CACHE_TTL );
+
+    /**
+     * milliseconds a directory listing of {@link #getFileList(String)} is reused; 0 disables the cache
+     */
+    private long listingCacheTtl = Long.getLong( "maven.wagon.s3.listingCacheTtl", 0 );
+
+    /**
+     * milliseconds a repository metadata file kept in memory is used without asking S3 whether it changed; 0 always
+     * revalidates it with its ETag
+     */
+    private long metadataCacheTtl = Long.getLong( "maven.wagon.s3.metadataCacheTtl", 0 );
+
+    /**
+     * a directory where downloaded contents are kept for every build of the host; no content cache when not set
+     */
+    private String contentCacheDirectory = System.getProperty( "maven.wagon.s3.contentCacheDirectory" );
+
+    /**
+     * size in bytes above which the least recently used contents are evicted from the content cache
+     */
+    private long contentCacheMaxSize =
+        Long.getLong( "maven.wagon.s3.contentCacheMaxSize", DEFAULT_CONTENT_CACHE_MAX_SIZE );
+
+    /**
+     * comma separated checksum files ({@code md5}, {@code sha1}, {@code sha256}, {@code sha512}) written beside every
+     * resource put, with digests computed while the resource is uploaded
+     */
+    private String checksumFiles = System.getProperty( "maven.wagon.s3.checksumFiles", "" );
+
+    /**
+     * what a get does when the digests computed while downloading do not match the remote ones: {@code ignore} does
+     * not check them, {@code warn} or {@code fail}
+     */
+    private String checksumPolicy = System.getProperty( "maven.wagon.s3.checksumPolicy", CHECKSUM_POLICY_IGNORE );
+
+    /**
+     * whether put stores the digests of a resource in the metadata of its object, so that gets of its checksum files
+     * can be answered without a request
+     */
+    private boolean checksumMetadata = Boolean.getBoolean( "maven.wagon.s3.checksumMetadata" );
+
+    private ProxyInfoProvider proxyInfoProvider;
+
+    private RepositoryPermissions permissionsOverride;
+
+    @Override
+    public void get( String resourceName, File destination )
+        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    {
+        getIfNewer( resourceName, destination, 0 );
+    }
+
+    /**
+     * Downloads the resource only if it was modified after {@code timestamp}. The check is made by the GET request
+     * itself, with an {@code If-Modified-Since} header, so an unchanged resource costs a single round trip without any
+     * body. A {@code timestamp} of 0 always downloads the resource.
+     */
+    @Override
+    public boolean getIfNewer( String resourceName, File destination, long timestamp )
+        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+        boolean transferred = false;
+        try
+        {
+            transferred = getIfNewerInternal( resourceName, destination, timestamp );
+            failed = false;
+            return transferred;
+        }
+        finally
+        {
+            METRICS.record( TransferMetrics.GET, start, transferred ? destination.length() : 0, failed );
+        }
+    }
+
+    private boolean getIfNewerInternal( String resourceName, File destination, long timestamp )
+        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    {
+        checkBaseDir();
+        String bucket = getRepository().getHost();
+        Object store = store();
+        String key = resolveKey( resourceName );
+        Resource resource = new Resource( resourceName );
+        fireGetInitiated( resource, destination );
+        awaitWriteBehind( key );
+
+        Checksums.Stored stored = storedChecksumsOf( store, key );
+        if ( stored != null )
+        {
+            return getStoredChecksum( resource, destination, timestamp, stored );
+        }
+
+        File tmp = new File( destination.getAbsolutePath() + ".tmp" );
+        List<?> flightKey = null;
+        if ( timestamp == 0 )
+        {
+            // a conditional get depends on the local copy of the caller, only plain gets are shared; the client
+            // configuration holds the endpoint and the credentials, a wagon only receives what it may read itself
+            List<?> candidate = Arrays.asList( clientConfiguration, bucket, key );
+            InFlightDownloads.Flight flight = IN_FLIGHT.join( candidate );
+            if ( flight == null )
+            {
+                flightKey = candidate;
+            }
+            else if ( receive( flight, resource, destination ) )
+            {
+                return true;
+            }
+        }
+        boolean metadata = MetadataCache.isMetadata( resourceName );
+        // metadata files are small and change often, memory suits them better than the content cache
+        ContentCache cache = metadata ? null : contentCache();
+        Checksums checksums = null;
+        if ( !CHECKSUM_POLICY_IGNORE.equalsIgnoreCase( checksumPolicy )
+            && Checksums.checksumExtension( resourceName ) == null )
+        {
+            checksums = new Checksums( verifiedChecksums() );
+        }
+        try ( TransferProgress progress =
+            newProgress( resource, destination, tmp.toPath(), TransferEvent.REQUEST_GET, checksums ) )
+        {
+            DownloadJournal partial = resumableDownloads ? DownloadJournal.take( tmp.toPath() ) : null;
+            if ( partial == null )
+            {
+                // a leftover of an interrupted get that kept no journal cannot be resumed, start afresh
+                DownloadJournal.delete( tmp.toPath() );
+                Files.deleteIfExists( tmp.toPath() );
+            }
+            ContentCache.Entry cached = cache == null ? null : lookupContent( cache, bucket, key );
+            MetadataCache.Entry remembered = metadata ? METADATA_CACHE.get( bucket, key ) : null;
+            GetObjectRequest.Builder builder = GetObjectRequest.builder().bucket( bucket ).key( key );
+            if ( checksums != null )
+            {
+                // S3 only returns the checksums it stored with the object when asked to
+                builder.overrideConfiguration( o -> o.putHeader( "x-amz-checksum-mode", "ENABLED" ) );
+            }
+            if ( cached != null )
+            {
+                builder.ifNoneMatch( cached.getETag() );
+            }
+            else if ( remembered != null )
+            {
+                builder.ifNoneMatch( remembered.getETag() );
+            }
+            else if ( timestamp > 0 )
+            {
+                builder.ifModifiedSince( Instant.ofEpochMilli( timestamp ) );
+            }
+            GetObjectResponse res = null;
+            if ( remembered == null || !remembered.isFresh( metadataCacheTtl ) )
+            {
+                try
+                {
+                    res = fetch( builder.build(), tmp, resource, destination, progress, partial );
+                }
+                catch ( S3Exception e )
+                {
+                    if ( ( cached == null && remembered == null ) || e.statusCode() != HTTP_NOT_MODIFIED )
+                    {
+                        throw e;
+                    }
+                    if ( remembered != null )
+                    {
+                        remembered.revalidated();
+                    }
+                }
+            }
+
+            if ( remembered != null )
+            {
+                METRICS.cacheLookup( TransferMetrics.METADATA_CACHE, res == null );
+            }
+            else if ( cache != null )
+            {
+                METRICS.cacheLookup( TransferMetrics.CONTENT_CACHE, res == null );
+            }
+
+            if ( res == null && remembered != null )
+            {
+                // the metadata kept in memory is still the current one
+                if ( timestamp > 0 && remembered.getLastModified() <= timestamp )
+                {
+                    return false;
+                }
+                Files.write( tmp.toPath(), remembered.getContent() );
+                resource.setContentLength( remembered.getContent().length );
+                resource.setLastModified( remembered.getLastModified() );
+                progress.begin( getBufferCapacityForTransfer( remembered.getContent().length ) );
+                fireGetStarted( resource, destination );
+                progress.completed( 0, remembered.getContent().length );
+            }
+            else if ( res == null )
+            {
+                // the cached content is still the current one
+                if ( timestamp > 0 && cached.getLastModified() <= timestamp )
+                {
+                    return false;
+                }
+                if ( cache.copyTo( cached, tmp.toPath() ) )
+                {
+                    resource.setContentLength( cached.getLength() );
+                    resource.setLastModified( cached.getLastModified() );
+                    progress.begin( getBufferCapacityForTransfer( cached.getLength() ) );
+                    fireGetStarted( resource, destination );
+                    progress.completed( 0, cached.getLength() );
+                }
+                else
+                {
+                    // evicted since the lookup
+                    res = fetch( builder.ifNoneMatch( null ).build(), tmp, resource, destination, progress, null );
+                }
+            }
+            progress.finish();
+            if ( checksums != null )
+            {
+                verifyChecksums( resourceName, key, checksums.complete(), res );
+            }
+
+            long lastModified = resource.getLastModified();
+            if ( res != null )
+            {
+                if ( cache != null )
+                {
+                    storeContent( cache, bucket, key, res.eTag(), lastModified, tmp );
+                }
+                if ( metadata && res.eTag() != null && tmp.length() <= METADATA_CACHE.getMaximumEntrySize() )
+                {
+                    METADATA_CACHE.put( bucket, key,
+                                        new MetadataCache.Entry( Files.readAllBytes( tmp.toPath() ), res.eTag(),
+                                                                 lastModified ) );
+                }
+                if ( ( cached != null || remembered != null ) && timestamp > 0 && lastModified <= timestamp )
+                {
+                    // asked by ETag rather than by date, the new content is cached but not newer than the local one;
+                    // the listeners saw it download, they see it complete even if the destination is left alone
+                    fireGetCompleted( resource, destination );
+                    return false;
+                }
+            }
+            if ( flightKey != null )
+            {
+                IN_FLIGHT.land( flightKey ).share( tmp.toPath(), resource.getContentLength(), lastModified );
+                flightKey = null;
+            }
+            if ( destination.exists() )
+            {
+                destination.delete();
+            }
+            Files.move( tmp.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            if ( lastModified > 0 )
+            {
+                destination.setLastModified( lastModified );
+            }
+            EXISTENCE_CACHE.put( store, key, true );
+        }
+        catch ( TransferFailedException e )
+        {
+            fireTransferError( resource, e, TransferEvent.REQUEST_GET );
+            throw e;
+        }
+        catch ( NoSuchKeyException e )
+        {
+            EXISTENCE_CACHE.put( store, key, false );
+            METADATA_CACHE.invalidate( bucket, key );
+            if ( flightKey != null )
+            {
+                IN_FLIGHT.land( flightKey ).fail( e );
+                flightKey = null;
+            }
+            throw new ResourceDoesNotExistException( resourceName + " does not exists.", e );
+        }
+        catch ( S3Exception e )
+        {
+            if ( e.statusCode() == HTTP_NOT_MODIFIED )
+            {
+                return false;
+            }
+            fireTransferError( resource, e, TransferEvent.REQUEST_GET );
+            throw new TransferFailedException( "Unable to get " + resourceName + ": " + RetryStrategy.describe( e ),
+                                               e );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            fireTransferError( resource, e, TransferEvent.REQUEST_GET );
+            throw new TransferFailedException( "Unable to get " + resourceName + ": " + RetryStrategy.describe( e ),
+                                               e );
+        }
+        finally
+        {
+            if ( flightKey != null )
+            {
+                IN_FLIGHT.land( flightKey ).fail( new IOException( "Unable to get " + resourceName ) );
+            }
+            // a journal is only there when this get failed and kept what it received
+            if ( tmp.exists() && !DownloadJournal.exists( tmp.toPath() ) )
+            {
+                tmp.delete();
+            }
+        }
+        fireGetCompleted( resource, destination );
+        return true;
+    }
+
+    /**
+     * Waits for another get of the same object and takes what it downloaded, firing the events of this get as if
+     * the bytes came from S3.
+     *
+     * @return {@code false} when the other get failed and this one should try on its own
+     */
+    private boolean receive( InFlightDownloads.Flight flight, Resource resource, File destination )
+        throws TransferFailedException, ResourceDoesNotExistException
+    {
+        File tmp = null;
+        try
+        {
+            tmp = flight.receive( destination.getAbsoluteFile().toPath() ).toFile();
+            resource.setContentLength( flight.getLength() );
+            resource.setLastModified( flight.getLastModified() );
+            try ( TransferProgress progress =
+                newProgress( resource, destination, tmp.toPath(), TransferEvent.REQUEST_GET, null ) )
+            {
+                progress.begin( getBufferCapacityForTransfer( flight.getLength() ) );
+                fireGetStarted( resource, destination );
+                progress.completed( 0, flight.getLength() );
+                progress.finish();
+            }
+            Files.move( tmp.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            if ( flight.getLastModified() > 0 )
+            {
+                destination.setLastModified( flight.getLastModified() );
+            }
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof NoSuchKeyException )
+            {
+                throw new ResourceDoesNotExistException( resource.getName() + " does not exists.", e.getCause() );
+            }
+            return false;
+        }
+        catch ( IOException | UncheckedIOException e )
+        {
+            fireTransferDebug( "Unable to take the download of " + resource.getName() + " made by another get: " + e );
+            return false;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            fireTransferError( resource, e, TransferEvent.REQUEST_GET );
+            throw new TransferFailedException( "Interrupted while waiting for " + resource.getName(), e );
+        }
+        finally
+        {
+            if ( tmp != null && tmp.exists() )
+            {
+                tmp.delete();
+            }
+        }
+        fireTransferDebug( resource.getName() + " downloaded once for concurrent gets" );
+        fireGetCompleted( resource, destination );
+        return true;
+    }
+
+    /**
+     * Downloads into {@code tmp}, firing the get started event as soon as the size of the resource is known. The
+     * copies of the repository are tried in the order of the {@link MirrorRouter}, the next one when a copy fails or
+     * does not have the resource before anything was received from it.
+     *
+     * @param partial what a previous get left in {@code tmp}, or {@code null}
+     */
+    private GetObjectResponse fetch( GetObjectRequest req, File tmp, Resource resource, File destination,
+                                     TransferProgress progress, DownloadJournal partial )
+        throws IOException
+    {
+        List<MirrorRouter.Mirror> copies = route( resource.getName() );
+        for ( int i = 0;; i++ )
+        {
+            MirrorRouter.Mirror mirror = copies.get( i );
+            AtomicReference<GetObjectResponse> first = new AtomicReference<>();
+            long start = System.nanoTime();
+            try
+            {
+                return fetch( mirror, req, tmp, resource, destination, progress, partial, first, start );
+            }
+            catch ( IOException | SdkException e )
+            {
+                if ( first.get() != null || !mirror.failed( start, e ) || i == copies.size() - 1 )
+                {
+                    throw e;
+                }
+                // a journal kept by the failed copy describes nothing new
+                DownloadJournal.delete( tmp.toPath() );
+                fireTransferDebug( "Unable to get " + resource.getName() + " from " + mirror + ", trying "
+                    + copies.get( i + 1 ) + ": " + e );
+            }
+        }
+    }
+
+    /**
+     * @param req the request for the bucket of the repository
+     * @param first set to the first response of {@code mirror}
+     * @param start when the first request was sent to {@code mirror}
+     */
+    private GetObjectResponse fetch( MirrorRouter.Mirror mirror, GetObjectRequest req, File tmp, Resource resource,
+                                     File destination, TransferProgress progress, DownloadJournal partial,
+                                     AtomicReference<GetObjectResponse> first, long start )
+        throws IOException
+    {
+        GetObjectRequest mirrored = mirror.isPrimary() ? req : req.toBuilder().bucket( mirror.getBucket() ).build();
+        Consumer<GetObjectResponse> onResponse = response -> {
+            mirror.answered( start );
+            first.set( response );
+            resource.setContentLength( RangedDownload.totalLength( response ) );
+            if ( response.lastModified() != null )
+            {
+                resource.setLastModified( response.lastModified().toEpochMilli() );
+            }
+            rememberChecksums( store(), req.key(), response.metadata(), resource.getLastModified() );
+            progress.begin( getBufferCapacityForTransfer( resource.getContentLength() ) );
+            fireGetStarted( resource, destination );
+        };
+        if ( smallObjectThreshold > 0 && isSmallResource( resource.getName() ) )
+        {
+            GetObjectResponse response = fetchSmall( mirror.getClient().get(), mirrored, tmp, onResponse, progress );
+            if ( response != null )
+            {
+                return response;
+            }
+            fireTransferDebug( resource.getName() + " is bigger than " + smallObjectThreshold
+                + " bytes, downloading it like any other resource" );
+        }
+        DownloadJournal resumed = partial != null && isResumable( req, partial ) ? partial : null;
+        try
+        {
+            if ( resumed != null )
+            {
+                try
+                {
+                    fireTransferDebug( "Resuming " + resource.getName() + " after " + resumed.getDoneLength()
+                        + " bytes received by a previous get" );
+                    try ( TransferEngine engine =
+                        openEngine( mirror.getClient(), mirror.getAsyncClient(), rangedGetConcurrency ) )
+                    {
+                        return new RangedDownload( engine, mirrored, rangedGetPartSize, rangedGetConcurrency,
+                                                   multipartRetries, progress ).resume( tmp.toPath(), resumed,
+                                                                                        onResponse );
+                    }
+                }
+                catch ( S3Exception e )
+                {
+                    if ( e.statusCode() != HTTP_PRECONDITION_FAILED )
+                    {
+                        throw e;
+                    }
+                    fireTransferDebug( resource.getName() + " changed since the previous get, downloading it again" );
+                    resumed = null;
+                }
+            }
+            return download( mirror, mirrored, tmp.toPath(), onResponse, progress );
+        }
+        catch ( IOException | SdkException e )
+        {
+            keepPartial( tmp, resource, first.get(), resumed, progress, e );
+            throw e;
+        }
+    }
+
+    /**
+     * @return the copies a read of {@code resourceName} tries, in order; metadata is only read from the primary, since
+     *         a mirror replicating with a lag answers with the previous version as if it were the current one
+     */
+    private List<MirrorRouter.Mirror> route( String resourceName )
+    {
+        return MetadataCache.isMetadata( resourceName ) ? router.primary() : router.route();
+    }
+
+    /**
+     * A partial download is only worth completing if the request would have downloaded it at all.
+     */
+    private static boolean isResumable( GetObjectRequest req, DownloadJournal partial )
+    {
+        if ( partial.getETag().equals( req.ifNoneMatch() ) )
+        {
+            return false;
+        }
+        return req.ifModifiedSince() == null || partial.getLastModified() > req.ifModifiedSince().toEpochMilli();
+    }
+
+    /**
+     * Writes the journal of a download that failed on a transient error, so that the next get completes it.
+     *
+     * @param response the first response of the download, or {@code null} if none arrived
+     * @param resumed the journal the download resumed from, or {@code null}
+     */
+    private void keepPartial( File tmp, Resource resource, GetObjectResponse response, DownloadJournal resumed,
+                              TransferProgress progress, Exception e )
+    {
+        if ( !resumableDownloads || !RetryStrategy.isRetryable( ParallelTransfer.unwrap( e ) ) )
+        {
+            return;
+        }
+        DownloadJournal journal;
+        if ( response != null && response.eTag() != null )
+        {
+            List<long[]> done = progress.done();
+            if ( resumed != null && response.eTag().equals( resumed.getETag() ) )
+            {
+                done = DownloadJournal.merge( done, resumed.getDone() );
+            }
+            long length = RangedDownload.totalLength( response );
+            long lastModified = response.lastModified() == null ? 0 : response.lastModified().toEpochMilli();
+            journal = new DownloadJournal( response.eTag(), length, lastModified, done );
+        }
+        else
+        {
+            // failed before anything new arrived
+            journal = resumed;
+        }
+        if ( journal == null || journal.getDone().isEmpty() )
+        {
+            return;
+        }
+        try
+        {
+            journal.save( tmp.toPath() );
+            fireTransferDebug( "Kept " + journal.getDoneLength() + " bytes of " + resource.getName()
+                + " for the next get" );
+        }
+        catch ( IOException ioe )
+        {
+            fireTransferDebug( "Unable to keep the partial download of " + resource.getName() + ": " + ioe );
+        }
+    }
+
+    /**
+     * @return whether {@code resourceName} is of a kind that is nearly always a few kilobytes at most
+     */
+    private static boolean isSmallResource( String resourceName )
+    {
+        String name = resourceName.toLowerCase();
+        return Checksums.checksumExtension( name ) != null || name.endsWith( ".pom" ) || name.endsWith( ".asc" )
+            || MetadataCache.isMetadata( name );
+    }
+
+    /**
+     * Downloads a resource expected to be small with a single request, without the machinery of ranged downloads.
+     * The body is read into a pooled buffer of {@link BufferPool#BUFFER_SIZE} bytes and written with one write when it
+     * fits, or buffer by buffer when it turns out to be bigger.
+     *
+     * @return the response, or {@code null} without reading the body when it is bigger than
+     *         {@link #getSmallObjectThreshold()}
+     */
+    private GetObjectResponse fetchSmall( S3Client client, GetObjectRequest req, File tmp,
+                                          Consumer<GetObjectResponse> onResponse, TransferProgress progress )
+        throws IOException
+    {
+        ResponseInputStream<GetObjectResponse> in = getSmallObject( client, req );
+        Long contentLength = in.response().contentLength();
+        if ( contentLength != null && contentLength > smallObjectThreshold )
+        {
+            // dropping the connection costs less than reading a big body through a single request
+            in.abort();
+            in.close();
+            return null;
+        }
+        byte[] buffer = BufferPool.acquire( BufferPool.BUFFER_SIZE );
+        try ( FileChannel channel = FileChannel.open( tmp.toPath(), StandardOpenOption.CREATE,
+                                                      StandardOpenOption.TRUNCATE_EXISTING,
+                                                      StandardOpenOption.WRITE ) )
+        {
+            onResponse.accept( in.response() );
+            long position = 0;
+            int length;
+            while ( ( length = readFully( in, buffer ) ) > 0 )
+            {
+                ByteBuffer wrapper = ByteBuffer.wrap( buffer, 0, length );
+                while ( wrapper.hasRemaining() )
+                {
+                    channel.write( wrapper );
+                }
+                progress.update( position, buffer, 0, length );
+                position += length;
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            // do not drain the rest of the body just to reuse the connection
+            in.abort();
+            throw e;
+        }
+        finally
+        {
+            BufferPool.release( buffer );
+            in.close();
+        }
+        return in.response();
+    }
+
+    /**
+     * Sends the get of a small resource, hedged when {@link #isHedgedGets()} and enough small gets were timed.
+     */
+    private ResponseInputStream<GetObjectResponse> getSmallObject( S3Client client, GetObjectRequest req )
+        throws InterruptedIOException
+    {
+        long start = System.nanoTime();
+        ResponseInputStream<GetObjectResponse> in = null;
+        if ( hedgedGets )
+        {
+            long[] latencies = SMALL_GET_LATENCY.buckets();
+            if ( LatencyHistogram.count( latencies ) >= HEDGE_MIN_SAMPLES )
+            {
+                try
+                {
+                    in = HedgedRequest.send( () -> client.getObject( req ),
+                                             LatencyHistogram.percentile( latencies, HEDGE_PERCENTILE ),
+                                             ResponseInputStream::abort );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException( "Interrupted while getting " + req.key() );
+                }
+            }
+        }
+        if ( in == null )
+        {
+            in = client.getObject( req );
+        }
+        SMALL_GET_LATENCY.record( System.nanoTime() - start );
+        return in;
+    }
+
+    /**
+     * @return the number of bytes read, less than the buffer size only at the end of the stream
+     */
+    private static int readFully( InputStream in, byte[] buffer )
+        throws IOException
+    {
+        int length = 0;
+        int n;
+        while ( length < buffer.length && ( n = in.read( buffer, length, buffer.length - length ) ) != -1 )
+        {
+            length += n;
+        }
+        return length;
+    }
+
+    /**
+     * Answers the get of a checksum file with the digest stored in the metadata of its artifact, writing it the way
+     * Maven writes checksum files, without the file name.
+     */
+    private boolean getStoredChecksum( Resource resource, File destination, long timestamp, Checksums.Stored stored )
+        throws TransferFailedException
+    {
+        if ( timestamp > 0 && stored.getLastModified() <= timestamp )
+        {
+            return false;
+        }
+        String digest = stored.get( Checksums.checksumExtension( resource.getName() ) );
+        byte[] content = digest.getBytes( StandardCharsets.US_ASCII );
+        resource.setContentLength( content.length );
+        resource.setLastModified( stored.getLastModified() );
+        try ( TransferProgress progress =
+            newProgress( resource, destination, destination.toPath(), TransferEvent.REQUEST_GET, null ) )
+        {
+            Files.write( destination.toPath(), content );
+            if ( stored.getLastModified() > 0 )
+            {
+                destination.setLastModified( stored.getLastModified() );
+            }
+            progress.begin( content.length );
+            fireGetStarted( resource, destination );
+            progress.completed( 0, content.length );
+            progress.finish();
+        }
+        catch ( IOException | UncheckedIOException e )
+        {
+            fireTransferError( resource, e, TransferEvent.REQUEST_GET );
+            throw new TransferFailedException( "Unable to write " + destination.getAbsolutePath(), e );
+        }
+        fireTransferDebug( resource.getName() + " answered from the metadata of its artifact" );
+        fireGetCompleted( resource, destination );
+        return true;
+    }
+
+    /**
+     * @return the digests stored with the artifact of the checksum file {@code key}, if they were seen within
+     *         {@link #getExistenceCacheTtl()} milliseconds and include the one asked for, {@code null} otherwise
+     */
+    private Checksums.Stored storedChecksumsOf( Object store, String key )
+    {
+        String extension = Checksums.checksumExtension( key );
+        if ( extension == null || existenceCacheTtl <= 0 )
+        {
+            return null;
+        }
+        String artifactKey = key.substring( 0, key.length() - extension.length() - 1 );
+        Checksums.Stored stored = STORED_CHECKSUMS.get( store, artifactKey, existenceCacheTtl );
+        return stored != null && stored.get( extension ) != null ? stored : null;
+    }
+
+    /**
+     * Remembers the digests found in the metadata of an object, if any, for the gets of its checksum files.
+     */
+    private static void rememberChecksums( Object store, String key, Map<String, String> metadata, long lastModified )
+    {
+        if ( Checksums.checksumExtension( key ) != null )
+        {
+            return;
+        }
+        Map<String, String> digests = Checksums.fromMetadata( metadata );
+        if ( digests.isEmpty() )
+        {
+            STORED_CHECKSUMS.invalidate( store, key );
+        }
+        else
+        {
+            STORED_CHECKSUMS.put( store, key, new Checksums.Stored( digests, lastModified ) );
+        }
+    }
+
+    /**
+     * @return the content cache, or {@code null} when {@link #getContentCacheDirectory()} is not set
+     */
+    private ContentCache contentCache()
+    {
+        if ( contentCacheDirectory == null || contentCacheDirectory.trim().isEmpty() )
+        {
+            return null;
+        }
+        return ContentCache.forDirectory( contentCacheDirectory.trim(), contentCacheMaxSize );
+    }
+
+    /**
+     * A broken cache only costs a download, it never fails the get.
+     */
+    private ContentCache.Entry lookupContent( ContentCache cache, String bucket, String key )
+    {
+        try
+        {
+            return cache.lookup( bucket, key );
+        }
+        catch ( IOException e )
+        {
+            fireTransferDebug( "Unable to read content cache for " + key + ": " + e );
+            return null;
+        }
+    }
+
+    private void storeContent( ContentCache cache, String bucket, String key, String eTag, long lastModified,
+                               File file )
+    {
+        try
+        {
+            cache.store( bucket, key, eTag, lastModified, file.toPath() );
+        }
+        catch ( IOException e )
+        {
+            fireTransferDebug( "Unable to store " + key + " in content cache: " + e );
+        }
+    }
+
+    private GetObjectResponse download( MirrorRouter.Mirror mirror, GetObjectRequest req, Path target,
+                                        Consumer<GetObjectResponse> onResponse, TransferProgress progress )
+        throws IOException
+    {
+        try ( TransferEngine engine =
+            openEngine( mirror.getClient(), mirror.getAsyncClient(), rangedGetConcurrency ) )
+        {
+            return new RangedDownload( engine, req, rangedGetPartSize, rangedGetConcurrency, multipartRetries,
+                                       progress ).download( target, onResponse );
+        }
+    }
+
+    /**
+     * Creates the progress of a transfer, firing its events one at a time whatever thread moves the bytes.
+     *
+     * @param file the local file being read or written, which may differ from the one the events tell about
+     * @param checksums updated with the bytes of the resource, in order, or {@code null}
+     */
+    private TransferProgress newProgress( Resource resource, File localFile, Path file, int requestType,
+                                          Checksums checksums )
+    {
+        final TransferEvent event =
+            new TransferEvent( this, resource, TransferEvent.TRANSFER_PROGRESS, requestType );
+        event.setLocalFile( localFile );
+        return new TransferProgress( file, ( buffer, length ) -> {
+            if ( checksums != null )
+            {
+                checksums.update( buffer, 0, length );
+            }
+            synchronized ( transferEventSupport )
+            {
+                event.setTimestamp( System.currentTimeMillis() );
+                fireTransferProgress( event, buffer, length );
+            }
+        } );
+    }
+
+    /**
+     * Sizes the buffer of progress notifications so that a resource is reported in at least
+     * {@link #MINIMUM_AMOUNT_OF_TRANSFER_CHUNKS} chunks, each a multiple of {@link #BUFFER_SEGMENT_SIZE} between
+     * {@link #DEFAULT_BUFFER_SIZE} and {@link #MAXIMUM_BUFFER_SIZE}.
+     */
+    protected int getBufferCapacityForTransfer( long numberOfBytes )
+    {
+        if ( numberOfBytes <= 0 )
+        {
+            return DEFAULT_BUFFER_SIZE;
+        }
+        long numberOfBufferSegments = numberOfBytes / ( BUFFER_SEGMENT_SIZE * MINIMUM_AMOUNT_OF_TRANSFER_CHUNKS );
+        long potentialBufferSize = numberOfBufferSegments * BUFFER_SEGMENT_SIZE;
+        if ( potentialBufferSize > MAXIMUM_BUFFER_SIZE )
+        {
+            return MAXIMUM_BUFFER_SIZE;
+        }
+        return Math.max( DEFAULT_BUFFER_SIZE, (int) potentialBufferSize );
+    }
+
+    /**
+     * @param concurrency how many transfers the caller keeps in flight, only the blocking engine needs a thread each
+     */
+    private TransferEngine openEngine( int concurrency )
+    {
+        return openEngine( s3Client, s3AsyncClient, concurrency );
+    }
+
+    /**
+     * @param asyncClient the client of the asynchronous engine, or {@code null} for the blocking one
+     */
+    private static TransferEngine openEngine( Supplier<S3Client> client, Supplier<S3AsyncClient> asyncClient,
+                                              int concurrency )
+    {
+        if ( asyncClient != null )
+        {
+            return new AsyncTransferEngine( asyncClient.get() );
+        }
+        return new BlockingTransferEngine( client.get(), concurrency );
+    }
+
+    /**
+     * Uploads a file. With {@link #isWriteBehind()}, only metadata files are uploaded right away: any other file is
+     * copied aside and queued, and this method returns. A metadata put first waits for the queued uploads, so that the
+     * metadata never lists files that are not there yet, and fails if any of them failed.
+     */
+    @Override
+    public void put( File source, String destination )
+        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    {
+        fireTransferDebug( "Put started to destination " + destination + " of file " + source.getAbsolutePath() );
+        checkBaseDir();
+        Resource resource = new Resource( destination );
+        if ( writeBehind )
+        {
+            if ( !MetadataCache.isMetadata( destination ) )
+            {
+                putBehind( source, resource );
+                return;
+            }
+            drain( currentWriteBehindQueue() );
+        }
+
+        firePutInitiated( resource, source );
+        resource.setContentLength( source.length() );
+        resource.setLastModified( source.lastModified() );
+
+        try
+        {
+            firePutStarted( resource, source );
+            putResource( resource, source );
+        }
+        finally
+        {
+            firePutCompleted( resource, source );
+        }
+
+    }
+
+    /**
+     * Queues the upload of a snapshot of {@code source}, so the caller may change or delete the file as soon as this
+     * returns. The transfer events are fired one at a time, as the upload completes on a worker thread.
+     */
+    private void putBehind( File source, Resource resource )
+        throws TransferFailedException
+    {
+        WriteBehindQueue queue = writeBehindQueue();
+        // the failures of the previous puts are reported as soon as they are known
+        queue.check();
+        resource.setContentLength( source.length() );
+        resource.setLastModified( source.lastModified() );
+        synchronized ( transferEventSupport )
+        {
+            firePutInitiated( resource, source );
+        }
+        String key = resolveKey( resource.getName() );
+        // a queued put of the same file to the same key still reads the snapshot about to be replaced
+        awaitWriteBehind( key );
+        File snapshot;
+        try
+        {
+            snapshot = snapshot( source, key );
+        }
+        catch ( IOException e )
+        {
+            TransferFailedException tfe =
+                new TransferFailedException( "Unable to copy " + source.getAbsolutePath() + " for the upload", e );
+            synchronized ( transferEventSupport )
+            {
+                fireTransferError( resource, tfe, TransferEvent.REQUEST_PUT );
+            }
+            throw tfe;
+        }
+        synchronized ( transferEventSupport )
+        {
+            firePutStarted( resource, source );
+        }
+        try
+        {
+            queue.submit( key, () -> {
+                try
+                {
+                    putResource( resource, snapshot );
+                }
+                catch ( TransferFailedException e )
+                {
+                    synchronized ( transferEventSupport )
+                    {
+                        fireTransferError( resource, e, TransferEvent.REQUEST_PUT );
+                    }
+                    throw e;
+                }
+                finally
+                {
+                    snapshot.delete();
+                }
+                synchronized ( transferEventSupport )
+                {
+                    firePutCompleted( resource, source );
+                }
+            } );
+        }
+        catch ( InterruptedException e )
+        {
+            snapshot.delete();
+            Thread.currentThread().interrupt();
+            throw new TransferFailedException( "Interrupted while queueing the put of " + resource.getName(), e );
+        }
+    }
+
+    /**
+     * Copies {@code source} beside itself, or in the temporary directory when its directory is read-only. The copy is
+     * named after the source and the key, and keeps the time of the source, so that the put of the same file after a
+     * crash finds the {@link UploadJournal} of the multipart upload the previous one left.
+     */
+    private static File snapshot( File source, String key )
+        throws IOException
+    {
+        Path path = source.getAbsoluteFile().toPath();
+        String name = source.getName() + "." + Integer.toHexString( key.hashCode() ) + ".deploy";
+        Path snapshot = path.resolveSibling( name );
+        try
+        {
+            Files.copy( path, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES );
+        }
+        catch ( IOException e )
+        {
+            // a read-only directory; if the source itself cannot be read the second copy fails too
+            Files.deleteIfExists( snapshot );
+            snapshot = Paths.get( System.getProperty( "java.io.tmpdir" ), name );
+            Files.copy( path, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES );
+        }
+        return snapshot.toFile();
+    }
+
+    private synchronized WriteBehindQueue writeBehindQueue()
+    {
+        if ( writeBehindQueue == null )
+        {
+            writeBehindQueue = new WriteBehindQueue( directoryUploadConcurrency, writeBehindQueueSize );
+        }
+        return writeBehindQueue;
+    }
+
+    private synchronized WriteBehindQueue currentWriteBehindQueue()
+    {
+        return writeBehindQueue;
+    }
+
+    /**
+     * Waits for the queued puts of {@code key}, so that a get or an existence check sees what was put before.
+     */
+    private void awaitWriteBehind( String key )
+        throws TransferFailedException
+    {
+        WriteBehindQueue queue = currentWriteBehindQueue();
+        if ( queue == null )
+        {
+            return;
+        }
+        try
+        {
+            queue.await( key );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new TransferFailedException( "Interrupted while waiting for the put of " + key, e );
+        }
+    }
+
+    /**
+     * Waits for every queued put.
+     *
+     * @param queue the queue, or {@code null} when nothing was ever queued
+     * @throws TransferFailedException if any of them failed
+     */
+    private static void drain( WriteBehindQueue queue )
+        throws TransferFailedException
+    {
+        if ( queue == null )
+        {
+            return;
+        }
+        try
+        {
+            queue.drain();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new TransferFailedException( "Interrupted while waiting for the background puts", e );
+        }
+    }
+
+    /**
+     * Stores {@code source} under {@code key}, with a multipart upload when it is bigger than
+     * {@link #getMultipartThreshold()}. Only progress events are fired here.
+     *
+     * @param metadata the user metadata of the object, or {@code null}
+     */
+    private void upload( File source, String key, TransferProgress progress, Map<String, String> metadata )
+        throws TransferFailedException
+    {
+        String bucket = getRepository().getHost();
+        Object store = store();
+        EXISTENCE_CACHE.invalidate( store, key );
+        STORED_CHECKSUMS.invalidate( store, key );
+        METADATA_CACHE.invalidate( bucket, key );
+        invalidateListings( store, key );
+        try
+        {
+            if ( source.length() > multipartThreshold )
+            {
+                try ( TransferEngine engine = openEngine( multipartConcurrency ) )
+                {
+                    new MultipartUpload( s3Client.get(), engine, bucket, key, source, multipartPartSize,
+                                         multipartConcurrency, multipartRetries, progress, metadata,
+                                         staleUploadAge ).upload();
+                }
+            }
+            else
+            {
+                PutObjectRequest req =
+                    PutObjectRequest.builder().bucket( bucket ).key( key ).metadata( metadata ).build();
+                try ( TransferEngine engine = openEngine( 1 ) )
+                {
+                    engine.upload( req, source, progress ).get();
+                }
+            }
+        }
+        catch ( SdkException e )
+        {
+            throw new TransferFailedException( "Unable to put " + key, e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new TransferFailedException( "Unable to put " + key, ParallelTransfer.unwrap( e ) );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new TransferFailedException( "Interrupted while putting " + key, e );
+        }
+    }
+
+    /**
+     * Uploads a resource and writes its checksum files. The digests are computed while the resource streams or, with
+     * {@link #isChecksumMetadata()}, before, to store them in the metadata of the object. Only progress events are
+     * fired here.
+     */
+    private void putResource( Resource resource, File source )
+        throws TransferFailedException
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            putResourceInternal( resource, source );
+            failed = false;
+        }
+        finally
+        {
+            METRICS.record( TransferMetrics.PUT, start, failed ? 0 : source.length(), failed );
+        }
+    }
+
+    private void putResourceInternal( Resource resource, File source )
+        throws TransferFailedException
+    {
+        String bucket = getRepository().getHost();
+        String key = resolveKey( resource.getName() );
+        Map<String, String> digests = null;
+        Checksums checksums = null;
+        List<String> extensions = Collections.emptyList();
+        if ( Checksums.checksumExtension( resource.getName() ) == null )
+        {
+            extensions = checksumFileExtensions();
+            if ( checksumMetadata )
+            {
+                List<String> stored = new ArrayList<>( Arrays.asList( "md5", "sha1" ) );
+                for ( String extension : extensions )
+                {
+                    if ( !stored.contains( extension ) )
+                    {
+                        stored.add( extension );
+                    }
+                }
+                try
+                {
+                    digests = Checksums.compute( source, stored );
+                }
+                catch ( IOException e )
+                {
+                    throw new TransferFailedException( "Unable to read " + source.getAbsolutePath(), e );
+                }
+            }
+            else if ( !extensions.isEmpty() )
+            {
+                checksums = new Checksums( extensions );
+            }
+        }
+
+        try ( TransferProgress progress =
+            newProgress( resource, source, source.toPath(), TransferEvent.REQUEST_PUT, checksums ) )
+        {
+            progress.begin( getBufferCapacityForTransfer( source.length() ) );
+            if ( isWrittenChecksum( key, source ) )
+            {
+                fireTransferDebug( "Checksum file " + resource.getName() + " was already written with its resource" );
+                progress.completed( 0, source.length() );
+            }
+            else
+            {
+                upload( source, key, progress, digests == null ? null : Checksums.toMetadata( digests ) );
+            }
+            progress.finish();
+        }
+
+        Map<String, String> files = new LinkedHashMap<>();
+        if ( checksums != null )
+        {
+            files = checksums.complete();
+        }
+        else if ( digests != null )
+        {
+            STORED_CHECKSUMS.put( store(), key, new Checksums.Stored( digests, System.currentTimeMillis() ) );
+            for ( String extension : extensions )
+            {
+                files.put( extension, digests.get( extension ) );
+            }
+        }
+        if ( !files.isEmpty() )
+        {
+            putChecksumFiles( key, files );
+        }
+    }
+
+    private List<String> checksumFileExtensions()
+        throws TransferFailedException
+    {
+        try
+        {
+            return Checksums.parse( checksumFiles );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new TransferFailedException( "Invalid checksumFiles: " + e.getMessage(), e );
+        }
+    }
+
+    /**
+     * The digests computed while downloading: those of the checksum files written on put, and always SHA-1, which
+     * Maven deploys beside every artifact.
+     */
+    private List<String> verifiedChecksums()
+        throws TransferFailedException
+    {
+        List<String> extensions = checksumFileExtensions();
+        if ( !extensions.contains( "sha1" ) )
+        {
+            extensions.add( "sha1" );
+        }
+        return extensions;
+    }
+
+    /**
+     * Writes the checksum files of a resource just uploaded, all at once.
+     */
+    private void putChecksumFiles( String key, Map<String, String> digests )
+        throws TransferFailedException
+    {
+        String bucket = getRepository().getHost();
+        Object store = store();
+        List<CompletableFuture<?>> puts = new ArrayList<>();
+        try
+        {
+            for ( Map.Entry<String, String> digest : digests.entrySet() )
+            {
+                String checksumKey = key + "." + digest.getKey();
+                EXISTENCE_CACHE.invalidate( store, checksumKey );
+                METADATA_CACHE.invalidate( bucket, checksumKey );
+                invalidateListings( store, checksumKey );
+                PutObjectRequest req =
+                    PutObjectRequest.builder().bucket( bucket ).key( checksumKey ).contentType( "text/plain" ).build();
+                if ( s3AsyncClient != null )
+                {
+                    puts.add( s3AsyncClient.get().putObject( req,
+                                                             AsyncRequestBody.fromString( digest.getValue() ) ) );
+                }
+                else
+                {
+                    s3Client.get().putObject( req, RequestBody.fromString( digest.getValue() ) );
+                }
+            }
+            for ( CompletableFuture<?> put : puts )
+            {
+                put.get();
+            }
+        }
+        catch ( SdkException e )
+        {
+            throw new TransferFailedException( "Unable to put checksum files of " + key, e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new TransferFailedException( "Unable to put checksum files of " + key, ParallelTransfer.unwrap( e ) );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new TransferFailedException( "Interrupted while putting checksum files of " + key, e );
+        }
+        for ( Map.Entry<String, String> digest : digests.entrySet() )
+        {
+            WRITTEN_CHECKSUMS.put( bucket, key + "." + digest.getKey(), digest.getValue() );
+            fireTransferDebug( "Wrote " + digest.getKey() + " checksum file of " + key );
+        }
+    }
+
+    /**
+     * Tells whether {@code source} is a checksum file this wagon already wrote with the same digest.
+     */
+    private boolean isWrittenChecksum( String key, File source )
+    {
+        if ( Checksums.checksumExtension( key ) == null || source.length() > MAXIMUM_CHECKSUM_FILE_SIZE )
+        {
+            return false;
+        }
+        String written = WRITTEN_CHECKSUMS.get( getRepository().getHost(), key, WRITTEN_CHECKSUMS_TTL );
+        if ( written == null )
+        {
+            return false;
+        }
+        try
+        {
+            String content = new String( Files.readAllBytes( source.toPath() ), StandardCharsets.US_ASCII );
+            return written.equals( Checksums.parseChecksumFile( content ) );
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks the digests computed while downloading against the checksums S3 stored with the object, when a whole
+     * object was fetched, or else against the strongest checksum file found beside it.
+     *
+     * @param response the first response of the download, {@code null} when served from the content cache
+     */
+    private void verifyChecksums( String resourceName, String key, Map<String, String> actual,
+                                  GetObjectResponse response )
+        throws TransferFailedException
+    {
+        if ( response != null )
+        {
+            for ( String extension : new String[] { "sha256", "sha1" } )
+            {
+                Optional<String> header =
+                    response.sdkHttpResponse().firstMatchingHeader( "x-amz-checksum-" + extension );
+                // checksums of multipart uploads are checksums of the part checksums, followed by the part count
+                if ( header.isPresent() && actual.containsKey( extension ) && header.get().indexOf( '-' ) < 0 )
+                {
+                    String expected = ETags.hex( Base64.getDecoder().decode( header.get() ) );
+                    checkChecksum( resourceName, extension, expected, actual.get( extension ) );
+                    return;
+                }
+            }
+        }
+        List<String> extensions = new ArrayList<>( actual.keySet() );
+        Collections.reverse( extensions );
+        for ( String extension : extensions )
+        {
+            String expected;
+            try
+            {
+                GetObjectRequest req = GetObjectRequest.builder().bucket( getRepository().getHost() )
+                    .key( key + "." + extension ).build();
+                expected = Checksums.parseChecksumFile( s3Client.get().getObjectAsBytes( req ).asUtf8String() );
+            }
+            catch ( NoSuchKeyException e )
+            {
+                continue;
+            }
+            catch ( SdkException e )
+            {
+                fireTransferDebug( "Unable to get " + extension + " checksum of " + resourceName + ": " + e );
+                return;
+            }
+            checkChecksum( resourceName, extension, expected, actual.get( extension ) );
+            return;
+        }
+        fireTransferDebug( "No checksum found to verify " + resourceName );
+    }
+
+    private void checkChecksum( String resourceName, String extension, String expected, String actual )
+        throws TransferFailedException
+    {
+        if ( expected.equalsIgnoreCase( actual ) )
+        {
+            fireTransferDebug( "Verified " + extension + " checksum of " + resourceName );
+            return;
+        }
+        String message =
+            "Checksum mismatch for " + resourceName + ": expected " + extension + " " + expected + " but was " + actual;
+        if ( CHECKSUM_POLICY_FAIL.equalsIgnoreCase( checksumPolicy ) )
+        {
+            throw new TransferFailedException( message );
+        }
+        fireTransferDebug( message );
+    }
+
+    /**
+     * Uploads every file below {@code sourceDirectory} on a pool of {@link #getDirectoryUploadConcurrency()} threads.
+     * Files are queued from the smallest to the largest, so the many small files of a site go out first while the
+     * few large ones do not hold the queue. Each file fires its own transfer events and the overall progress is
+     * reported as debug messages.
+     * <p>
+     * With {@link #isDirectorySync()} the destination is listed first and files whose size and ETag match the remote
+     * object are not uploaded again; with {@link #isDirectorySyncDelete()} remote objects missing locally are deleted
+     * once every upload succeeded.
+     */
+    @Override
+    public void putDirectory( File sourceDirectory, String destDir )
+        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    {
+        checkBaseDir();
+        if ( !sourceDirectory.isDirectory() )
+        {
+            throw new ResourceDoesNotExistException( "Directory does not exist: " + sourceDirectory );
+        }
+
+        List<File> files = buildFileList( sourceDirectory );
+        Collections.sort( files, Comparator.comparingLong( File::length ) );
+        long totalBytes = 0;
+        for ( File file : files )
+        {
+            totalBytes += file.length();
+        }
+
+        String keyPrefix = resolvePrefix( destDir );
+        String prefix = keyPrefix.substring( resolveKey( "" ).length() );
+        Map<String, S3Object> remote = new HashMap<>();
+        List<String> checksumExtensions = Collections.emptyList();
+        if ( directorySync )
+        {
+            checksumExtensions = checksumFileExtensions();
+            try
+            {
+                remote = getObjectMap( keyPrefix );
+            }
+            catch ( SdkException e )
+            {
+                throw new TransferFailedException( "Unable to list " + keyPrefix, e );
+            }
+        }
+
+        ExecutorService executor =
+            Executors.newFixedThreadPool( Math.max( 1, Math.min( directoryUploadConcurrency, files.size() ) ),
+                                          new DaemonThreadFactory( "s3-wagon-put-directory" ) );
+        CompletionService<File> completion = new ExecutorCompletionService<>( executor );
+        List<Future<File>> futures = new ArrayList<>( files.size() );
+        try
+        {
+            for ( final File file : files )
+            {
+                String relative = sourceDirectory.toPath().relativize( file.toPath() ).toString();
+                final String resourceName = prefix + relative.replace( File.separatorChar, '/' );
+                final S3Object existing = remote.remove( resolveKey( resourceName ) );
+                if ( Checksums.checksumExtension( resourceName ) == null )
+                {
+                    // the checksum files written beside the file are not stale either
+                    for ( String extension : checksumExtensions )
+                    {
+                        remote.remove( resolveKey( resourceName ) + "." + extension );
+                    }
+                }
+                futures.add( completion.submit( () -> {
+                    if ( existing != null && isUnchanged( file, existing ) )
+                    {
+                        return null;
+                    }
+                    putFile( file, resourceName );
+                    return file;
+                } ) );
+            }
+
+            long sentBytes = 0;
+            int unchanged = 0;
+            for ( int done = 1; done <= files.size(); done++ )
+            {
+                File sent = completion.take().get();
+                if ( sent == null )
+                {
+                    unchanged++;
+                }
+                else
+                {
+                    sentBytes += sent.length();
+                }
+                fireTransferDebug( "Uploaded " + ( done - unchanged ) + " of " + files.size() + " files ("
+                    + sentBytes + " of " + totalBytes + " bytes, " + unchanged + " unchanged) from "
+                    + sourceDirectory );
+            }
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof TransferFailedException )
+            {
+                throw (TransferFailedException) cause;
+            }
+            throw new TransferFailedException( "Unable to upload directory " + sourceDirectory, cause );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new TransferFailedException( "Upload of directory " + sourceDirectory + " was interrupted", e );
+        }
+        finally
+        {
+            for ( Future<File> future : futures )
+            {
+                future.cancel( true );
+            }
+            executor.shutdownNow();
+        }
+
+        if ( directorySync && directorySyncDelete && !remote.isEmpty() )
+        {
+            deleteObjects( new ArrayList<>( remote.keySet() ) );
+        }
+    }
+
+    /**
+     * Tells whether a local file already matches the remote object. Sizes are compared first; with
+     * {@link #isDirectorySyncLastModified()} a remote object at least as recent as the file is trusted without
+     * reading the file, otherwise the file is hashed and compared with the ETag.
+     */
+    private boolean isUnchanged( File file, S3Object remote )
+        throws TransferFailedException
+    {
+        if ( remote.size() == null || remote.size() != file.length() )
+        {
+            return false;
+        }
+        if ( directorySyncLastModified && remote.lastModified() != null
+            && remote.lastModified().toEpochMilli() >= file.lastModified() )
+        {
+            return true;
+        }
+        try
+        {
+            return ETags.matches( file, remote.eTag(), multipartPartSize );
+        }
+        catch ( IOException e )
+        {
+            throw new TransferFailedException( "Unable to read " + file.getAbsolutePath(), e );
+        }
+    }
+
+    /**
+     * Deletes objects with DeleteObjects, {@link #LIST_PAGE_SIZE} keys per request, the most the service accepts.
+     */
+    private void deleteObjects( List<String> keys )
+        throws TransferFailedException
+    {
+        String bucket = getRepository().getHost();
+        Object store = store();
+        for ( int from = 0; from < keys.size(); from += LIST_PAGE_SIZE )
+        {
+            List<ObjectIdentifier> batch = new ArrayList<>();
+            for ( String key : keys.subList( from, Math.min( keys.size(), from + LIST_PAGE_SIZE ) ) )
+            {
+                batch.add( ObjectIdentifier.builder().key( key ).build() );
+                EXISTENCE_CACHE.invalidate( store, key );
+                STORED_CHECKSUMS.invalidate( store, key );
+                METADATA_CACHE.invalidate( bucket, key );
+                invalidateListings( store, key );
+            }
+            DeleteObjectsRequest req = DeleteObjectsRequest.builder().bucket( bucket )
+                .delete( Delete.builder().objects( batch ).quiet( true ).build() ).build();
+            try
+            {
+                DeleteObjectsResponse res = s3Client.get().deleteObjects( req );
+                if ( res.hasErrors() && !res.errors().isEmpty() )
+                {
+                    S3Error error = res.errors().get( 0 );
+                    throw new TransferFailedException( "Unable to delete " + res.errors().size() + " objects, first "
+                        + error.key() + ": " + error.message() );
+                }
+            }
+            catch ( SdkException e )
+            {
+                throw new TransferFailedException( "Unable to delete removed objects", e );
+            }
+            fireTransferDebug( "Deleted " + batch.size() + " objects no longer present locally" );
+        }
+    }
+
+    /**
+     * Uploads one file of {@link #putDirectory(File, String)}. It runs on a worker thread, so its transfer events
+     * are fired one at a time.
+     */
+    private void putFile( File source, String resourceName )
+        throws TransferFailedException
+    {
+        Resource resource = new Resource( resourceName );
+        resource.setContentLength( source.length() );
+        resource.setLastModified( source.lastModified() );
+        synchronized ( transferEventSupport )
+        {
+            firePutInitiated( resource, source );
+            firePutStarted( resource, source );
+        }
+        try
+        {
+            putResource( resource, source );
+        }
+        catch ( TransferFailedException e )
+        {
+            synchronized ( transferEventSupport )
+            {
+                fireTransferError( resource, e, TransferEvent.REQUEST_PUT );
+            }
+            throw e;
+        }
+        synchronized ( transferEventSupport )
+        {
+            firePutCompleted( resource, source );
+        }
+    }
+
+    /**
+     * Checks the resource with a HEAD request. Answers are kept in the JVM wide {@link #EXISTENCE_CACHE} for
+     * {@link #getExistenceCacheTtl()} milliseconds, so repeated lookups, and in particular the many negative ones made
+     * when several repositories are configured, do not reach S3 again.
+     */
+    @Override
+    public boolean resourceExists( String resourceName )
+        throws TransferFailedException, AuthorizationException
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            boolean exists = resourceExistsInternal( resourceName );
+            failed = false;
+            return exists;
+        }
+        finally
+        {
+            METRICS.record( TransferMetrics.RESOURCE_EXISTS, start, 0, failed );
+        }
+    }
+
+    private boolean resourceExistsInternal( String resourceName )
+        throws TransferFailedException, AuthorizationException
+    {
+        checkBaseDir();
+        String bucket = getRepository().getHost();
+        Object store = store();
+        String key = resolveKey( resourceName );
+        awaitWriteBehind( key );
+        if ( existenceCacheTtl > 0 )
+        {
+            Boolean exists = EXISTENCE_CACHE.get( store, key, existenceCacheTtl );
+            METRICS.cacheLookup( TransferMetrics.EXISTENCE_CACHE, exists != null );
+            if ( exists != null )
+            {
+                return exists;
+            }
+        }
+        if ( storedChecksumsOf( store, key ) != null )
+        {
+            return true;
+        }
+
+        boolean exists;
+        try
+        {
+            HeadObjectResponse res = headObject( resourceName, key );
+            rememberChecksums( store, key, res.metadata(),
+                               res.lastModified() == null ? 0 : res.lastModified().toEpochMilli() );
+            exists = true;
+        }
+        catch ( NoSuchKeyException e )
+        {
+            exists = false;
+        }
+        catch ( S3Exception e )
+        {
+            if ( e.statusCode() == HTTP_NOT_FOUND )
+            {
+                exists = false;
+            }
+            else if ( e.statusCode() == HTTP_FORBIDDEN )
+            {
+                throw new AuthorizationException( "Access denied to " + resourceName, e );
+            }
+            else
+            {
+                throw new TransferFailedException( "Unable to check " + resourceName, e );
+            }
+        }
+        catch ( SdkException e )
+        {
+            throw new TransferFailedException( "Unable to check " + resourceName, e );
+        }
+        EXISTENCE_CACHE.put( store, key, exists );
+        return exists;
+    }
+
+    /**
+     * Asks the copies of the repository for the metadata of {@code key} in the order of the {@link MirrorRouter}, the
+     * next one when a copy fails or does not have it.
+     */
+    private HeadObjectResponse headObject( String resourceName, String key )
+    {
+        List<MirrorRouter.Mirror> copies = route( resourceName );
+        for ( int i = 0;; i++ )
+        {
+            MirrorRouter.Mirror mirror = copies.get( i );
+            long start = System.nanoTime();
+            try
+            {
+                HeadObjectResponse res = mirror.getClient().get()
+                    .headObject( HeadObjectRequest.builder().bucket( mirror.getBucket() ).key( key ).build() );
+                mirror.answered( start );
+                return res;
+            }
+            catch ( SdkException e )
+            {
+                if ( !mirror.failed( start, e ) || i == copies.size() - 1 )
+                {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the directory with ListObjectsV2, using the {@code /} delimiter so only the direct children are returned:
+     * objects by name and sub directories by name followed by {@code /}. Pages are requested at their full size and
+     * consumed as they arrive.
+     */
+    @Override
+    public List<String> getFileList( String destinationDirectory )
+        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            List<String> list = getFileListInternal( destinationDirectory );
+            failed = false;
+            return list;
+        }
+        finally
+        {
+            METRICS.record( TransferMetrics.GET_FILE_LIST, start, 0, failed );
+        }
+    }
+
+    private List<String> getFileListInternal( String destinationDirectory )
+        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    {
+        if ( getRepository().getBasedir() == null )
+        {
+            throw new TransferFailedException( "Unable to getFileList() with a null basedir." );
+        }
+
+        String bucket = getRepository().getHost();
+        Object store = store();
+        String prefix = resolvePrefix( destinationDirectory );
+        if ( listingCacheTtl > 0 )
+        {
+            List<String> cached = LISTING_CACHE.get( store, prefix, listingCacheTtl );
+            METRICS.cacheLookup( TransferMetrics.LISTING_CACHE, cached != null );
+            if ( cached != null )
+            {
+                return new ArrayList<String>( cached );
+            }
+        }
+
+        ListObjectsV2Request req = ListObjectsV2Request.builder().bucket( bucket ).prefix( prefix ).delimiter( "/" )
+            .maxKeys( LIST_PAGE_SIZE ).build();
+        List<String> list = new ArrayList<String>();
+        try
+        {
+            for ( ListObjectsV2Response page : s3Client.get().listObjectsV2Paginator( req ) )
+            {
+                for ( S3Object content : page.contents() )
+                {
+                    String name = content.key().substring( prefix.length() );
+                    // a zero length "folder" object has the prefix itself as key
+                    if ( !name.isEmpty() )
+                    {
+                        list.add( name );
+                    }
+                }
+                for ( CommonPrefix commonPrefix : page.commonPrefixes() )
+                {
+                    list.add( commonPrefix.prefix().substring( prefix.length() ) );
+                }
+            }
+        }
+        catch ( S3Exception e )
+        {
+            if ( e.statusCode() == HTTP_FORBIDDEN )
+            {
+                throw new AuthorizationException( "Access denied to " + destinationDirectory, e );
+            }
+            throw new TransferFailedException( "Unable to list " + destinationDirectory, e );
+        }
+        catch ( SdkException e )
+        {
+            throw new TransferFailedException( "Unable to list " + destinationDirectory, e );
+        }
+
+        if ( list.isEmpty() )
+        {
+            throw new ResourceDoesNotExistException( "Directory does not exist: " + destinationDirectory );
+        }
+        if ( listingCacheTtl > 0 )
+        {
+            LISTING_CACHE.put( store, prefix, Collections.unmodifiableList( new ArrayList<String>( list ) ) );
+        }
+        return list;
+    }
+
+    @Override
+    public boolean supportsDirectoryCopy()
+    {
+        return true;
+    }
+
+    @Override
+    public void connect( Repository repository )
+        throws ConnectionException, AuthenticationException
+    {
+        connect( repository, null, (ProxyInfoProvider) null );
+    }
+
+    @Override
+    public void connect( Repository repository, ProxyInfo proxyInfo )
+        throws ConnectionException, AuthenticationException
+    {
+        connect( repository, null, proxyInfo );
+    }
+
+    @Override
+    public void connect( Repository repository, ProxyInfoProvider proxyInfoProvider )
+        throws ConnectionException, AuthenticationException
+    {
+        connect( repository, null, proxyInfoProvider );
+    }
+
+    @Override
+    public void connect( Repository repository, AuthenticationInfo authenticationInfo )
+        throws ConnectionException, AuthenticationException
+    {
+        connect( repository, authenticationInfo, (ProxyInfoProvider) null );
+    }
+
+    @Override
+    public void connect( Repository repository, AuthenticationInfo authenticationInfo, ProxyInfo proxyInfo )
+        throws ConnectionException, AuthenticationException
+    {
+        final ProxyInfo proxy = proxyInfo;
+        connect( repository, authenticationInfo, new ProxyInfoProvider()
+        {
+            public ProxyInfo getProxyInfo( String protocol )
+            {
+                if ( protocol == null || proxy == null || protocol.equalsIgnoreCase( proxy.getType() ) )
+                {
+                    return proxy;
+                }
+                else
+                {
+                    return null;
+                }
+            }
+        } );
+    }
+
+    @Override
+    public void connect( Repository repository, AuthenticationInfo authenticationInfo,
+                         ProxyInfoProvider proxyInfoProvider )
+        throws ConnectionException, AuthenticationException
+    {
+        if ( repository == null )
+        {
+            throw new NullPointerException( "repository cannot be null" );
+        }
+
+        if ( permissionsOverride != null )
+        {
+            repository.setPermissions( permissionsOverride );
+        }
+
+        this.repository = repository;
+
+        if ( authenticationInfo == null )
+        {
+            authenticationInfo = new AuthenticationInfo();
+        }
+
+        if ( authenticationInfo.getUserName() == null )
+        {
+            // Get user/pass that were encoded in the URL.
+            if ( repository.getUsername() != null )
+            {
+                authenticationInfo.setUserName( repository.getUsername() );
+                if ( repository.getPassword() != null && authenticationInfo.getPassword() == null )
+                {
+                    authenticationInfo.setPassword( repository.getPassword() );
+                }
+            }
+        }
+
+        this.authenticationInfo = authenticationInfo;
+
+        this.proxyInfoProvider = proxyInfoProvider;
+
+        fireSessionOpening();
+
+        openConnection();
+
+        fireSessionOpened();
+    }
+
+    /**
+     * Obtains the {@link S3Client} from the JVM wide {@link S3ClientRegistry}, so wagons connecting with the same
+     * region, credentials and endpoint share one client and its warm connections.
+     */
+    @Override
+    public void openConnection()
+        throws ConnectionException, AuthenticationException
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            openConnectionInternal();
+            failed = false;
+        }
+        finally
+        {
+            METRICS.record( TransferMetrics.OPEN_CONNECTION, start, 0, failed );
+        }
+        sessionMetrics = METRICS.snapshot();
+        if ( !metricsPublished )
+        {
+            TransferMetrics.connected();
+            metricsPublished = true;
+        }
+    }
+
+    private void openConnectionInternal()
+        throws ConnectionException, AuthenticationException
+    {
+        closeConnection();
+        String accessKeyId = null;
+        String secretAccessKey = null;
+        if ( authenticationInfo.getUserName() != null && !"".equals( authenticationInfo.getUserName() ) )
+        {
+            accessKeyId = authenticationInfo.getUserName();
+            secretAccessKey = authenticationInfo.getPassword();
+        }
+        S3ClientConfiguration configuration;
+        HttpClientSettings http;
+        try
+        {
+            http = new HttpClientSettings( httpClient, maxConnections, connectionTtl, tcpKeepAlive, connectionTimeout,
+                                           readTimeout, apiCallTimeout, apiCallAttemptTimeout, maxRetries,
+                                           adaptiveRetries );
+            configuration = new S3ClientConfiguration( this.region, accessKeyId, secretAccessKey, this.endpoint,
+                                                       pathStyleAccess, http );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new ConnectionException( e.getMessage(), e );
+        }
+        // the clients are built by their first request, a misconfiguration is reported by it
+        s3Client = S3ClientRegistry.getInstance().acquire( configuration );
+        if ( TRANSFER_ENGINE_ASYNC.equalsIgnoreCase( transferEngine ) )
+        {
+            s3AsyncClient = S3ClientRegistry.getInstance().acquireAsync( configuration );
+        }
+        clientConfiguration = configuration;
+        router = new MirrorRouter( Collections.singletonList(
+            new MirrorRouter.Mirror( getRepository().getHost(), region, endpoint, configuration, s3Client,
+                                     s3AsyncClient, true ) ) );
+        List<MirrorRouter.Mirror> copies = new ArrayList<>( router.getMirrors() );
+        try
+        {
+            for ( String[] mirror : MirrorRouter.parse( mirrors ) )
+            {
+                copies.add( openMirror( mirror[0], mirror[1] == null ? region : mirror[1], mirror[2], accessKeyId,
+                                        secretAccessKey, http ) );
+            }
+        }
+        catch ( IllegalArgumentException e )
+        {
+            releaseMirrors( copies );
+            throw new ConnectionException( "Unable to connect to the mirrors " + mirrors + ": " + e.getMessage(), e );
+        }
+        router = new MirrorRouter( copies );
+        if ( configuration.usesDefaultCredentials() )
+        {
+            ConnectionWarmer.resolveDefaultCredentials();
+        }
+        for ( MirrorRouter.Mirror mirror : copies )
+        {
+            ConnectionWarmer.warm( mirror.getConfiguration(), mirror.getClient(), mirror.getBucket(),
+                                   prewarmConnections );
+        }
+    }
+
+    /**
+     * Acquires the clients of a mirror, which differ from the ones of the repository only in their region and
+     * endpoint.
+     */
+    private MirrorRouter.Mirror openMirror( String bucket, String mirrorRegion, String mirrorEndpoint,
+                                            String accessKeyId, String secretAccessKey, HttpClientSettings http )
+    {
+        S3ClientConfiguration configuration =
+            new S3ClientConfiguration( mirrorRegion, accessKeyId, secretAccessKey, mirrorEndpoint, pathStyleAccess,
+                                       http );
+        Supplier<S3Client> client = S3ClientRegistry.getInstance().acquire( configuration );
+        Supplier<S3AsyncClient> asyncClient = null;
+        if ( TRANSFER_ENGINE_ASYNC.equalsIgnoreCase( transferEngine ) )
+        {
+            asyncClient = S3ClientRegistry.getInstance().acquireAsync( configuration );
+        }
+        return new MirrorRouter.Mirror( bucket, mirrorRegion, mirrorEndpoint, configuration, client, asyncClient,
+                                        false );
+    }
+
+    /**
+     * Releases the clients of the mirrors in {@code copies}, the ones of the repository being released on their own.
+     */
+    private void releaseMirrors( List<MirrorRouter.Mirror> copies )
+    {
+        for ( MirrorRouter.Mirror mirror : copies )
+        {
+            if ( mirror.isPrimary() )
+            {
+                continue;
+            }
+            if ( mirror.getAsyncClient() != null )
+            {
+                S3ClientRegistry.getInstance().releaseAsync( mirror.getConfiguration(), clientIdleTimeout );
+            }
+            S3ClientRegistry.getInstance().release( mirror.getConfiguration(), clientIdleTimeout );
+        }
+    }
+
+    @Override
+    public void disconnect()
+        throws ConnectionException
+    {
+        fireSessionDisconnecting();
+
+        try
+        {
+            closeConnection();
+        }
+        catch ( ConnectionException e )
+        {
+            fireSessionError( e );
+            throw e;
+        }
+        finally
+        {
+            reportMetrics();
+            if ( metricsPublished )
+            {
+                metricsPublished = false;
+                TransferMetrics.disconnected();
+            }
+        }
+
+        fireSessionDisconnected();
+    }
+
+    /**
+     * Logs a summary of what the JVM did since the connection was opened and writes the metrics file.
+     */
+    private void reportMetrics()
+    {
+        TransferMetrics.Snapshot now = METRICS.snapshot();
+        if ( sessionMetrics != null )
+        {
+            TransferMetrics.Snapshot session = now.since( sessionMetrics );
+            sessionMetrics = null;
+            if ( !session.isEmpty() )
+            {
+                LOGGER.info( session.getSummary() );
+            }
+        }
+        if ( metricsFile != null && !metricsFile.isEmpty() )
+        {
+            try
+            {
+                now.dump( Paths.get( metricsFile ) );
+            }
+            catch ( IOException | InvalidPathException e )
+            {
+                fireSessionDebug( "Unable to write the metrics to " + metricsFile + ": " + e );
+            }
+        }
+    }
+
+    /**
+     * Waits for the puts still running in the background before releasing the clients.
+     *
+     * @throws ConnectionException if any of them failed
+     */
+    protected void closeConnection()
+        throws ConnectionException
+    {
+        WriteBehindQueue queue;
+        synchronized ( this )
+        {
+            queue = writeBehindQueue;
+            writeBehindQueue = null;
+        }
+        TransferFailedException failure = null;
+        if ( queue != null )
+        {
+            try
+            {
+                drain( queue );
+            }
+            catch ( TransferFailedException e )
+            {
+                failure = e;
+            }
+            finally
+            {
+                queue.close();
+            }
+        }
+        if ( router != null )
+        {
+            releaseMirrors( router.getMirrors() );
+            router = null;
+        }
+        if ( s3AsyncClient != null )
+        {
+            s3AsyncClient = null;
+            S3ClientRegistry.getInstance().releaseAsync( clientConfiguration, clientIdleTimeout );
+        }
+        if ( s3Client != null )
+        {
+            s3Client = null;
+            S3ClientRegistry.getInstance().release( clientConfiguration, clientIdleTimeout );
+            clientConfiguration = null;
+        }
+        if ( failure != null )
+        {
+            throw new ConnectionException( failure.getMessage(), failure );
+        }
+    };
+
+    //
+    // transferEventSupport related methods
+    //
+
+    @Override
+    public boolean hasTransferListener( TransferListener listener )
+    {
+        return transferEventSupport.hasTransferListener( listener );
+    }
+
+    @Override
+    public void addTransferListener( TransferListener listener )
+    {
+        transferEventSupport.addTransferListener( listener );
+    }
+
+    @Override
+    public void removeTransferListener( TransferListener listener )
+    {
+        transferEventSupport.removeTransferListener( listener );
+    }
+
+    protected void fireTransferProgress( TransferEvent transferEvent, byte[] buffer, int n )
+    {
+        transferEventSupport.fireTransferProgress( transferEvent, buffer, n );
+    }
+
+    protected void fireTransferError( Resource resource, Exception e, int requestType )
+    {
+        TransferEvent transferEvent = new TransferEvent( this, resource, e, requestType );
+        transferEvent.setTimestamp( System.currentTimeMillis() );
+        transferEventSupport.fireTransferError( transferEvent );
+    }
+
+    protected void fireGetCompleted( Resource resource, File localFile )
+    {
+        long timestamp = System.currentTimeMillis();
+        TransferEvent transferEvent =
+            new TransferEvent( this, resource, TransferEvent.TRANSFER_COMPLETED, TransferEvent.REQUEST_GET );
+        transferEvent.setTimestamp( timestamp );
+        transferEvent.setLocalFile( localFile );
+        transferEventSupport.fireTransferCompleted( transferEvent );
+    }
+
+    protected void fireGetStarted( Resource resource, File localFile )
+    {
+        long timestamp = System.currentTimeMillis();
+        TransferEvent transferEvent =
+            new TransferEvent( this, resource, TransferEvent.TRANSFER_STARTED, TransferEvent.REQUEST_GET );
+        transferEvent.setTimestamp( timestamp );
+        transferEvent.setLocalFile( localFile );
+        transferEventSupport.fireTransferStarted( transferEvent );
+    }
+
+    protected void fireGetInitiated( Resource resource, File localFile )
+    {
+        long timestamp = System.currentTimeMillis();
+        TransferEvent transferEvent =
+            new TransferEvent( this, resource, TransferEvent.TRANSFER_INITIATED, TransferEvent.REQUEST_GET );
+        transferEvent.setTimestamp( timestamp );
+        transferEvent.setLocalFile( localFile );
+        transferEventSupport.fireTransferInitiated( transferEvent );
+    }
+
+    protected void firePutInitiated( Resource resource, File localFile )
+    {
+        long timestamp = System.currentTimeMillis();
+        TransferEvent transferEvent =
+            new TransferEvent( this, resource, TransferEvent.TRANSFER_INITIATED, TransferEvent.REQUEST_PUT );
+        transferEvent.setTimestamp( timestamp );
+        transferEvent.setLocalFile( localFile );
+        transferEventSupport.fireTransferInitiated( transferEvent );
+    }
+
+    protected void firePutCompleted( Resource resource, File localFile )
+    {
+        long timestamp = System.currentTimeMillis();
+        TransferEvent transferEvent =
+            new TransferEvent( this, resource, TransferEvent.TRANSFER_COMPLETED, TransferEvent.REQUEST_PUT );
+        transferEvent.setTimestamp( timestamp );
+        transferEvent.setLocalFile( localFile );
+        transferEventSupport.fireTransferCompleted( transferEvent );
+    }
+
+    protected void firePutStarted( Resource resource, File localFile )
+    {
+        long timestamp = System.currentTimeMillis();
+        TransferEvent transferEvent =
+            new TransferEvent( this, resource, TransferEvent.TRANSFER_STARTED, TransferEvent.REQUEST_PUT );
+        transferEvent.setTimestamp( timestamp );
+        transferEvent.setLocalFile( localFile );
+        transferEventSupport.fireTransferStarted( transferEvent );
+    }
+
+    //
+    // sessionEventSupport related methods
+    //
+    @Override
+    public void addSessionListener( SessionListener listener )
+    {
+        sessionEventSupport.addSessionListener( listener );
+    }
+
+    @Override
+    public boolean hasSessionListener( SessionListener listener )
+    {
+        return sessionEventSupport.hasSessionListener( listener );
+    }
+
+    @Override
+    public void removeSessionListener( SessionListener listener )
+    {
+        sessionEventSupport.removeSessionListener( listener );
+    }
+
+    protected void fireSessionDisconnected()
+    {
+        long timestamp = System.currentTimeMillis();
+        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_DISCONNECTED );
+        sessionEvent.setTimestamp( timestamp );
+        sessionEventSupport.fireSessionDisconnected( sessionEvent );
+    }
+
+    protected void fireSessionDisconnecting()
+    {
+        long timestamp = System.currentTimeMillis();
+        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_DISCONNECTING );
+        sessionEvent.setTimestamp( timestamp );
+        sessionEventSupport.fireSessionDisconnecting( sessionEvent );
+    }
+
+    protected void fireSessionLoggedIn()
+    {
+        long timestamp = System.currentTimeMillis();
+        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_LOGGED_IN );
+        sessionEvent.setTimestamp( timestamp );
+        sessionEventSupport.fireSessionLoggedIn( sessionEvent );
+    }
+
+    protected void fireSessionLoggedOff()
+    {
+        long timestamp = System.currentTimeMillis();
+        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_LOGGED_OFF );
+        sessionEvent.setTimestamp( timestamp );
+        sessionEventSupport.fireSessionLoggedOff( sessionEvent );
+    }
+
+    protected void fireSessionOpened()
+    {
+        long timestamp = System.currentTimeMillis();
+        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_OPENED );
+        sessionEvent.setTimestamp( timestamp );
+        sessionEventSupport.fireSessionOpened( sessionEvent );
+    }
+
+    protected void fireSessionOpening()
+    {
+        long timestamp = System.currentTimeMillis();
+        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_OPENING );
+        sessionEvent.setTimestamp( timestamp );
+        sessionEventSupport.fireSessionOpening( sessionEvent );
+    }
+
+    protected void fireSessionConnectionRefused()
+    {
+        long timestamp = System.currentTimeMillis();
+        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_CONNECTION_REFUSED );
+        sessionEvent.setTimestamp( timestamp );
+        sessionEventSupport.fireSessionConnectionRefused( sessionEvent );
+    }
+
+    protected void fireSessionError( Exception exception )
+    {
+        long timestamp = System.currentTimeMillis();
+        SessionEvent sessionEvent = new SessionEvent( this, exception );
+        sessionEvent.setTimestamp( timestamp );
+        sessionEventSupport.fireSessionError( sessionEvent );
+    }
+
+    protected void fireTransferDebug( String message )
+    {
+        transferEventSupport.fireDebug( message );
+    }
 
-    /**
-     * The desired minimum amount of chunks in which a {@link Resource} shall be
-     * {@link #transfer(Resource, InputStream, OutputStream, int, long) transferred}. This corresponds to the minimum
-     * times {@link #fireTransferProgress(TransferEvent, byte[], int)} is executed. 100 notifications is a conservative
-     * value that will lead to small chunks for any artifact less that {@link #BUFFER_SEGMENT_SIZE} *
-     * {@link #MINIMUM_AMOUNT_OF_TRANSFER_CHUNKS} in size.
-     */
-    protected static final int MINIMUM_AMOUNT_OF_TRANSFER_CHUNKS = 100;
+    protected void fireSessionDebug( String message )
+    {
+        sessionEventSupport.fireDebug( message );
+    }
 
-    protected Repository repository;
+    //
+    // Getters and Setters
+    //
 
-    protected SessionEventSupport sessionEventSupport = new SessionEventSupport();
+    @Override
+    public Repository getRepository()
+    {
+        return repository;
+    }
 
-    protected TransferEventSupport transferEventSupport = new TransferEventSupport();
+    @Override
+    public void setTimeout( int timeoutValue )
+    {
+        connectionTimeout = timeoutValue;
+    }
 
-    protected AuthenticationInfo authenticationInfo;
+    @Override
+    public int getTimeout()
+    {
+        return connectionTimeout;
+    }
 
-    protected boolean interactive = true;
+    @Override
+    public void setReadTimeout( int readTimeout )
+    {
+        this.readTimeout = readTimeout;
+    }
 
-    private int connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+    @Override
+    public int getReadTimeout()
+    {
+        return this.readTimeout;
+    }
 
-    private String region = null;
+    @Override
+    public boolean isInteractive()
+    {
+        return interactive;
+    }
 
-    private S3Client s3Client = null;
+    @Override
+    public void setInteractive( boolean interactive )
+    {
+        this.interactive = interactive;
+    }
 
-    /**
-     * read timeout value
-     *
-     * @since 2.2
-     */
-    private int readTimeout =
-        Integer.parseInt( System.getProperty( "maven.wagon.rto", Integer.toString( Wagon.DEFAULT_READ_TIMEOUT ) ) );
+    // TODO: Evaluar si debe permanecer
+    public RepositoryPermissions getPermissionsOverride()
+    {
+        return permissionsOverride;
+    }
 
-    private ProxyInfoProvider proxyInfoProvider;
+    public void setPermissionsOverride( RepositoryPermissions permissionsOverride )
+    {
+        this.permissionsOverride = permissionsOverride;
+    }
 
-    private RepositoryPermissions permissionsOverride;
+    public ProxyInfo getProxyInfo()
+    {
+        return proxyInfoProvider != null ? proxyInfoProvider.getProxyInfo( null ) : null;
+    }
 
-    @Override
-    public void get( String resourceName, File destination )
-        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    public AuthenticationInfo getAuthenticationInfo()
     {
-        checkBaseDir();
-        String baseDir = getRepository().getBasedir().replaceAll( "/", "" );
-        String bucket = getRepository().getHost();
-        String key = baseDir + "/" + resourceName;
-        Resource resource = new Resource( resourceName );
-        fireGetInitiated( resource, destination );
+        return authenticationInfo;
+    }
 
-        File tmp = new File( destination.getAbsolutePath() + ".tmp" );
-        try
-        {
-            GetObjectRequest req = GetObjectRequest.builder().bucket( bucket ).key( key ).build();
-            fireGetStarted( resource, destination );
-            GetObjectResponse res = s3Client.getObject( req, ResponseTransformer.toFile( tmp.toPath() ) );
-            if ( destination.exists() )
-            {
-                destination.delete();
-            }
-            Files.move( tmp.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING );
-        }
-        catch ( NoSuchKeyException e )
-        {
-            throw new ResourceDoesNotExistException( resourceName + " does not exists.", e );
-        }
-        catch ( Exception e )
-        {
-            e.printStackTrace();
-            throw new TransferFailedException( "Unexpected Exception ", e );
-        }
-        finally
-        {
-            fireGetCompleted( resource, destination );
-        }
-        if ( tmp != null )
-        {
-            tmp.delete();
-        }
+    public String getRegion()
+    {
+        return region;
     }
 
-    @Override
-    public boolean getIfNewer( String resourceName, File destination, long timestamp )
-        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    public void setRegion( String region )
     {
-        return false;
+        this.region = region;
     }
 
-    @Override
-    public void put( File source, String destination )
-        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    public String getEndpoint()
     {
-        fireTransferDebug( "Put started to destination " + destination + " of file " + source.getAbsolutePath() );
-        checkBaseDir();
-        Resource resource = new Resource( destination );
+        return endpoint;
+    }
 
-        firePutInitiated( resource, source );
-        resource.setContentLength( source.length() );
-        resource.setLastModified( source.lastModified() );
+    public void setEndpoint( String endpoint )
+    {
+        this.endpoint = endpoint;
+    }
 
-        String baseDir = getRepository().getBasedir().replaceAll( "/", "" );
-        String bucket = getRepository().getHost();
-        String key = baseDir + "/" + destination;
-        try
-        {
-            firePutStarted( resource, source );
-            PutObjectRequest req = PutObjectRequest.builder().bucket( bucket ).key( key ).build();
-            RequestBody body = RequestBody.fromFile( source );
-            s3Client.putObject( req, body );
-            firePutProgress( source, resource );
-        }
-        finally
-        {
-            firePutCompleted( resource, source );
-        }
+    public boolean isPathStyleAccess()
+    {
+        return pathStyleAccess;
+    }
 
+    public void setPathStyleAccess( boolean pathStyleAccess )
+    {
+        this.pathStyleAccess = pathStyleAccess;
     }
 
-    private void firePutProgress( File source, Resource resource )
-        throws TransferFailedException
+    public String getMirrors()
     {
-//        TransferEvent te = new TransferEvent( this, resource, null, TransferEvent.REQUEST_PUT );
-//        byte[] buf = new byte[8192];
-//        int i = 0;
-//        byte b = -1;
-//        try ( BufferedInputStream bis = new BufferedInputStream( new FileInputStream( source ) ) )
-//        {
-//            while ( ( b = (byte) bis.read() ) != -1 )
-//            {
-//                buf[i] = b;
-//                i++;
-//                if ( i > buf.length )
-//                {
-//                    fireTransferProgress( te, buf, buf.length );
-//                    i = 0;
-//                }
-//            }
-//        }
-//        catch ( IOException e )
-//        {
-//            e.printStackTrace();
-//            throw new TransferFailedException( "Failed to transfer while reading source " + source.getAbsolutePath(),
-//                                               e );
-//        }
-//        finally
-//        {
-//            if ( i > 0 )
-//            {
-//                fireTransferProgress( te, buf, i );
-//                i = 0;
-//            }
-//            buf = null;
-//        }
+        return mirrors;
     }
 
-    @Override
-    public void putDirectory( File sourceDirectory, String destDir )
-        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    public void setMirrors( String mirrors )
     {
-        throw new UnsupportedOperationException( "The wagon you are using has not implemented putDirectory()" );
+        this.mirrors = mirrors;
     }
 
-    @Override
-    public boolean resourceExists( String resourceName )
-        throws TransferFailedException, AuthorizationException
+    public long getClientIdleTimeout()
     {
-        throw new UnsupportedOperationException( "The wagon you are using has not implemented resourceExists()" );
+        return clientIdleTimeout;
     }
 
-    @Override
-    public List<String> getFileList( String destinationDirectory )
-        throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException
+    public void setClientIdleTimeout( long clientIdleTimeout )
     {
-        if ( getRepository().getBasedir() == null )
-        {
-            throw new TransferFailedException( "Unable to getFileList() with a null basedir." );
-        }
+        this.clientIdleTimeout = clientIdleTimeout;
+    }
 
-        File path = resolveDestinationPath( destinationDirectory );
+    public int getPrewarmConnections()
+    {
+        return prewarmConnections;
+    }
 
-        if ( !path.exists() )
-        {
-            throw new ResourceDoesNotExistException( "Directory does not exist: " + destinationDirectory );
-        }
+    public void setPrewarmConnections( int prewarmConnections )
+    {
+        this.prewarmConnections = prewarmConnections;
+    }
 
-        if ( !path.isDirectory() )
-        {
-            throw new ResourceDoesNotExistException( "Path is not a directory: " + destinationDirectory );
-        }
+    public String getHttpClient()
+    {
+        return httpClient;
+    }
 
-        File[] files = path.listFiles();
+    public void setHttpClient( String httpClient )
+    {
+        this.httpClient = httpClient;
+    }
 
-        List<String> list = new ArrayList<String>( files.length );
-        for ( File file : files )
-        {
-            String name = file.getName();
-            if ( file.isDirectory() && !name.endsWith( "/" ) )
-            {
-                name += "/";
-            }
-            list.add( name );
-        }
-        return list;
+    public int getMaxConnections()
+    {
+        return maxConnections;
     }
 
-    @Override
-    public boolean supportsDirectoryCopy()
+    public void setMaxConnections( int maxConnections )
     {
-        return false;
+        this.maxConnections = maxConnections;
     }
 
-    @Override
-    public void connect( Repository repository )
-        throws ConnectionException, AuthenticationException
+    public long getConnectionTtl()
     {
-        connect( repository, null, (ProxyInfoProvider) null );
+        return connectionTtl;
     }
 
-    @Override
-    public void connect( Repository repository, ProxyInfo proxyInfo )
-        throws ConnectionException, AuthenticationException
+    public void setConnectionTtl( long connectionTtl )
     {
-        connect( repository, null, proxyInfo );
+        this.connectionTtl = connectionTtl;
     }
 
-    @Override
-    public void connect( Repository repository, ProxyInfoProvider proxyInfoProvider )
-        throws ConnectionException, AuthenticationException
+    public boolean isTcpKeepAlive()
     {
-        connect( repository, null, proxyInfoProvider );
+        return tcpKeepAlive;
     }
 
-    @Override
-    public void connect( Repository repository, AuthenticationInfo authenticationInfo )
-        throws ConnectionException, AuthenticationException
+    public void setTcpKeepAlive( boolean tcpKeepAlive )
     {
-        connect( repository, authenticationInfo, (ProxyInfoProvider) null );
+        this.tcpKeepAlive = tcpKeepAlive;
     }
 
-    @Override
-    public void connect( Repository repository, AuthenticationInfo authenticationInfo, ProxyInfo proxyInfo )
-        throws ConnectionException, AuthenticationException
+    public long getApiCallTimeout()
     {
-        final ProxyInfo proxy = proxyInfo;
-        connect( repository, authenticationInfo, new ProxyInfoProvider()
-        {
-            public ProxyInfo getProxyInfo( String protocol )
-            {
-                if ( protocol == null || proxy == null || protocol.equalsIgnoreCase( proxy.getType() ) )
-                {
-                    return proxy;
-                }
-                else
-                {
-                    return null;
-                }
-            }
-        } );
+        return apiCallTimeout;
     }
 
-    @Override
-    public void connect( Repository repository, AuthenticationInfo authenticationInfo,
-                         ProxyInfoProvider proxyInfoProvider )
-        throws ConnectionException, AuthenticationException
+    public void setApiCallTimeout( long apiCallTimeout )
     {
-        if ( repository == null )
-        {
-            throw new NullPointerException( "repository cannot be null" );
-        }
+        this.apiCallTimeout = apiCallTimeout;
+    }
 
-        if ( permissionsOverride != null )
-        {
-            repository.setPermissions( permissionsOverride );
-        }
+    public long getApiCallAttemptTimeout()
+    {
+        return apiCallAttemptTimeout;
+    }
 
-        this.repository = repository;
+    public void setApiCallAttemptTimeout( long apiCallAttemptTimeout )
+    {
+        this.apiCallAttemptTimeout = apiCallAttemptTimeout;
+    }
 
-        if ( authenticationInfo == null )
-        {
-            authenticationInfo = new AuthenticationInfo();
-        }
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    public void setMaxRetries( int maxRetries )
+    {
+        this.maxRetries = maxRetries;
+    }
+
+    public boolean isAdaptiveRetries()
+    {
+        return adaptiveRetries;
+    }
+
+    public void setAdaptiveRetries( boolean adaptiveRetries )
+    {
+        this.adaptiveRetries = adaptiveRetries;
+    }
 
-        if ( authenticationInfo.getUserName() == null )
-        {
-            // Get user/pass that were encoded in the URL.
-            if ( repository.getUsername() != null )
-            {
-                authenticationInfo.setUserName( repository.getUsername() );
-                if ( repository.getPassword() != null && authenticationInfo.getPassword() == null )
-                {
-                    authenticationInfo.setPassword( repository.getPassword() );
-                }
-            }
-        }
+    public String getTransferEngine()
+    {
+        return transferEngine;
+    }
 
-        this.authenticationInfo = authenticationInfo;
+    public void setTransferEngine( String transferEngine )
+    {
+        this.transferEngine = transferEngine;
+    }
 
-        this.proxyInfoProvider = proxyInfoProvider;
+    public long getMultipartThreshold()
+    {
+        return multipartThreshold;
+    }
 
-        fireSessionOpening();
+    public void setMultipartThreshold( long multipartThreshold )
+    {
+        this.multipartThreshold = multipartThreshold;
+    }
 
-        openConnection();
+    public long getMultipartPartSize()
+    {
+        return multipartPartSize;
+    }
 
-        fireSessionOpened();
+    public void setMultipartPartSize( long multipartPartSize )
+    {
+        this.multipartPartSize = multipartPartSize;
     }
 
-    @Override
-    public void openConnection()
-        throws ConnectionException, AuthenticationException
+    public int getMultipartConcurrency()
     {
-        AwsCredentialsProvider credentialsProvider = null;
-        AwsSessionCredentials awsCredentials = null;
-        if ( s3Client != null )
-        {
-            s3Client.close();
-            s3Client = null;
-        }
-        if ( authenticationInfo.getUserName() != null && !"".equals( authenticationInfo.getUserName() ) )
-        {
-            awsCredentials =
-                AwsSessionCredentials.create( authenticationInfo.getUserName(), authenticationInfo.getPassword(), "" );
-        }
-        if ( awsCredentials != null )
-        {
-            // if given by authenticationInfo, use credentials from it
-            credentialsProvider = StaticCredentialsProvider.create( awsCredentials );
-        }
-        else
-        {
-            // otherwise uses DefaultCredentialsProvider
-            credentialsProvider = DefaultCredentialsProvider.create();
-        }
-        S3ClientBuilder builder = S3Client.builder().credentialsProvider( credentialsProvider );
-        if ( this.region == null )
-        {
-            builder.region( Region.of( this.region.toLowerCase() ) );
-        }
-        s3Client = builder.build();
+        return multipartConcurrency;
     }
 
-    @Override
-    public void disconnect()
-        throws ConnectionException
+    public void setMultipartConcurrency( int multipartConcurrency )
     {
-        fireSessionDisconnecting();
+        this.multipartConcurrency = multipartConcurrency;
+    }
 
-        try
-        {
-            closeConnection();
-        }
-        catch ( ConnectionException e )
-        {
-            fireSessionError( e );
-            throw e;
-        }
+    public long getRangedGetPartSize()
+    {
+        return rangedGetPartSize;
+    }
 
-        fireSessionDisconnected();
+    public void setRangedGetPartSize( long rangedGetPartSize )
+    {
+        this.rangedGetPartSize = rangedGetPartSize;
     }
 
-    protected void closeConnection()
-        throws ConnectionException
+    public int getRangedGetConcurrency()
     {
-        if ( s3Client != null )
-        {
-            s3Client.close();
-            s3Client = null;
-        }
-    };
+        return rangedGetConcurrency;
+    }
 
-    //
-    // transferEventSupport related methods
-    //
+    public void setRangedGetConcurrency( int rangedGetConcurrency )
+    {
+        this.rangedGetConcurrency = rangedGetConcurrency;
+    }
 
-    @Override
-    public boolean hasTransferListener( TransferListener listener )
+    public int getSmallObjectThreshold()
     {
-        return transferEventSupport.hasTransferListener( listener );
+        return smallObjectThreshold;
     }
 
-    @Override
-    public void addTransferListener( TransferListener listener )
+    public void setSmallObjectThreshold( int smallObjectThreshold )
     {
-        transferEventSupport.addTransferListener( listener );
+        this.smallObjectThreshold = smallObjectThreshold;
     }
 
-    @Override
-    public void removeTransferListener( TransferListener listener )
+    public boolean isHedgedGets()
     {
-        transferEventSupport.removeTransferListener( listener );
+        return hedgedGets;
     }
 
-    protected void fireTransferProgress( TransferEvent transferEvent, byte[] buffer, int n )
+    public void setHedgedGets( boolean hedgedGets )
     {
-        transferEventSupport.fireTransferProgress( transferEvent, buffer, n );
+        this.hedgedGets = hedgedGets;
     }
 
-    protected void fireGetCompleted( Resource resource, File localFile )
+    public boolean isResumableDownloads()
     {
-        long timestamp = System.currentTimeMillis();
-        TransferEvent transferEvent =
-            new TransferEvent( this, resource, TransferEvent.TRANSFER_COMPLETED, TransferEvent.REQUEST_GET );
-        transferEvent.setTimestamp( timestamp );
-        transferEvent.setLocalFile( localFile );
-        transferEventSupport.fireTransferCompleted( transferEvent );
+        return resumableDownloads;
     }
 
-    protected void fireGetStarted( Resource resource, File localFile )
+    public void setResumableDownloads( boolean resumableDownloads )
     {
-        long timestamp = System.currentTimeMillis();
-        TransferEvent transferEvent =
-            new TransferEvent( this, resource, TransferEvent.TRANSFER_STARTED, TransferEvent.REQUEST_GET );
-        transferEvent.setTimestamp( timestamp );
-        transferEvent.setLocalFile( localFile );
-        transferEventSupport.fireTransferStarted( transferEvent );
+        this.resumableDownloads = resumableDownloads;
     }
 
-    protected void fireGetInitiated( Resource resource, File localFile )
+    public int getDirectoryUploadConcurrency()
     {
-        long timestamp = System.currentTimeMillis();
-        TransferEvent transferEvent =
-            new TransferEvent( this, resource, TransferEvent.TRANSFER_INITIATED, TransferEvent.REQUEST_GET );
-        transferEvent.setTimestamp( timestamp );
-        transferEvent.setLocalFile( localFile );
-        transferEventSupport.fireTransferInitiated( transferEvent );
+        return directoryUploadConcurrency;
     }
 
-    protected void firePutInitiated( Resource resource, File localFile )
+    public void setDirectoryUploadConcurrency( int directoryUploadConcurrency )
     {
-        long timestamp = System.currentTimeMillis();
-        TransferEvent transferEvent =
-            new TransferEvent( this, resource, TransferEvent.TRANSFER_INITIATED, TransferEvent.REQUEST_PUT );
-        transferEvent.setTimestamp( timestamp );
-        transferEvent.setLocalFile( localFile );
-        transferEventSupport.fireTransferInitiated( transferEvent );
+        this.directoryUploadConcurrency = directoryUploadConcurrency;
     }
 
-    protected void firePutCompleted( Resource resource, File localFile )
+    public boolean isWriteBehind()
     {
-        long timestamp = System.currentTimeMillis();
-        TransferEvent transferEvent =
-            new TransferEvent( this, resource, TransferEvent.TRANSFER_COMPLETED, TransferEvent.REQUEST_PUT );
-        transferEvent.setTimestamp( timestamp );
-        transferEvent.setLocalFile( localFile );
-        transferEventSupport.fireTransferCompleted( transferEvent );
+        return writeBehind;
     }
 
-    protected void firePutStarted( Resource resource, File localFile )
+    public void setWriteBehind( boolean writeBehind )
     {
-        long timestamp = System.currentTimeMillis();
-        TransferEvent transferEvent =
-            new TransferEvent( this, resource, TransferEvent.TRANSFER_STARTED, TransferEvent.REQUEST_PUT );
-        transferEvent.setTimestamp( timestamp );
-        transferEvent.setLocalFile( localFile );
-        transferEventSupport.fireTransferStarted( transferEvent );
+        this.writeBehind = writeBehind;
     }
 
-    //
-    // sessionEventSupport related methods
-    //
-    @Override
-    public void addSessionListener( SessionListener listener )
+    public int getWriteBehindQueueSize()
     {
-        sessionEventSupport.addSessionListener( listener );
+        return writeBehindQueueSize;
     }
 
-    @Override
-    public boolean hasSessionListener( SessionListener listener )
+    public void setWriteBehindQueueSize( int writeBehindQueueSize )
     {
-        return sessionEventSupport.hasSessionListener( listener );
+        this.writeBehindQueueSize = writeBehindQueueSize;
     }
 
-    @Override
-    public void removeSessionListener( SessionListener listener )
+    public String getMetricsFile()
     {
-        sessionEventSupport.removeSessionListener( listener );
+        return metricsFile;
     }
 
-    protected void fireSessionDisconnected()
+    public void setMetricsFile( String metricsFile )
     {
-        long timestamp = System.currentTimeMillis();
-        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_DISCONNECTED );
-        sessionEvent.setTimestamp( timestamp );
-        sessionEventSupport.fireSessionDisconnected( sessionEvent );
+        this.metricsFile = metricsFile;
     }
 
-    protected void fireSessionDisconnecting()
+    public boolean isDirectorySync()
     {
-        long timestamp = System.currentTimeMillis();
-        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_DISCONNECTING );
-        sessionEvent.setTimestamp( timestamp );
-        sessionEventSupport.fireSessionDisconnecting( sessionEvent );
+        return directorySync;
     }
 
-    protected void fireSessionLoggedIn()
+    public void setDirectorySync( boolean directorySync )
     {
-        long timestamp = System.currentTimeMillis();
-        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_LOGGED_IN );
-        sessionEvent.setTimestamp( timestamp );
-        sessionEventSupport.fireSessionLoggedIn( sessionEvent );
+        this.directorySync = directorySync;
     }
 
-    protected void fireSessionLoggedOff()
+    public boolean isDirectorySyncLastModified()
     {
-        long timestamp = System.currentTimeMillis();
-        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_LOGGED_OFF );
-        sessionEvent.setTimestamp( timestamp );
-        sessionEventSupport.fireSessionLoggedOff( sessionEvent );
+        return directorySyncLastModified;
     }
 
-    protected void fireSessionOpened()
+    public void setDirectorySyncLastModified( boolean directorySyncLastModified )
     {
-        long timestamp = System.currentTimeMillis();
-        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_OPENED );
-        sessionEvent.setTimestamp( timestamp );
-        sessionEventSupport.fireSessionOpened( sessionEvent );
+        this.directorySyncLastModified = directorySyncLastModified;
     }
 
-    protected void fireSessionOpening()
+    public boolean isDirectorySyncDelete()
     {
-        long timestamp = System.currentTimeMillis();
-        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_OPENING );
-        sessionEvent.setTimestamp( timestamp );
-        sessionEventSupport.fireSessionOpening( sessionEvent );
+        return directorySyncDelete;
     }
 
-    protected void fireSessionConnectionRefused()
+    public void setDirectorySyncDelete( boolean directorySyncDelete )
     {
-        long timestamp = System.currentTimeMillis();
-        SessionEvent sessionEvent = new SessionEvent( this, SessionEvent.SESSION_CONNECTION_REFUSED );
-        sessionEvent.setTimestamp( timestamp );
-        sessionEventSupport.fireSessionConnectionRefused( sessionEvent );
+        this.directorySyncDelete = directorySyncDelete;
     }
 
-    protected void fireSessionError( Exception exception )
+    public long getExistenceCacheTtl()
     {
-        long timestamp = System.currentTimeMillis();
-        SessionEvent sessionEvent = new SessionEvent( this, exception );
-        sessionEvent.setTimestamp( timestamp );
-        sessionEventSupport.fireSessionError( sessionEvent );
+        return existenceCacheTtl;
     }
 
-    protected void fireTransferDebug( String message )
+    public void setExistenceCacheTtl( long existenceCacheTtl )
     {
-        transferEventSupport.fireDebug( message );
+        this.existenceCacheTtl = existenceCacheTtl;
     }
 
-    protected void fireSessionDebug( String message )
+    public long getListingCacheTtl()
     {
-        sessionEventSupport.fireDebug( message );
+        return listingCacheTtl;
     }
 
-    //
-    // Getters and Setters
-    //
+    public void setListingCacheTtl( long listingCacheTtl )
+    {
+        this.listingCacheTtl = listingCacheTtl;
+    }
 
-    @Override
-    public Repository getRepository()
+    public long getMetadataCacheTtl()
     {
-        return repository;
+        return metadataCacheTtl;
     }
 
-    @Override
-    public void setTimeout( int timeoutValue )
+    public void setMetadataCacheTtl( long metadataCacheTtl )
     {
-        connectionTimeout = timeoutValue;
+        this.metadataCacheTtl = metadataCacheTtl;
     }
 
-    @Override
-    public int getTimeout()
+    public String getContentCacheDirectory()
     {
-        return connectionTimeout;
+        return contentCacheDirectory;
     }
 
-    @Override
-    public void setReadTimeout( int readTimeout )
+    public void setContentCacheDirectory( String contentCacheDirectory )
     {
-        this.readTimeout = readTimeout;
+        this.contentCacheDirectory = contentCacheDirectory;
     }
 
-    @Override
-    public int getReadTimeout()
+    public long getContentCacheMaxSize()
     {
-        return this.readTimeout;
+        return contentCacheMaxSize;
     }
 
-    @Override
-    public boolean isInteractive()
+    public void setContentCacheMaxSize( long contentCacheMaxSize )
     {
-        return interactive;
+        this.contentCacheMaxSize = contentCacheMaxSize;
     }
 
-    @Override
-    public void setInteractive( boolean interactive )
+    public String getChecksumFiles()
     {
-        this.interactive = interactive;
+        return checksumFiles;
     }
 
-    // TODO: Evaluar si debe permanecer
-    public RepositoryPermissions getPermissionsOverride()
+    public void setChecksumFiles( String checksumFiles )
     {
-        return permissionsOverride;
+        this.checksumFiles = checksumFiles;
     }
 
-    public void setPermissionsOverride( RepositoryPermissions permissionsOverride )
+    public String getChecksumPolicy()
     {
-        this.permissionsOverride = permissionsOverride;
+        return checksumPolicy;
     }
 
-    public ProxyInfo getProxyInfo()
+    public void setChecksumPolicy( String checksumPolicy )
     {
-        return proxyInfoProvider != null ? proxyInfoProvider.getProxyInfo( null ) : null;
+        this.checksumPolicy = checksumPolicy;
     }
 
-    public AuthenticationInfo getAuthenticationInfo()
+    public boolean isChecksumMetadata()
     {
-        return authenticationInfo;
+        return checksumMetadata;
     }
 
-    public String getRegion()
+    public void setChecksumMetadata( boolean checksumMetadata )
     {
-        return region;
+        this.checksumMetadata = checksumMetadata;
     }
 
-    public void setRegion( String region )
+    public int getMultipartRetries()
     {
-        this.region = region;
+        return multipartRetries;
     }
 
-    // internal stuff
+    public void setMultipartRetries( int multipartRetries )
+    {
+        this.multipartRetries = multipartRetries;
+    }
+
+    public long getStaleUploadAge()
+    {
+        return staleUploadAge;
+    }
 
-    private File resolveDestinationPath( String destinationPath )
+    public void setStaleUploadAge( long staleUploadAge )
     {
-        String basedir = getRepository().getBasedir();
+        this.staleUploadAge = staleUploadAge;
+    }
 
-        destinationPath = destinationPath.replace( "\\", "/" );
+    // internal stuff
 
-        File path;
+    /**
+     * Maps a resource name to its object key: the repository base directory followed by the resource name.
+     */
+    private String resolveKey( String resourceName )
+    {
+        String baseDir = getRepository().getBasedir().replaceAll( "/", "" );
+        return baseDir + "/" + resourceName;
+    }
 
-        if ( destinationPath.equals( "." ) )
+    /**
+     * Maps a directory name to the key prefix of its children, always ending with {@code /}.
+     */
+    private String resolvePrefix( String directory )
+    {
+        String path = directory.replace( "\\", "/" );
+        while ( path.startsWith( "/" ) )
         {
-            path = new File( basedir );
+            path = path.substring( 1 );
         }
-        else
+        if ( path.equals( "." ) )
+        {
+            path = "";
+        }
+        if ( !path.isEmpty() && !path.endsWith( "/" ) )
         {
-            path = new File( basedir, destinationPath );
+            path += "/";
         }
+        return resolveKey( path );
+    }
+
+    /**
+     * @return what the JVM wide caches know the bucket of the repository by: a bucket of the same name on another
+     *         endpoint or in another region is another bucket, and what one set of credentials may read another may
+     *         not
+     */
+    private Object store()
+    {
+        return Arrays.asList( clientConfiguration, getRepository().getHost() );
+    }
 
-        return path;
+    /**
+     * Drops the cached listings of every directory above {@code key}, since storing it may add a child to any of
+     * them.
+     */
+    private static void invalidateListings( Object store, String key )
+    {
+        int slash = key.lastIndexOf( '/' );
+        while ( slash >= 0 )
+        {
+            LISTING_CACHE.invalidate( store, key.substring( 0, slash + 1 ) );
+            slash = key.lastIndexOf( '/', slash - 1 );
+        }
     }
 
     private void checkBaseDir()
@@ -740,24 +3306,18 @@ public class S3Wagon
         }
     }
 
-    private HashMap<String, S3Object> getObjectMap()
+    private HashMap<String, S3Object> getObjectMap( String prefix )
     {
         String bucket = getRepository().getHost();
-        ListObjectsV2Request req = ListObjectsV2Request.builder().bucket( bucket ).maxKeys( 1 ).build();
+        ListObjectsV2Request req =
+            ListObjectsV2Request.builder().bucket( bucket ).prefix( prefix ).maxKeys( LIST_PAGE_SIZE ).build();
         HashMap<String, S3Object> map = new HashMap<>();
-        boolean done = false;
-        while ( !done )
+        for ( ListObjectsV2Response res : s3Client.get().listObjectsV2Paginator( req ) )
         {
-            ListObjectsV2Response res = s3Client.listObjectsV2( req );
             for ( S3Object content : res.contents() )
             {
                 map.put( content.key(), content );
             }
-            done = res.nextContinuationToken() == null;
-            if ( !done )
-            {
-                req = req.toBuilder().continuationToken( res.nextContinuationToken() ).build();
-            }
         }
         return map;
     }
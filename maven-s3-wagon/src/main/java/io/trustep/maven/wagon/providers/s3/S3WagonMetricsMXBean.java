@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The metrics of every {@link S3Wagon} of the JVM, published as
+ * {@code io.trustep.maven.wagon.providers.s3:type=S3Wagon}. Operations are {@code get}, {@code put},
+ * {@code getFileList}, {@code resourceExists} and {@code openConnection}; latencies are in microseconds.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+public interface S3WagonMetricsMXBean
+{
+    /**
+     * @return the counters since the JVM started or the last {@link #reset()}: {@code <operation>.count},
+     *         {@code .errors}, {@code .bytes}, {@code .p50}, {@code .p90}, {@code .p99} and {@code .max} by operation,
+     *         {@code cache.<name>.hits} and {@code .misses} by cache, and the {@code requests}, {@code retries},
+     *         {@code throttled} (503 Slow Down) and {@code hedged} counts of the S3 requests
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return {@code <operation>.bytesPerSecond} by operation and {@code cache.<name>.hitRatio} by cache
+     */
+    Map<String, Double> getRates();
+
+    /**
+     * @return the counters in a few human readable lines
+     */
+    String getSummary();
+
+    void reset();
+
+    /**
+     * Writes the counters and rates to {@code file} as a properties file.
+     */
+    void dump( String file )
+        throws IOException;
+}
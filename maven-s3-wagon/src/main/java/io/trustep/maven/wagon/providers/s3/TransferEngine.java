@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+/**
+ * Moves object bodies between S3 and local files. Every call starts a transfer and returns at once; how the transfer
+ * runs, on a thread of its own or on non-blocking I/O, is up to the implementation. {@link MultipartUpload} and
+ * {@link RangedDownload} only bound how many transfers are in flight. Every chunk read from or written to the local
+ * file is reported to a {@link TransferProgress}, with its position in the file.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+interface TransferEngine
+    extends AutoCloseable
+{
+    /**
+     * Writes the body of the object into {@code channel}, starting at {@code position}. {@code onResponse} is called
+     * once the response headers arrive, before any byte of the body is written.
+     */
+    CompletableFuture<GetObjectResponse> download( GetObjectRequest request, FileChannel channel, long position,
+                                                   Consumer<GetObjectResponse> onResponse,
+                                                   TransferProgress progress );
+
+    CompletableFuture<PutObjectResponse> upload( PutObjectRequest request, File source, TransferProgress progress );
+
+    /**
+     * Uploads {@code length} bytes of {@code source}, starting at {@code offset}, as one part of a multipart upload.
+     */
+    CompletableFuture<UploadPartResponse> uploadPart( UploadPartRequest request, File source, long offset,
+                                                      long length, TransferProgress progress );
+
+    /**
+     * Releases the resources of this engine; transfers still running are not waited for.
+     */
+    @Override
+    void close();
+}
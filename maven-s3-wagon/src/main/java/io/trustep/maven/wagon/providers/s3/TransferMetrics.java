@@ -0,0 +1,549 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Counts what the wagons of the JVM do: how many times each operation ran, how long it took, how many bytes it moved,
+ * how often the caches answered, and how many S3 requests were sent, retried, throttled or hedged. Recording only
+ * bumps striped counters, so it costs nothing noticeable next to a request; latencies go to a
+ * {@link LatencyHistogram}.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class TransferMetrics
+    implements S3WagonMetricsMXBean
+{
+    static final String GET = "get";
+
+    static final String PUT = "put";
+
+    static final String GET_FILE_LIST = "getFileList";
+
+    static final String RESOURCE_EXISTS = "resourceExists";
+
+    static final String OPEN_CONNECTION = "openConnection";
+
+    static final String CONTENT_CACHE = "content";
+
+    static final String METADATA_CACHE = "metadata";
+
+    static final String EXISTENCE_CACHE = "existence";
+
+    static final String LISTING_CACHE = "listing";
+
+    private static final String OBJECT_NAME = "io.trustep.maven.wagon.providers.s3:type=S3Wagon";
+
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+
+    private static final TransferMetrics INSTANCE = new TransferMetrics();
+
+    /**
+     * How many wagons are connected; the MBean is published while there is any.
+     */
+    private static int connections;
+
+    private static ObjectName published;
+
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+
+    private final Map<String, LongAdder[]> caches = new LinkedHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder throttled = new LongAdder();
+
+    private final LongAdder hedged = new LongAdder();
+
+    private final ExecutionInterceptor interceptor = new Interceptor();
+
+    private TransferMetrics()
+    {
+        for ( String operation : new String[] { GET, PUT, GET_FILE_LIST, RESOURCE_EXISTS, OPEN_CONNECTION } )
+        {
+            operations.put( operation, new Operation() );
+        }
+        for ( String cache : new String[] { CONTENT_CACHE, METADATA_CACHE, EXISTENCE_CACHE, LISTING_CACHE } )
+        {
+            caches.put( cache, new LongAdder[] { new LongAdder(), new LongAdder() } );
+        }
+    }
+
+    static TransferMetrics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Called when a wagon connects: the first one publishes the metrics in the platform MBean server. A second copy
+     * of this class, loaded by another class realm, is published under a name of its own; without JMX the metrics are
+     * still recorded.
+     */
+    static synchronized void connected()
+    {
+        if ( connections++ > 0 )
+        {
+            return;
+        }
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName( OBJECT_NAME );
+            try
+            {
+                server.registerMBean( INSTANCE, name );
+            }
+            catch ( InstanceAlreadyExistsException e )
+            {
+                name = new ObjectName( OBJECT_NAME + ",loader="
+                    + Integer.toHexString( System.identityHashCode( TransferMetrics.class.getClassLoader() ) ) );
+                server.registerMBean( INSTANCE, name );
+            }
+            published = name;
+        }
+        catch ( JMException | SecurityException e )
+        {
+            // not published
+        }
+    }
+
+    /**
+     * Called when a wagon that {@link #connected()} disconnects: the last one withdraws the MBean, so that the class
+     * realm of the wagon is not kept alive by the MBean server once Maven is done with it.
+     */
+    static synchronized void disconnected()
+    {
+        if ( connections == 0 || --connections > 0 || published == null )
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( published );
+        }
+        catch ( JMException | SecurityException e )
+        {
+            // already gone
+        }
+        published = null;
+    }
+
+    /**
+     * @return the name the metrics are published under, or {@code null} while they are not
+     */
+    static synchronized ObjectName getPublishedName()
+    {
+        return published;
+    }
+
+    /**
+     * Records a run of {@code operation} that started at {@code startNanos}, as given by {@link System#nanoTime()}.
+     *
+     * @param bytes how many bytes it transferred
+     * @param failed whether it ended with an exception
+     */
+    void record( String operation, long startNanos, long bytes, boolean failed )
+    {
+        operations.get( operation ).record( System.nanoTime() - startNanos, bytes, failed );
+    }
+
+    /**
+     * Records a lookup in {@code cache}, answered by the cache or not.
+     */
+    void cacheLookup( String cache, boolean hit )
+    {
+        caches.get( cache )[hit ? 0 : 1].increment();
+    }
+
+    /**
+     * Records a part or range sent again by the wagon itself, the SDK retries being counted by
+     * {@link #interceptor()}.
+     */
+    void retried()
+    {
+        retries.increment();
+    }
+
+    /**
+     * Records a second request sent because the first one was slow to answer.
+     */
+    void hedged()
+    {
+        hedged.increment();
+    }
+
+    /**
+     * @return the interceptor counting the requests, retries and throttling responses of a client
+     */
+    ExecutionInterceptor interceptor()
+    {
+        return interceptor;
+    }
+
+    Snapshot snapshot()
+    {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        Map<String, long[]> latencies = new LinkedHashMap<>();
+        for ( Map.Entry<String, Operation> operation : operations.entrySet() )
+        {
+            String name = operation.getKey();
+            Operation o = operation.getValue();
+            counters.put( name + ".count", o.count.sum() );
+            counters.put( name + ".errors", o.errors.sum() );
+            counters.put( name + ".bytes", o.bytes.sum() );
+            counters.put( name + ".nanos", o.nanos.sum() );
+            latencies.put( name, o.latencies.buckets() );
+        }
+        for ( Map.Entry<String, LongAdder[]> cache : caches.entrySet() )
+        {
+            counters.put( "cache." + cache.getKey() + ".hits", cache.getValue()[0].sum() );
+            counters.put( "cache." + cache.getKey() + ".misses", cache.getValue()[1].sum() );
+        }
+        counters.put( "requests", requests.sum() );
+        counters.put( "retries", retries.sum() );
+        counters.put( "throttled", throttled.sum() );
+        counters.put( "hedged", hedged.sum() );
+        return new Snapshot( counters, latencies );
+    }
+
+    @Override
+    public Map<String, Long> getCounters()
+    {
+        return snapshot().getCounters();
+    }
+
+    @Override
+    public Map<String, Double> getRates()
+    {
+        return snapshot().getRates();
+    }
+
+    @Override
+    public String getSummary()
+    {
+        return snapshot().getSummary();
+    }
+
+    @Override
+    public void reset()
+    {
+        for ( Operation operation : operations.values() )
+        {
+            operation.reset();
+        }
+        for ( LongAdder[] cache : caches.values() )
+        {
+            cache[0].reset();
+            cache[1].reset();
+        }
+        requests.reset();
+        retries.reset();
+        throttled.reset();
+        hedged.reset();
+    }
+
+    @Override
+    public void dump( String file )
+        throws IOException
+    {
+        snapshot().dump( Paths.get( file ) );
+    }
+
+    private static final class Operation
+    {
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final LongAdder nanos = new LongAdder();
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        private void record( long elapsedNanos, long transferred, boolean failed )
+        {
+            count.increment();
+            if ( failed )
+            {
+                errors.increment();
+            }
+            bytes.add( transferred );
+            nanos.add( elapsedNanos );
+            latencies.record( elapsedNanos );
+        }
+
+        private void reset()
+        {
+            count.reset();
+            errors.reset();
+            bytes.reset();
+            nanos.reset();
+            latencies.reset();
+        }
+    }
+
+    /**
+     * The counters at a given time. Subtracting an earlier snapshot gives what happened in between.
+     */
+    static final class Snapshot
+    {
+        private final Map<String, Long> counters;
+
+        private final Map<String, long[]> latencies;
+
+        private Snapshot( Map<String, Long> counters, Map<String, long[]> latencies )
+        {
+            this.counters = counters;
+            this.latencies = latencies;
+        }
+
+        Snapshot since( Snapshot earlier )
+        {
+            Map<String, Long> delta = new LinkedHashMap<>();
+            for ( Map.Entry<String, Long> counter : counters.entrySet() )
+            {
+                delta.put( counter.getKey(), counter.getValue() - earlier.counters.get( counter.getKey() ) );
+            }
+            Map<String, long[]> histograms = new LinkedHashMap<>();
+            for ( Map.Entry<String, long[]> histogram : latencies.entrySet() )
+            {
+                long[] before = earlier.latencies.get( histogram.getKey() );
+                long[] buckets = histogram.getValue().clone();
+                for ( int i = 0; i < buckets.length; i++ )
+                {
+                    buckets[i] -= before[i];
+                }
+                histograms.put( histogram.getKey(), buckets );
+            }
+            return new Snapshot( delta, histograms );
+        }
+
+        boolean isEmpty()
+        {
+            for ( String operation : latencies.keySet() )
+            {
+                if ( counters.get( operation + ".count" ) > 0 )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Map<String, Long> getCounters()
+        {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for ( Map.Entry<String, long[]> histogram : latencies.entrySet() )
+            {
+                String operation = histogram.getKey();
+                values.put( operation + ".count", counters.get( operation + ".count" ) );
+                values.put( operation + ".errors", counters.get( operation + ".errors" ) );
+                values.put( operation + ".bytes", counters.get( operation + ".bytes" ) );
+                long[] buckets = histogram.getValue();
+                for ( double percentile : PERCENTILES )
+                {
+                    values.put( operation + ".p" + Math.round( percentile * 100 ),
+                                LatencyHistogram.percentile( buckets, percentile ) );
+                }
+                values.put( operation + ".max", LatencyHistogram.percentile( buckets, 1 ) );
+            }
+            for ( Map.Entry<String, Long> counter : counters.entrySet() )
+            {
+                if ( counter.getKey().startsWith( "cache." ) || !counter.getKey().contains( "." ) )
+                {
+                    values.put( counter.getKey(), counter.getValue() );
+                }
+            }
+            return Collections.unmodifiableMap( values );
+        }
+
+        Map<String, Double> getRates()
+        {
+            Map<String, Double> rates = new LinkedHashMap<>();
+            for ( String operation : latencies.keySet() )
+            {
+                long nanos = counters.get( operation + ".nanos" );
+                long bytes = counters.get( operation + ".bytes" );
+                rates.put( operation + ".bytesPerSecond", nanos == 0 ? 0 : bytes * 1e9 / nanos );
+            }
+            for ( String name : counters.keySet() )
+            {
+                if ( name.startsWith( "cache." ) && name.endsWith( ".hits" ) )
+                {
+                    String cache = name.substring( 0, name.length() - ".hits".length() );
+                    long hits = counters.get( name );
+                    long lookups = hits + counters.get( cache + ".misses" );
+                    rates.put( cache + ".hitRatio", lookups == 0 ? 0 : (double) hits / lookups );
+                }
+            }
+            return Collections.unmodifiableMap( rates );
+        }
+
+        /**
+         * @return a line by operation that ran, one for the caches that were used and one for the S3 requests
+         */
+        String getSummary()
+        {
+            Map<String, Long> values = getCounters();
+            Map<String, Double> rates = getRates();
+            StringBuilder summary = new StringBuilder( "S3 wagon metrics" );
+            for ( String operation : latencies.keySet() )
+            {
+                long count = values.get( operation + ".count" );
+                if ( count == 0 )
+                {
+                    continue;
+                }
+                summary.append( String.format( "%n  %-14s %6d calls, %d failed, p50 %s, p99 %s, max %s", operation,
+                                               count, values.get( operation + ".errors" ),
+                                               millis( values.get( operation + ".p50" ) ),
+                                               millis( values.get( operation + ".p99" ) ),
+                                               millis( values.get( operation + ".max" ) ) ) );
+                long bytes = values.get( operation + ".bytes" );
+                if ( bytes > 0 )
+                {
+                    summary.append( String.format( ", %d KiB at %.1f MiB/s", bytes / 1024,
+                                                   rates.get( operation + ".bytesPerSecond" ) / ( 1024 * 1024 ) ) );
+                }
+            }
+            StringBuilder cacheLine = new StringBuilder();
+            for ( Map.Entry<String, Double> rate : rates.entrySet() )
+            {
+                String name = rate.getKey();
+                if ( name.endsWith( ".hitRatio" ) )
+                {
+                    String cache = name.substring( 0, name.length() - ".hitRatio".length() );
+                    long lookups = values.get( cache + ".hits" ) + values.get( cache + ".misses" );
+                    if ( lookups > 0 )
+                    {
+                        cacheLine.append( String.format( " %s %.0f%% of %d,", cache.substring( "cache.".length() ),
+                                                         rate.getValue() * 100, lookups ) );
+                    }
+                }
+            }
+            if ( cacheLine.length() > 0 )
+            {
+                cacheLine.setLength( cacheLine.length() - 1 );
+                summary.append( String.format( "%n  cache hits    " ) ).append( cacheLine );
+            }
+            summary.append( String.format( "%n  S3 requests    %6d sent, %d retried, %d throttled, %d hedged",
+                                           values.get( "requests" ), values.get( "retries" ),
+                                           values.get( "throttled" ), values.get( "hedged" ) ) );
+            return summary.toString();
+        }
+
+        /**
+         * Writes the counters and rates as a properties file, replacing {@code file} at once.
+         */
+        void dump( Path file )
+            throws IOException
+        {
+            Properties properties = new Properties();
+            for ( Map.Entry<String, Long> counter : getCounters().entrySet() )
+            {
+                properties.setProperty( counter.getKey(), Long.toString( counter.getValue() ) );
+            }
+            for ( Map.Entry<String, Double> rate : getRates().entrySet() )
+            {
+                properties.setProperty( rate.getKey(), String.format( Locale.ROOT, "%.3f", rate.getValue() ) );
+            }
+            Path absolute = file.toAbsolutePath();
+            Files.createDirectories( absolute.getParent() );
+            Path tmp = Files.createTempFile( absolute.getParent(), absolute.getFileName().toString(), ".tmp" );
+            try
+            {
+                try ( OutputStream out = Files.newOutputStream( tmp ) )
+                {
+                    properties.store( out, "S3 wagon metrics, latencies in microseconds" );
+                }
+                Files.move( tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            }
+            finally
+            {
+                Files.deleteIfExists( tmp );
+            }
+        }
+
+        private static String millis( long micros )
+        {
+            return String.format( "%.1f ms", micros / 1000.0 );
+        }
+    }
+
+    /**
+     * Counts the S3 requests of a client: every execution, every attempt after the first one and every 503 Slow Down
+     * response.
+     */
+    private final class Interceptor
+        implements ExecutionInterceptor
+    {
+        private final ExecutionAttribute<Boolean> sent = new ExecutionAttribute<>( "S3WagonSent" );
+
+        @Override
+        public void beforeExecution( Context.BeforeExecution context, ExecutionAttributes executionAttributes )
+        {
+            requests.increment();
+        }
+
+        @Override
+        public void beforeTransmission( Context.BeforeTransmission context, ExecutionAttributes executionAttributes )
+        {
+            if ( executionAttributes.getAttribute( sent ) != null )
+            {
+                retries.increment();
+            }
+            executionAttributes.putAttribute( sent, Boolean.TRUE );
+        }
+
+        @Override
+        public void afterTransmission( Context.AfterTransmission context, ExecutionAttributes executionAttributes )
+        {
+            if ( context.httpResponse().statusCode() == HTTP_SERVICE_UNAVAILABLE )
+            {
+                throttled.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns the bytes moved by a transfer into progress notifications. Listeners get every byte of the resource exactly
+ * once and in order, as checksum observers need, in chunks of one buffer reused for the whole transfer.
+ * <p>
+ * Engines report each chunk as it is read from or written to the local file, from whatever thread moves it. A chunk
+ * continuing what was already notified is copied straight into the buffer. Parts and ranges transferred in parallel
+ * finish out of order: they are only remembered, and once everything before them is done their bytes are read back
+ * from the local file, where they already are. Bytes reported twice, when a part is sent again, are notified once.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class TransferProgress
+    implements AutoCloseable
+{
+    /**
+     * Receives the progress notifications, one at a time.
+     */
+    interface Listener
+    {
+        /**
+         * @param buffer the bytes, only valid during the call
+         * @param length how many bytes of {@code buffer} are valid
+         */
+        void progress( byte[] buffer, int length );
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 4 * 1024;
+
+    private final Path file;
+
+    private final Listener listener;
+
+    /**
+     * Ranges done beyond {@link #position}, by start.
+     */
+    private final TreeMap<Long, Long> pending = new TreeMap<>();
+
+    private byte[] buffer;
+
+    private int filled;
+
+    /**
+     * Every byte before it was copied into the buffer or notified.
+     */
+    private long position;
+
+    private FileChannel channel;
+
+    /**
+     * @param file the local side of the transfer, where bytes finished out of order are read back from
+     */
+    TransferProgress( Path file, Listener listener )
+    {
+        this.file = file;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the size of the notifications; it is only known once the size of the resource is.
+     */
+    synchronized void begin( int bufferSize )
+    {
+        if ( buffer == null || buffer.length != bufferSize )
+        {
+            flush();
+            buffer = new byte[Math.max( 1, bufferSize )];
+        }
+    }
+
+    /**
+     * Reports that the bytes of {@code bytes} are done at {@code offset} of the resource. The buffer itself is left
+     * untouched.
+     */
+    synchronized void update( long offset, ByteBuffer bytes )
+    {
+        long end = offset + bytes.remaining();
+        if ( end <= position )
+        {
+            return;
+        }
+        if ( offset > position )
+        {
+            pending.merge( offset, end, Math::max );
+            return;
+        }
+        ByteBuffer chunk = bytes.duplicate();
+        chunk.position( chunk.position() + (int) ( position - offset ) );
+        append( chunk );
+        drainPending();
+    }
+
+    synchronized void update( long offset, byte[] bytes, int start, int length )
+    {
+        update( offset, ByteBuffer.wrap( bytes, start, length ) );
+    }
+
+    /**
+     * Reports that {@code length} bytes at {@code offset} are done and already in the local file, as when it was
+     * served from a cache instead of transferred.
+     */
+    synchronized void completed( long offset, long length )
+    {
+        long end = offset + length;
+        if ( offset > position )
+        {
+            pending.merge( offset, end, Math::max );
+            return;
+        }
+        pending.merge( position, end, Math::max );
+        drainPending();
+    }
+
+    /**
+     * @return the ranges reported done so far, merged and in order, as {@code {start, end}} pairs with an exclusive
+     *         end
+     */
+    synchronized List<long[]> done()
+    {
+        List<long[]> ranges = new ArrayList<>();
+        if ( position > 0 )
+        {
+            ranges.add( new long[] { 0, position } );
+        }
+        for ( Map.Entry<Long, Long> range : pending.entrySet() )
+        {
+            ranges.add( new long[] { range.getKey(), range.getValue() } );
+        }
+        return DownloadJournal.merge( ranges, Collections.<long[]>emptyList() );
+    }
+
+    /**
+     * Notifies what is left in the buffer, once the transfer succeeded, and lets go of the local file so that it can
+     * be moved.
+     */
+    synchronized void finish()
+    {
+        flush();
+        close();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if ( channel != null )
+        {
+            try
+            {
+                channel.close();
+            }
+            catch ( IOException e )
+            {
+                // only read from
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Reads back the remembered ranges that {@link #position} reached.
+     */
+    private void drainPending()
+    {
+        for ( Map.Entry<Long, Long> next = pending.firstEntry(); next != null
+            && next.getKey() <= position; next = pending.firstEntry() )
+        {
+            pending.remove( next.getKey() );
+            readBack( next.getValue() );
+        }
+    }
+
+    private void append( ByteBuffer chunk )
+    {
+        if ( buffer == null )
+        {
+            buffer = new byte[DEFAULT_BUFFER_SIZE];
+        }
+        while ( chunk.hasRemaining() )
+        {
+            int n = Math.min( chunk.remaining(), buffer.length - filled );
+            chunk.get( buffer, filled, n );
+            filled += n;
+            position += n;
+            if ( filled == buffer.length )
+            {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Moves {@link #position} up to {@code end} with bytes read from the local file.
+     */
+    private void readBack( long end )
+    {
+        if ( buffer == null )
+        {
+            buffer = new byte[DEFAULT_BUFFER_SIZE];
+        }
+        try
+        {
+            if ( channel == null )
+            {
+                channel = FileChannel.open( file, StandardOpenOption.READ );
+            }
+            while ( position < end )
+            {
+                ByteBuffer target =
+                    ByteBuffer.wrap( buffer, filled, (int) Math.min( buffer.length - filled, end - position ) );
+                int n = channel.read( target, position );
+                if ( n < 0 )
+                {
+                    throw new IOException( "Unexpected end of " + file );
+                }
+                filled += n;
+                position += n;
+                if ( filled == buffer.length )
+                {
+                    flush();
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( "Unable to read back " + file, e );
+        }
+    }
+
+    private void flush()
+    {
+        if ( filled > 0 )
+        {
+            listener.progress( buffer, filled );
+            filled = 0;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The state of a multipart upload, stored beside its source file with a {@code .s3upload} suffix and rewritten as
+ * parts complete, so that a put killed halfway through can be continued by the next put of the same file to the same
+ * key. The journal only records what was started; which parts S3 really holds is asked again before resuming.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class UploadJournal
+{
+    private static final String SUFFIX = ".s3upload";
+
+    private final Path file;
+
+    private final String bucket;
+
+    private final String key;
+
+    private final String uploadId;
+
+    private final long partSize;
+
+    private final long length;
+
+    private final long lastModified;
+
+    private final Map<Integer, String> parts = new TreeMap<>();
+
+    UploadJournal( File source, String bucket, String key, String uploadId, long partSize )
+    {
+        this( journalOf( source ), bucket, key, uploadId, partSize, source.length(), source.lastModified() );
+    }
+
+    private UploadJournal( Path file, String bucket, String key, String uploadId, long partSize, long length,
+                           long lastModified )
+    {
+        this.file = file;
+        this.bucket = bucket;
+        this.key = key;
+        this.uploadId = uploadId;
+        this.partSize = partSize;
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the journal of an upload of {@code source} to {@code key}, or {@code null} when there is none or the
+     *         source changed since it was written
+     */
+    static UploadJournal read( File source, String bucket, String key )
+    {
+        Path file = journalOf( source );
+        Properties properties = new Properties();
+        try ( InputStream in = Files.newInputStream( file ) )
+        {
+            properties.load( in );
+        }
+        catch ( IOException e )
+        {
+            // usually no journal at all
+            return null;
+        }
+        try
+        {
+            UploadJournal journal =
+                new UploadJournal( file, properties.getProperty( "bucket" ), properties.getProperty( "key" ),
+                                   properties.getProperty( "uploadId" ),
+                                   Long.parseLong( properties.getProperty( "partSize" ) ),
+                                   Long.parseLong( properties.getProperty( "length" ) ),
+                                   Long.parseLong( properties.getProperty( "lastModified" ) ) );
+            for ( String name : properties.stringPropertyNames() )
+            {
+                if ( name.startsWith( "part." ) )
+                {
+                    journal.parts.put( Integer.valueOf( name.substring( "part.".length() ) ),
+                                       properties.getProperty( name ) );
+                }
+            }
+            if ( !bucket.equals( journal.bucket ) || !key.equals( journal.key ) || journal.uploadId == null
+                || journal.length != source.length() || journal.lastModified != source.lastModified() )
+            {
+                return null;
+            }
+            return journal;
+        }
+        catch ( NumberFormatException e )
+        {
+            return null;
+        }
+    }
+
+    String getUploadId()
+    {
+        return uploadId;
+    }
+
+    long getPartSize()
+    {
+        return partSize;
+    }
+
+    /**
+     * @return the ETags of the parts known to be uploaded, by part number
+     */
+    synchronized Map<Integer, String> getParts()
+    {
+        return Collections.unmodifiableMap( new TreeMap<>( parts ) );
+    }
+
+    /**
+     * Records an uploaded part and rewrites the journal.
+     */
+    synchronized void partDone( int partNumber, String eTag )
+    {
+        parts.put( partNumber, eTag );
+        save();
+    }
+
+    /**
+     * Rewrites the journal; failing to do so only makes the upload impossible to resume, so it is not reported.
+     */
+    synchronized void save()
+    {
+        Properties properties = new Properties();
+        properties.setProperty( "bucket", bucket );
+        properties.setProperty( "key", key );
+        properties.setProperty( "uploadId", uploadId );
+        properties.setProperty( "partSize", Long.toString( partSize ) );
+        properties.setProperty( "length", Long.toString( length ) );
+        properties.setProperty( "lastModified", Long.toString( lastModified ) );
+        for ( Map.Entry<Integer, String> part : parts.entrySet() )
+        {
+            properties.setProperty( "part." + part.getKey(), part.getValue() );
+        }
+        try
+        {
+            Path tmp = Files.createTempFile( file.getParent(), file.getFileName().toString(), ".tmp" );
+            try
+            {
+                try ( OutputStream out = Files.newOutputStream( tmp ) )
+                {
+                    properties.store( out, "Multipart upload of " + key );
+                }
+                Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            }
+            finally
+            {
+                Files.deleteIfExists( tmp );
+            }
+        }
+        catch ( IOException e )
+        {
+            // a read-only directory, for instance
+        }
+    }
+
+    void delete()
+    {
+        try
+        {
+            Files.deleteIfExists( file );
+        }
+        catch ( IOException e )
+        {
+            // a journal for a completed upload is discarded by the next read, ListParts will not find it
+        }
+    }
+
+    private static Path journalOf( File source )
+    {
+        return source.toPath().resolveSibling( source.getName() + SUFFIX );
+    }
+}
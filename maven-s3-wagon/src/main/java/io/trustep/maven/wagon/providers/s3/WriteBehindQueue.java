@@ -0,0 +1,211 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.apache.maven.wagon.TransferFailedException;
+
+/**
+ * The uploads a wagon accepted but did not perform yet, run in the background by a few threads. At most a given
+ * number of them are queued or running: beyond that, submitting waits for one to finish, so a fast build cannot pile
+ * up more than that many snapshots of its files. Failures are kept until the queue is drained.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+final class WriteBehindQueue
+    implements AutoCloseable
+{
+    /**
+     * An upload, run on a worker thread.
+     */
+    interface Upload
+    {
+        void run()
+            throws TransferFailedException;
+    }
+
+    private final ExecutorService executor;
+
+    private final Semaphore slots;
+
+    private final Map<String, CompletableFuture<Void>> pending = new HashMap<>();
+
+    private final List<TransferFailedException> failures = new ArrayList<>();
+
+    /**
+     * @param concurrency how many uploads run at the same time
+     * @param capacity how many uploads may be queued or running
+     */
+    WriteBehindQueue( int concurrency, int capacity )
+    {
+        this.executor =
+            Executors.newFixedThreadPool( Math.max( 1, concurrency ), new DaemonThreadFactory( "s3-wagon-deploy" ) );
+        this.slots = new Semaphore( Math.max( 1, capacity ) );
+    }
+
+    /**
+     * Queues the upload of {@code key}, after any upload of the same key queued before.
+     */
+    void submit( String key, Upload upload )
+        throws InterruptedException
+    {
+        slots.acquire();
+        CompletableFuture<Void> future;
+        synchronized ( this )
+        {
+            CompletableFuture<Void> previous = pending.get( key );
+            // the same key twice: the second upload starts once the first is over, whatever its outcome
+            CompletableFuture<Void> after =
+                previous == null ? CompletableFuture.completedFuture( null ) : previous.handle( ( r, e ) -> null );
+            future = after.thenCompose( ignored -> run( upload ) );
+            pending.put( key, future );
+        }
+        future.whenComplete( ( result, error ) -> {
+            synchronized ( this )
+            {
+                pending.remove( key, future );
+            }
+            slots.release();
+        } );
+    }
+
+    /**
+     * Waits for the queued uploads of {@code key}, if any, without reporting their failures.
+     */
+    void await( String key )
+        throws InterruptedException
+    {
+        CompletableFuture<Void> future;
+        synchronized ( this )
+        {
+            future = pending.get( key );
+        }
+        if ( future != null )
+        {
+            try
+            {
+                future.get();
+            }
+            catch ( ExecutionException e )
+            {
+                // reported by check
+            }
+        }
+    }
+
+    /**
+     * Waits for every queued upload.
+     *
+     * @throws TransferFailedException the first failure since the last check, the others being suppressed
+     */
+    void drain()
+        throws TransferFailedException, InterruptedException
+    {
+        List<CompletableFuture<Void>> futures;
+        synchronized ( this )
+        {
+            futures = new ArrayList<>( pending.values() );
+        }
+        for ( CompletableFuture<Void> future : futures )
+        {
+            try
+            {
+                future.get();
+            }
+            catch ( ExecutionException e )
+            {
+                // collected in failures
+            }
+        }
+        check();
+    }
+
+    /**
+     * Reports the uploads that failed since the last check, without waiting for the others.
+     *
+     * @throws TransferFailedException the first failure, the others being suppressed
+     */
+    void check()
+        throws TransferFailedException
+    {
+        List<TransferFailedException> failed;
+        synchronized ( failures )
+        {
+            failed = new ArrayList<>( failures );
+            failures.clear();
+        }
+        if ( !failed.isEmpty() )
+        {
+            TransferFailedException first = failed.get( 0 );
+            String others = failed.size() > 1 ? " (and " + ( failed.size() - 1 ) + " other background puts)" : "";
+            TransferFailedException e = new TransferFailedException( first.getMessage() + others, first );
+            for ( TransferFailedException other : failed.subList( 1, failed.size() ) )
+            {
+                e.addSuppressed( other );
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<Void> run( Upload upload )
+    {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        executor.execute( () -> complete( future, upload ) );
+        return future;
+    }
+
+    private void complete( CompletableFuture<Void> future, Upload upload )
+    {
+        try
+        {
+            upload.run();
+            future.complete( null );
+        }
+        catch ( TransferFailedException e )
+        {
+            fail( future, e );
+        }
+        catch ( RuntimeException e )
+        {
+            fail( future, new TransferFailedException( "Background upload failed", e ) );
+        }
+    }
+
+    private void fail( CompletableFuture<Void> future, TransferFailedException e )
+    {
+        synchronized ( failures )
+        {
+            failures.add( e );
+        }
+        future.completeExceptionally( e );
+    }
+}
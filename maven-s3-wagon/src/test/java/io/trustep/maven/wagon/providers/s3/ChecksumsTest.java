@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class ChecksumsTest
+{
+    @Test
+    void parseTrimsLowercasesAndDropsDuplicates()
+    {
+        assertEquals( Arrays.asList( "sha1", "md5", "sha256" ), Checksums.parse( " sha1, MD5,sha1,,sha256 " ) );
+        assertTrue( Checksums.parse( "" ).isEmpty() );
+        assertTrue( Checksums.parse( null ).isEmpty() );
+    }
+
+    @Test
+    void parseRejectsUnknownChecksums()
+    {
+        IllegalArgumentException e =
+            assertThrows( IllegalArgumentException.class, () -> Checksums.parse( "sha1,crc32" ) );
+        assertTrue( e.getMessage().contains( "crc32" ) );
+    }
+
+    @Test
+    void checksumFilesAreToldByTheirExtension()
+    {
+        assertEquals( "sha1", Checksums.checksumExtension( "lib-1.0.jar.sha1" ) );
+        assertEquals( "sha512", Checksums.checksumExtension( "lib-1.0.jar.SHA512" ) );
+        assertNull( Checksums.checksumExtension( "lib-1.0.jar" ) );
+        assertNull( Checksums.checksumExtension( "README" ) );
+    }
+
+    @Test
+    void checksumFileMayBeFollowedByTheFileName()
+    {
+        assertEquals( "a9993e36", Checksums.parseChecksumFile( "A9993E36\n" ) );
+        assertEquals( "a9993e36", Checksums.parseChecksumFile( "a9993e36  lib-1.0.jar\n" ) );
+    }
+
+    @Test
+    void digestsAreComputedInOnePass()
+    {
+        Checksums checksums = new Checksums( Arrays.asList( "md5", "sha1" ) );
+        byte[] abc = "abc".getBytes( StandardCharsets.US_ASCII );
+        checksums.update( abc, 0, 1 );
+        checksums.update( abc, 1, 2 );
+        Map<String, String> digests = checksums.complete();
+
+        assertEquals( "900150983cd24fb0d6963f7d28e17f72", digests.get( "md5" ) );
+        assertEquals( "a9993e364706816aba3e25717850c26c9cd0d89d", digests.get( "sha1" ) );
+    }
+
+    @Test
+    void digestsRoundTripThroughUserMetadata()
+    {
+        Map<String, String> digests = new HashMap<>();
+        digests.put( "sha1", "a9993e36" );
+        digests.put( "md5", "90015098" );
+        Map<String, String> metadata = new HashMap<>( Checksums.toMetadata( digests ) );
+        metadata.put( "Checksum-SHA256", " ABCDEF " );
+        metadata.put( "checksum-crc32", "1234" );
+        metadata.put( "author", "someone" );
+
+        Map<String, String> read = Checksums.fromMetadata( metadata );
+
+        assertEquals( 3, read.size() );
+        assertEquals( "a9993e36", read.get( "sha1" ) );
+        assertEquals( "90015098", read.get( "md5" ) );
+        assertEquals( "abcdef", read.get( "sha256" ) );
+        assertTrue( Checksums.fromMetadata( null ).isEmpty() );
+    }
+}
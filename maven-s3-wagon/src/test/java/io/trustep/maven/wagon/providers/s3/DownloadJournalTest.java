@@ -0,0 +1,149 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class DownloadJournalTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void mergeJoinsOverlappingAndAdjacentRanges()
+    {
+        List<long[]> merged =
+            DownloadJournal.merge( ranges( 20, 30, 0, 10 ), ranges( 5, 15, 15, 18, 40, 50, 45, 47 ) );
+
+        assertEquals( "[0-18, 20-30, 40-50]", format( merged ) );
+    }
+
+    @Test
+    void mergeDropsEmptyRanges()
+    {
+        List<long[]> merged = DownloadJournal.merge( ranges( 10, 10, 0, 5 ), Collections.<long[]>emptyList() );
+
+        assertEquals( "[0-5]", format( merged ) );
+    }
+
+    @Test
+    void mergeLeavesItsArgumentsAlone()
+    {
+        List<long[]> first = ranges( 0, 10 );
+        DownloadJournal.merge( first, ranges( 5, 20 ) );
+
+        assertEquals( "[0-10]", format( first ) );
+    }
+
+    @Test
+    void missingListsHolesAndTheEnd()
+    {
+        DownloadJournal journal = new DownloadJournal( "etag", 100, 0, ranges( 10, 20, 30, 40 ) );
+
+        assertEquals( "[0-10, 20-30, 40-100]", format( journal.missing() ) );
+        assertEquals( 20, journal.getDoneLength() );
+    }
+
+    @Test
+    void nothingIsMissingFromACompleteDownload()
+    {
+        DownloadJournal journal = new DownloadJournal( "etag", 100, 0, ranges( 0, 60, 60, 100 ) );
+
+        assertTrue( journal.missing().isEmpty() );
+        assertEquals( "[0-100]", format( journal.getDone() ) );
+    }
+
+    @Test
+    void takeReadsTheSavedJournalOnce()
+        throws Exception
+    {
+        Path partial = directory.resolve( "artifact.jar.tmp" );
+        Files.write( partial, new byte[100] );
+        new DownloadJournal( "etag", 100, 1234, ranges( 0, 40, 60, 80 ) ).save( partial );
+        assertTrue( DownloadJournal.exists( partial ) );
+
+        DownloadJournal taken = DownloadJournal.take( partial );
+
+        assertNotNull( taken );
+        assertEquals( "etag", taken.getETag() );
+        assertEquals( 100, taken.getLength() );
+        assertEquals( 1234, taken.getLastModified() );
+        assertEquals( "[0-40, 60-80]", format( taken.getDone() ) );
+        assertFalse( DownloadJournal.exists( partial ) );
+        assertNull( DownloadJournal.take( partial ) );
+    }
+
+    @Test
+    void takeIgnoresACompleteJournal()
+        throws Exception
+    {
+        Path partial = directory.resolve( "artifact.jar.tmp" );
+        Files.write( partial, new byte[100] );
+        new DownloadJournal( "etag", 100, 0, ranges( 0, 100 ) ).save( partial );
+
+        assertNull( DownloadJournal.take( partial ) );
+        assertFalse( DownloadJournal.exists( partial ) );
+    }
+
+    @Test
+    void takeIgnoresAJournalBeyondThePartialFile()
+        throws Exception
+    {
+        Path partial = directory.resolve( "artifact.jar.tmp" );
+        Files.write( partial, new byte[50] );
+        new DownloadJournal( "etag", 100, 0, ranges( 0, 80 ) ).save( partial );
+
+        assertNull( DownloadJournal.take( partial ) );
+    }
+
+    private static List<long[]> ranges( long... bounds )
+    {
+        List<long[]> ranges = new ArrayList<>();
+        for ( int i = 0; i < bounds.length; i += 2 )
+        {
+            ranges.add( new long[] { bounds[i], bounds[i + 1] } );
+        }
+        return ranges;
+    }
+
+    private static String format( List<long[]> ranges )
+    {
+        List<String> formatted = new ArrayList<>();
+        for ( long[] range : ranges )
+        {
+            formatted.add( range[0] + "-" + range[1] );
+        }
+        return Arrays.toString( formatted.toArray() );
+    }
+}
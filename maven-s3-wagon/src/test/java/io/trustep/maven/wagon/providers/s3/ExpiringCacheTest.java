@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class ExpiringCacheTest
+{
+    private static final long TTL = 60 * 1000;
+
+    @Test
+    void answersAreKeyedByBucketAndKey()
+    {
+        ExpiringCache<String> cache = new ExpiringCache<>( 10 );
+        cache.put( "bucket", "a/b", "first" );
+        cache.put( "other", "a/b", "second" );
+
+        assertEquals( "first", cache.get( "bucket", "a/b", TTL ) );
+        assertEquals( "second", cache.get( "other", "a/b", TTL ) );
+        assertNull( cache.get( "bucket", "a/c", TTL ) );
+    }
+
+    @Test
+    void answersExpireAfterTheirTimeToLive()
+        throws Exception
+    {
+        ExpiringCache<String> cache = new ExpiringCache<>( 10 );
+        cache.put( "bucket", "key", "value" );
+        Thread.sleep( 20 );
+
+        assertEquals( "value", cache.get( "bucket", "key", TTL ) );
+        assertNull( cache.get( "bucket", "key", 10 ) );
+        // an expired answer is dropped, a longer time to live does not bring it back
+        assertNull( cache.get( "bucket", "key", TTL ) );
+    }
+
+    @Test
+    void invalidateDropsTheAnswer()
+    {
+        ExpiringCache<Boolean> cache = new ExpiringCache<>( 10 );
+        cache.put( "bucket", "key", true );
+        cache.invalidate( "bucket", "key" );
+
+        assertNull( cache.get( "bucket", "key", TTL ) );
+    }
+
+    @Test
+    void leastRecentlyUsedAnswerIsEvictedWhenFull()
+    {
+        ExpiringCache<String> cache = new ExpiringCache<>( 2 );
+        cache.put( "bucket", "a", "a" );
+        cache.put( "bucket", "b", "b" );
+        cache.get( "bucket", "a", TTL );
+        cache.put( "bucket", "c", "c" );
+
+        assertEquals( "a", cache.get( "bucket", "a", TTL ) );
+        assertNull( cache.get( "bucket", "b", TTL ) );
+        assertEquals( "c", cache.get( "bucket", "c", TTL ) );
+    }
+}
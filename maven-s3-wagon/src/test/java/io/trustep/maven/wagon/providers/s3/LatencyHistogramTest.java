@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class LatencyHistogramTest
+{
+    /**
+     * The bucket of the largest latency a long can hold.
+     */
+    private static final int LAST_BUCKET = LatencyHistogram.bucketOf( Long.MAX_VALUE );
+
+    @Test
+    void smallLatenciesHaveABucketEach()
+    {
+        for ( int micros = 0; micros < 8; micros++ )
+        {
+            assertEquals( micros, LatencyHistogram.bucketOf( micros ) );
+            assertEquals( micros, LatencyHistogram.highestOf( micros ) );
+        }
+        assertEquals( 0, LatencyHistogram.bucketOf( -1 ) );
+    }
+
+    @Test
+    void bucketsFollowEachOtherWithoutGaps()
+    {
+        for ( int bucket = 0; bucket < LAST_BUCKET; bucket++ )
+        {
+            long highest = LatencyHistogram.highestOf( bucket );
+            assertEquals( bucket, LatencyHistogram.bucketOf( highest ), "highest of " + bucket );
+            assertEquals( bucket + 1, LatencyHistogram.bucketOf( highest + 1 ), "after " + bucket );
+        }
+        assertEquals( Long.MAX_VALUE, LatencyHistogram.highestOf( LAST_BUCKET ) );
+    }
+
+    @Test
+    void bucketsAreWithinAnEighth()
+    {
+        for ( long micros = 8; micros < 1000000; micros = micros * 3 / 2 + 1 )
+        {
+            long highest = LatencyHistogram.highestOf( LatencyHistogram.bucketOf( micros ) );
+            assertTrue( highest >= micros && highest <= micros + micros / 8, micros + " counted up to " + highest );
+        }
+    }
+
+    @Test
+    void percentilesOfAnEmptyHistogramAreZero()
+    {
+        long[] buckets = new LatencyHistogram().buckets();
+
+        assertEquals( 0, LatencyHistogram.count( buckets ) );
+        assertEquals( 0, LatencyHistogram.percentile( buckets, 0.5 ) );
+        assertEquals( 0, LatencyHistogram.percentile( buckets, 1.0 ) );
+    }
+
+    @Test
+    void percentilesAreTheHighestValueOfTheirBucket()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for ( long micros = 1; micros <= 100; micros++ )
+        {
+            histogram.record( TimeUnit.MICROSECONDS.toNanos( micros ) );
+        }
+        long[] buckets = histogram.buckets();
+
+        assertEquals( 100, LatencyHistogram.count( buckets ) );
+        assertEquals( 1, LatencyHistogram.percentile( buckets, 0 ) );
+        // 50 falls in the bucket of 48 to 51
+        assertEquals( 51, LatencyHistogram.percentile( buckets, 0.5 ) );
+        // 100 falls in the bucket of 96 to 103
+        assertEquals( 103, LatencyHistogram.percentile( buckets, 1.0 ) );
+        assertEquals( 103, LatencyHistogram.percentile( buckets, 1.5 ) );
+    }
+
+    @Test
+    void resetForgetsEverything()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record( TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        histogram.reset();
+
+        assertEquals( 0, LatencyHistogram.count( histogram.buckets() ) );
+    }
+}
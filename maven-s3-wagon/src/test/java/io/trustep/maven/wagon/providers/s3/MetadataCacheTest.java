@@ -0,0 +1,114 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class MetadataCacheTest
+{
+    @Test
+    void metadataFilesAndTheirChecksumsAreRecognized()
+    {
+        assertTrue( MetadataCache.isMetadata( "org/example/lib/maven-metadata.xml" ) );
+        assertTrue( MetadataCache.isMetadata( "org/example/lib/maven-metadata.xml.sha1" ) );
+        assertTrue( MetadataCache.isMetadata( "maven-metadata.xml" ) );
+        assertFalse( MetadataCache.isMetadata( "org/example/lib/maven-metadata-local.xml" ) );
+        assertFalse( MetadataCache.isMetadata( "org/example/lib/1.0/lib-1.0.pom" ) );
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvictedFirst()
+    {
+        // room for ten entries of ten bytes
+        MetadataCache cache = new MetadataCache( 100 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.put( "bucket", "key" + i, entry( 10 ) );
+        }
+        cache.get( "bucket", "key0" );
+        cache.put( "bucket", "key10", entry( 10 ) );
+
+        assertNotNull( cache.get( "bucket", "key0" ) );
+        assertNull( cache.get( "bucket", "key1" ) );
+        assertNotNull( cache.get( "bucket", "key2" ) );
+        assertNotNull( cache.get( "bucket", "key10" ) );
+
+        cache.put( "bucket", "key11", entry( 10 ) );
+        cache.put( "bucket", "key12", entry( 10 ) );
+        assertNull( cache.get( "bucket", "key3" ) );
+        assertNull( cache.get( "bucket", "key4" ) );
+        assertNotNull( cache.get( "bucket", "key0" ) );
+    }
+
+    @Test
+    void replacedAndInvalidatedEntriesGiveTheirRoomBack()
+    {
+        MetadataCache cache = new MetadataCache( 100 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.put( "bucket", "key" + i, entry( 10 ) );
+        }
+        cache.put( "bucket", "key0", entry( 5 ) );
+        cache.invalidate( "bucket", "key1" );
+        cache.put( "bucket", "key10", entry( 10 ) );
+        cache.put( "bucket", "key11", entry( 5 ) );
+
+        for ( int i = 2; i < 12; i++ )
+        {
+            assertNotNull( cache.get( "bucket", "key" + i ), "key" + i );
+        }
+        assertEquals( 5, cache.get( "bucket", "key0" ).getContent().length );
+        assertNull( cache.get( "bucket", "key1" ) );
+    }
+
+    @Test
+    void entriesOverATenthOfTheCacheAreNotKept()
+    {
+        MetadataCache cache = new MetadataCache( 100 );
+        cache.put( "bucket", "key", entry( 11 ) );
+
+        assertEquals( 10, cache.getMaximumEntrySize() );
+        assertNull( cache.get( "bucket", "key" ) );
+    }
+
+    @Test
+    void revalidationMakesAnEntryFreshAgain()
+        throws Exception
+    {
+        MetadataCache.Entry entry = entry( 1 );
+        Thread.sleep( 20 );
+        assertFalse( entry.isFresh( 10 ) );
+
+        entry.revalidated();
+        assertTrue( entry.isFresh( 60 * 1000 ) );
+        assertFalse( entry.isFresh( 0 ) );
+    }
+
+    private static MetadataCache.Entry entry( int size )
+    {
+        return new MetadataCache.Entry( new byte[size], "etag", 0 );
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class ParallelTransferTest
+{
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp()
+    {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void returnsTheResultsInTheOrderOfTheTransfers()
+        throws Exception
+    {
+        List<Supplier<CompletableFuture<Integer>>> transfers = new ArrayList<>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            final int value = i;
+            // the later transfers finish first
+            transfers.add( () -> CompletableFuture.supplyAsync( () -> {
+                sleep( 10 - value );
+                return value;
+            }, executor ) );
+        }
+        assertEquals( Arrays.asList( 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 ),
+                      ParallelTransfer.run( transfers, 4, 0, e -> false ) );
+    }
+
+    @Test
+    void keepsAtMostConcurrencyTransfersInFlight()
+        throws Exception
+    {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger highest = new AtomicInteger();
+        List<Supplier<CompletableFuture<Integer>>> transfers = new ArrayList<>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            transfers.add( () -> {
+                highest.accumulateAndGet( inFlight.incrementAndGet(), Math::max );
+                return CompletableFuture.supplyAsync( () -> {
+                    sleep( 5 );
+                    inFlight.decrementAndGet();
+                    return 0;
+                }, executor );
+            } );
+        }
+        ParallelTransfer.run( transfers, 3, 0, e -> false );
+        assertEquals( 3, highest.get() );
+    }
+
+    @Test
+    void startsARetryableFailureAgain()
+        throws Exception
+    {
+        AtomicInteger attempts = new AtomicInteger();
+        List<Supplier<CompletableFuture<String>>> transfers = Arrays.asList( () -> {
+            if ( attempts.incrementAndGet() < 3 )
+            {
+                return failed( new IOException( "connection reset" ) );
+            }
+            return CompletableFuture.completedFuture( "part" );
+        } );
+        assertEquals( Arrays.asList( "part" ), ParallelTransfer.run( transfers, 1, 3, e -> true ) );
+        assertEquals( 3, attempts.get() );
+    }
+
+    @Test
+    void givesUpOnceTheRetriesAreExhausted()
+    {
+        AtomicInteger attempts = new AtomicInteger();
+        IOException failure = new IOException( "connection reset" );
+        List<Supplier<CompletableFuture<String>>> transfers = Arrays.asList( () -> {
+            attempts.incrementAndGet();
+            return failed( failure );
+        } );
+        ExecutionException e =
+            assertThrows( ExecutionException.class, () -> ParallelTransfer.run( transfers, 1, 2, x -> true ) );
+        assertSame( failure, e.getCause() );
+        assertEquals( 3, attempts.get() );
+    }
+
+    @Test
+    void abortsOnAFailureThatIsNotRetryable()
+    {
+        AtomicInteger started = new AtomicInteger();
+        IllegalStateException failure = new IllegalStateException( "access denied" );
+        List<Supplier<CompletableFuture<String>>> transfers = new ArrayList<>();
+        transfers.add( () -> {
+            started.incrementAndGet();
+            return failed( failure );
+        } );
+        for ( int i = 0; i < 5; i++ )
+        {
+            transfers.add( () -> {
+                started.incrementAndGet();
+                return CompletableFuture.completedFuture( "part" );
+            } );
+        }
+        ExecutionException e = assertThrows( ExecutionException.class,
+                                             () -> ParallelTransfer.run( transfers, 1, 3, x -> false ) );
+        assertSame( failure, e.getCause() );
+        assertEquals( 1, started.get() );
+    }
+
+    @Test
+    void waitsForTheTransfersInFlightAndKeepsTheirFailures()
+    {
+        CountDownLatch failing = new CountDownLatch( 1 );
+        AtomicBoolean slowFinished = new AtomicBoolean();
+        IllegalStateException first = new IllegalStateException( "first" );
+        IllegalStateException second = new IllegalStateException( "second" );
+        List<Supplier<CompletableFuture<String>>> transfers = new ArrayList<>();
+        transfers.add( () -> CompletableFuture.supplyAsync( () -> {
+            await( failing );
+            throw first;
+        }, executor ) );
+        transfers.add( () -> CompletableFuture.supplyAsync( () -> {
+            failing.countDown();
+            sleep( 200 );
+            slowFinished.set( true );
+            throw second;
+        }, executor ) );
+        ExecutionException e = assertThrows( ExecutionException.class,
+                                             () -> ParallelTransfer.run( transfers, 2, 0, x -> false ) );
+        assertSame( first, e.getCause() );
+        assertTrue( slowFinished.get() );
+        assertEquals( Arrays.asList( second ), Arrays.asList( e.getSuppressed() ) );
+    }
+
+    @Test
+    void keepsTheInterruptOfTheWait()
+        throws Exception
+    {
+        CountDownLatch release = new CountDownLatch( 1 );
+        IllegalStateException failure = new IllegalStateException( "access denied" );
+        List<Supplier<CompletableFuture<String>>> transfers = new ArrayList<>();
+        transfers.add( () -> CompletableFuture.supplyAsync( () -> {
+            sleep( 50 );
+            throw failure;
+        }, executor ) );
+        transfers.add( () -> CompletableFuture.supplyAsync( () -> {
+            await( release );
+            return "part";
+        }, executor ) );
+        Thread caller = Thread.currentThread();
+        executor.execute( () -> {
+            sleep( 300 );
+            caller.interrupt();
+        } );
+        try
+        {
+            ExecutionException e = assertThrows( ExecutionException.class,
+                                                 () -> ParallelTransfer.run( transfers, 2, 0, x -> false ) );
+            assertSame( failure, e.getCause() );
+            assertTrue( e.getSuppressed()[0] instanceof InterruptedException );
+            assertTrue( Thread.interrupted() );
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    private static <R> CompletableFuture<R> failed( Throwable e )
+    {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        future.completeExceptionally( e );
+        return future;
+    }
+
+    private static void sleep( long millis )
+    {
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await( CountDownLatch latch )
+    {
+        try
+        {
+            latch.await( 10, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
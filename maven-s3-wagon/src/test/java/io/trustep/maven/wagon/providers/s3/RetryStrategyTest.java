@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import io.trustep.maven.wagon.providers.s3.RetryStrategy.Failure;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class RetryStrategyTest
+{
+    @Test
+    void slowDownAndTooManyRequestsAreThrottling()
+    {
+        assertEquals( Failure.THROTTLING, RetryStrategy.classify( s3Exception( 503, "SlowDown" ) ) );
+        assertEquals( Failure.THROTTLING, RetryStrategy.classify( s3Exception( 503, null ) ) );
+        assertEquals( Failure.THROTTLING, RetryStrategy.classify( s3Exception( 429, null ) ) );
+        assertEquals( Failure.THROTTLING, RetryStrategy.classify( s3Exception( 400, "Throttling" ) ) );
+    }
+
+    @Test
+    void serverErrorsClockSkewAndBrokenConnectionsAreTransient()
+    {
+        assertEquals( Failure.TRANSIENT, RetryStrategy.classify( s3Exception( 500, "InternalError" ) ) );
+        assertEquals( Failure.TRANSIENT, RetryStrategy.classify( s3Exception( 502, null ) ) );
+        assertEquals( Failure.TRANSIENT, RetryStrategy.classify( s3Exception( 403, "RequestTimeTooSkewed" ) ) );
+        assertEquals( Failure.TRANSIENT, RetryStrategy.classify( SdkClientException.create( "reset" ) ) );
+        assertEquals( Failure.TRANSIENT, RetryStrategy.classify( new SocketTimeoutException( "read timed out" ) ) );
+        assertEquals( Failure.TRANSIENT, RetryStrategy.classify( new IOException( "Premature EOF" ) ) );
+    }
+
+    @Test
+    void clientErrorsArePermanent()
+    {
+        assertEquals( Failure.PERMANENT, RetryStrategy.classify( s3Exception( 403, "AccessDenied" ) ) );
+        assertEquals( Failure.PERMANENT, RetryStrategy.classify( s3Exception( 400, "InvalidRequest" ) ) );
+        assertEquals( Failure.PERMANENT, RetryStrategy.classify( NoSuchKeyException.builder().statusCode( 404 )
+            .build() ) );
+        assertEquals( Failure.PERMANENT, RetryStrategy.classify( new IllegalStateException( "bug" ) ) );
+        assertFalse( RetryStrategy.isRetryable( s3Exception( 412, "PreconditionFailed" ) ) );
+        assertTrue( RetryStrategy.isRetryable( s3Exception( 503, "SlowDown" ) ) );
+    }
+
+    @Test
+    void backoffGrowsUpToItsBound()
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertTrue( RetryStrategy.backoffMillis( Failure.TRANSIENT, 0 ) <= 100 );
+            assertTrue( RetryStrategy.backoffMillis( Failure.TRANSIENT, 2 ) <= 400 );
+            assertTrue( RetryStrategy.backoffMillis( Failure.THROTTLING, 0 ) <= 500 );
+            long late = RetryStrategy.backoffMillis( Failure.THROTTLING, 40 );
+            assertTrue( late >= 0 && late <= 20000 );
+        }
+    }
+
+    @Test
+    void sdkPolicyRetriesAsConfigured()
+    {
+        assertEquals( 0, RetryStrategy.sdkPolicy( 0 ).numRetries().intValue() );
+        assertEquals( 5, RetryStrategy.sdkPolicy( 5 ).numRetries().intValue() );
+    }
+
+    private static S3Exception s3Exception( int status, String code )
+    {
+        return (S3Exception) S3Exception.builder().statusCode( status )
+            .awsErrorDetails( AwsErrorDetails.builder().errorCode( code ).build() ).build();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class S3ClientConfigurationTest
+{
+    @Test
+    void equalConfigurationsShareAClient()
+    {
+        S3ClientConfiguration first = configuration( "us-east-1", "AKIA", "secret", "http://localhost", http( 50 ) );
+        S3ClientConfiguration second = configuration( "us-east-1", "AKIA", "secret", "http://localhost", http( 50 ) );
+
+        assertEquals( first, second );
+        assertEquals( first.hashCode(), second.hashCode() );
+    }
+
+    @Test
+    void defaultCredentialsAndRegionAreEqualToo()
+    {
+        S3ClientConfiguration first = configuration( null, null, null, null, http( 50 ) );
+
+        assertEquals( first, configuration( null, null, null, null, http( 50 ) ) );
+        assertEquals( first.hashCode(), configuration( null, null, null, null, http( 50 ) ).hashCode() );
+        assertTrue( first.usesDefaultCredentials() );
+    }
+
+    @Test
+    void everySettingTellsConfigurationsApart()
+    {
+        S3ClientConfiguration reference =
+            configuration( "us-east-1", "AKIA", "secret", "http://localhost", http( 50 ) );
+
+        assertNotEquals( reference, configuration( "eu-west-1", "AKIA", "secret", "http://localhost", http( 50 ) ) );
+        assertNotEquals( reference, configuration( "us-east-1", "AKIB", "secret", "http://localhost", http( 50 ) ) );
+        assertNotEquals( reference, configuration( "us-east-1", "AKIA", "other", "http://localhost", http( 50 ) ) );
+        assertNotEquals( reference, configuration( "us-east-1", "AKIA", "secret", null, http( 50 ) ) );
+        assertNotEquals( reference, configuration( "us-east-1", "AKIA", "secret", "http://localhost", http( 10 ) ) );
+        assertNotEquals( reference, new S3ClientConfiguration( "us-east-1", "AKIA", "secret", "http://localhost",
+                                                               false, http( 50 ) ) );
+        assertNotEquals( reference, configuration( null, null, null, null, http( 50 ) ) );
+        assertFalse( reference.usesDefaultCredentials() );
+    }
+
+    @Test
+    void toStringLeavesTheSecretOut()
+    {
+        String description =
+            configuration( "us-east-1", "AKIA", "verysecret", "http://localhost", http( 50 ) ).toString();
+
+        assertTrue( description.contains( "AKIA" ) );
+        assertFalse( description.contains( "verysecret" ) );
+    }
+
+    @Test
+    void onlyBlockingClientsAreRateLimited()
+    {
+        HttpClientSettings adaptive =
+            new HttpClientSettings( HttpClientSettings.APACHE, 50, 0, false, 0, 0, 0, 0, 3, true );
+        int blocking = adaptive.overrideConfiguration( false ).executionInterceptors().size();
+        int async = adaptive.overrideConfiguration( true ).executionInterceptors().size();
+
+        assertEquals( http( 50 ).overrideConfiguration( false ).executionInterceptors().size() + 1, blocking );
+        assertEquals( blocking - 1, async );
+    }
+
+    private static S3ClientConfiguration configuration( String region, String accessKeyId, String secretAccessKey,
+                                                        String endpoint, HttpClientSettings http )
+    {
+        return new S3ClientConfiguration( region, accessKeyId, secretAccessKey, endpoint, true, http );
+    }
+
+    private static HttpClientSettings http( int maxConnections )
+    {
+        return new HttpClientSettings( HttpClientSettings.APACHE, maxConnections, 0, false, 0, 0, 0, 0, 3, false );
+    }
+}
@@ -0,0 +1,1009 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-memory stand-in for S3, served by the HTTP server of the JDK on the loopback interface, implementing what the
+ * S3 wagon uses: objects with user metadata, conditional and ranged gets, multipart uploads, ListObjectsV2 and
+ * DeleteObjects. Buckets are addressed in the path and requests are not authenticated. ETags are the MD5 of the
+ * content, as S3 computes them, so that the SDK checksum validation passes.
+ * <p>
+ * Every request can be slowed down by a fixed latency, before anything is read, and by a bandwidth cap applied to each
+ * request and response body; the first request of a connection can wait longer still, as if it paid for the TCP and
+ * TLS handshakes this plain HTTP server does not have. A given share of the requests is answered with
+ * {@code 503 Slow Down}, as S3 does when throttling.
+ * <p>
+ * Every request is recorded, so that tests can tell what the wagon sent, and given requests can be made to fail with
+ * a given status, to see how the wagon recovers.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+public final class S3Emulator
+    implements AutoCloseable
+{
+    private static final int CHUNK = 16 * 1024;
+
+    private static final Pattern RANGE = Pattern.compile( "bytes=(\\d+)-(\\d*)" );
+
+    private static final Pattern PART = Pattern.compile( "<PartNumber>(\\d+)</PartNumber>" );
+
+    private static final Pattern KEY = Pattern.compile( "<Key>([^<]*)</Key>" );
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+
+    private volatile long latencyMillis;
+
+    private volatile long handshakeMillis;
+
+    private volatile long bandwidth;
+
+    private volatile double errorRate;
+
+    /**
+     * Starts serving on an ephemeral port of the loopback interface.
+     */
+    public S3Emulator()
+        throws IOException
+    {
+        this.server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+        this.executor = Executors.newCachedThreadPool( runnable -> {
+            Thread thread = new Thread( runnable, "s3-emulator" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        server.setExecutor( executor );
+        server.createContext( "/", this::handle );
+        server.start();
+    }
+
+    /**
+     * @return the endpoint to give to the wagon, along with path style access
+     */
+    public String getEndpoint()
+    {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @param latencyMillis milliseconds every request waits before it is handled
+     */
+    public void setLatencyMillis( long latencyMillis )
+    {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param handshakeMillis milliseconds the first request of a connection waits on top of the latency
+     */
+    public void setHandshakeMillis( long handshakeMillis )
+    {
+        this.handshakeMillis = handshakeMillis;
+    }
+
+    /**
+     * @param bandwidth bytes per second each request or response body is read or written at; 0 means no limit
+     */
+    public void setBandwidth( long bandwidth )
+    {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * @param errorRate the share of requests, between 0 and 1, answered with {@code 503 Slow Down}
+     */
+    public void setErrorRate( double errorRate )
+    {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Answers the next {@code times} requests matching {@code matcher} with {@code status} rather than handling them.
+     */
+    public void failNext( Predicate<Request> matcher, int status, int times )
+    {
+        failures.add( new Failure( matcher, status, times ) );
+    }
+
+    /**
+     * @return the requests received so far, in the order they arrived
+     */
+    public List<Request> getRequests()
+    {
+        return new ArrayList<>( requests );
+    }
+
+    /**
+     * @return the requests received so far with {@code method} on the object {@code key}
+     */
+    public List<Request> getRequests( String method, String key )
+    {
+        List<Request> matching = new ArrayList<>();
+        for ( Request request : requests )
+        {
+            if ( request.is( method, key ) )
+            {
+                matching.add( request );
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Forgets the requests received so far.
+     */
+    public void clearRequests()
+    {
+        requests.clear();
+    }
+
+    /**
+     * @return how many multipart uploads were started and neither completed nor aborted
+     */
+    public int getUploadCount()
+    {
+        return uploads.size();
+    }
+
+    /**
+     * Stores an object directly, without going through HTTP.
+     */
+    public void putObject( String bucket, String key, byte[] content )
+    {
+        putObject( bucket, key, content, Collections.emptyMap() );
+    }
+
+    /**
+     * Stores an object with user metadata, named without the {@code x-amz-meta-} prefix, directly.
+     */
+    public void putObject( String bucket, String key, byte[] content, Map<String, String> metadata )
+    {
+        objects.put( bucket + "/" + key, new StoredObject( content, md5( content ), metadata ) );
+    }
+
+    /**
+     * @return the content of an object, or {@code null}
+     */
+    public byte[] getObject( String bucket, String key )
+    {
+        StoredObject object = objects.get( bucket + "/" + key );
+        return object == null ? null : object.content;
+    }
+
+    /**
+     * @return the ETag of an object, without quotes, or {@code null}
+     */
+    public String getETag( String bucket, String key )
+    {
+        StoredObject object = objects.get( bucket + "/" + key );
+        return object == null ? null : object.eTag;
+    }
+
+    /**
+     * @return the keys of the objects of {@code bucket}, in order
+     */
+    public List<String> getKeys( String bucket )
+    {
+        List<String> keys = new ArrayList<>();
+        for ( String path : objects.tailMap( bucket + "/" ).keySet() )
+        {
+            if ( !path.startsWith( bucket + "/" ) )
+            {
+                break;
+            }
+            keys.add( path.substring( bucket.length() + 1 ) );
+        }
+        return keys;
+    }
+
+    /**
+     * Deletes every object and pending upload.
+     */
+    public void clear()
+    {
+        objects.clear();
+        uploads.clear();
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop( 0 );
+        executor.shutdownNow();
+    }
+
+    private void handle( HttpExchange exchange )
+        throws IOException
+    {
+        try
+        {
+            if ( latencyMillis > 0 )
+            {
+                Thread.sleep( latencyMillis );
+            }
+            // a connection is told apart by the port of the client
+            if ( handshakeMillis > 0 && connections.add( exchange.getRemoteAddress() ) )
+            {
+                Thread.sleep( handshakeMillis );
+            }
+            byte[] body = readBody( exchange );
+            if ( errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate )
+            {
+                error( exchange, 503, "SlowDown", "Please reduce your request rate." );
+                return;
+            }
+            String path = decode( exchange.getRequestURI().getRawPath() ).substring( 1 );
+            int slash = path.indexOf( '/' );
+            String bucket = slash < 0 ? path : path.substring( 0, slash );
+            String key = slash < 0 ? "" : path.substring( slash + 1 );
+            Map<String, String> query = parseQuery( exchange.getRequestURI().getRawQuery() );
+            String method = exchange.getRequestMethod();
+            Request request = new Request( method, bucket, key, query, exchange.getRequestHeaders() );
+            requests.add( request );
+            for ( Failure failure : failures )
+            {
+                if ( failure.matcher.test( request ) && failure.remaining.getAndDecrement() > 0 )
+                {
+                    error( exchange, failure.status, errorCode( failure.status ), "Failure injected by the test." );
+                    return;
+                }
+            }
+            if ( key.isEmpty() )
+            {
+                handleBucket( exchange, method, bucket, query, body );
+            }
+            else
+            {
+                handleObject( exchange, method, bucket, key, query, body );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch ( RuntimeException e )
+        {
+            error( exchange, 500, "InternalError", String.valueOf( e ) );
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void handleBucket( HttpExchange exchange, String method, String bucket, Map<String, String> query,
+                               byte[] body )
+        throws IOException, InterruptedException
+    {
+        if ( "GET".equals( method ) && query.containsKey( "uploads" ) )
+        {
+            listUploads( exchange, bucket, query.getOrDefault( "prefix", "" ) );
+        }
+        else if ( "GET".equals( method ) )
+        {
+            listObjects( exchange, bucket, query );
+        }
+        else if ( "HEAD".equals( method ) )
+        {
+            empty( exchange, 200 );
+        }
+        else if ( "POST".equals( method ) && query.containsKey( "delete" ) )
+        {
+            Matcher keys = KEY.matcher( new String( body, StandardCharsets.UTF_8 ) );
+            StringBuilder xml = new StringBuilder( "<DeleteResult>" );
+            while ( keys.find() )
+            {
+                String key = unescape( keys.group( 1 ) );
+                objects.remove( bucket + "/" + key );
+                xml.append( "<Deleted><Key>" ).append( escape( key ) ).append( "</Key></Deleted>" );
+            }
+            xml( exchange, 200, xml.append( "</DeleteResult>" ) );
+        }
+        else
+        {
+            error( exchange, 501, "NotImplemented", method + " on a bucket is not implemented" );
+        }
+    }
+
+    private void handleObject( HttpExchange exchange, String method, String bucket, String key,
+                               Map<String, String> query, byte[] body )
+        throws IOException, InterruptedException
+    {
+        String uploadId = query.get( "uploadId" );
+        if ( "PUT".equals( method ) && uploadId != null )
+        {
+            Upload upload = uploads.get( uploadId );
+            if ( upload == null )
+            {
+                error( exchange, 404, "NoSuchUpload", "The specified upload does not exist." );
+                return;
+            }
+            String eTag = md5( body );
+            upload.parts.put( Integer.valueOf( query.get( "partNumber" ) ), new StoredObject( body, eTag, null ) );
+            exchange.getResponseHeaders().set( "ETag", quote( eTag ) );
+            empty( exchange, 200 );
+        }
+        else if ( "PUT".equals( method ) )
+        {
+            String eTag = md5( body );
+            objects.put( bucket + "/" + key, new StoredObject( body, eTag, userMetadata( exchange ) ) );
+            exchange.getResponseHeaders().set( "ETag", quote( eTag ) );
+            empty( exchange, 200 );
+        }
+        else if ( "POST".equals( method ) && query.containsKey( "uploads" ) )
+        {
+            String id = UUID.randomUUID().toString();
+            uploads.put( id, new Upload( bucket, key, userMetadata( exchange ) ) );
+            xml( exchange, 200, new StringBuilder( "<InitiateMultipartUploadResult><Bucket>" ).append( bucket )
+                .append( "</Bucket><Key>" ).append( escape( key ) ).append( "</Key><UploadId>" ).append( id )
+                .append( "</UploadId></InitiateMultipartUploadResult>" ) );
+        }
+        else if ( "POST".equals( method ) && uploadId != null )
+        {
+            completeUpload( exchange, bucket, key, uploadId, body );
+        }
+        else if ( "DELETE".equals( method ) && uploadId != null )
+        {
+            uploads.remove( uploadId );
+            empty( exchange, 204 );
+        }
+        else if ( "DELETE".equals( method ) )
+        {
+            objects.remove( bucket + "/" + key );
+            empty( exchange, 204 );
+        }
+        else if ( "GET".equals( method ) && uploadId != null )
+        {
+            listParts( exchange, uploadId );
+        }
+        else if ( "GET".equals( method ) || "HEAD".equals( method ) )
+        {
+            getObject( exchange, "HEAD".equals( method ), bucket, key );
+        }
+        else
+        {
+            error( exchange, 501, "NotImplemented", method + " on an object is not implemented" );
+        }
+    }
+
+    private void getObject( HttpExchange exchange, boolean head, String bucket, String key )
+        throws IOException, InterruptedException
+    {
+        StoredObject object = objects.get( bucket + "/" + key );
+        if ( object == null )
+        {
+            if ( head )
+            {
+                empty( exchange, 404 );
+            }
+            else
+            {
+                error( exchange, 404, "NoSuchKey", "The specified key does not exist." );
+            }
+            return;
+        }
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        response.set( "ETag", quote( object.eTag ) );
+        response.set( "Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME
+            .format( ZonedDateTime.ofInstant( object.lastModified, ZoneOffset.UTC ) ) );
+        response.set( "Accept-Ranges", "bytes" );
+        for ( Map.Entry<String, String> entry : object.metadata.entrySet() )
+        {
+            response.set( "x-amz-meta-" + entry.getKey(), entry.getValue() );
+        }
+        String ifMatch = request.getFirst( "If-Match" );
+        if ( ifMatch != null && !unquote( ifMatch ).equals( object.eTag ) )
+        {
+            error( exchange, 412, "PreconditionFailed", "The ETag does not match." );
+            return;
+        }
+        String ifNoneMatch = request.getFirst( "If-None-Match" );
+        String ifModifiedSince = request.getFirst( "If-Modified-Since" );
+        if ( ( ifNoneMatch != null && unquote( ifNoneMatch ).equals( object.eTag ) ) || ( ifNoneMatch == null
+            && ifModifiedSince != null && !object.lastModified.isAfter( parseDate( ifModifiedSince ) ) ) )
+        {
+            empty( exchange, 304 );
+            return;
+        }
+        long length = object.content.length;
+        long start = 0;
+        long end = length - 1;
+        int status = 200;
+        String range = request.getFirst( "Range" );
+        if ( range != null )
+        {
+            Matcher matcher = RANGE.matcher( range );
+            if ( !matcher.matches() || Long.parseLong( matcher.group( 1 ) ) >= length )
+            {
+                error( exchange, 416, "InvalidRange", "The requested range is not satisfiable." );
+                return;
+            }
+            start = Long.parseLong( matcher.group( 1 ) );
+            if ( !matcher.group( 2 ).isEmpty() )
+            {
+                end = Math.min( end, Long.parseLong( matcher.group( 2 ) ) );
+            }
+            status = 206;
+            response.set( "Content-Range", "bytes " + start + "-" + end + "/" + length );
+        }
+        response.set( "Content-Type", "application/octet-stream" );
+        if ( head )
+        {
+            response.set( "Content-Length", Long.toString( length ) );
+            exchange.sendResponseHeaders( status, -1 );
+            return;
+        }
+        long count = end - start + 1;
+        exchange.sendResponseHeaders( status, count == 0 ? -1 : count );
+        try ( OutputStream out = exchange.getResponseBody() )
+        {
+            write( out, object.content, (int) start, (int) count );
+        }
+    }
+
+    private void completeUpload( HttpExchange exchange, String bucket, String key, String uploadId, byte[] body )
+        throws IOException, InterruptedException
+    {
+        Upload upload = uploads.remove( uploadId );
+        if ( upload == null )
+        {
+            error( exchange, 404, "NoSuchUpload", "The specified upload does not exist." );
+            return;
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream digests = new ByteArrayOutputStream();
+        Matcher parts = PART.matcher( new String( body, StandardCharsets.UTF_8 ) );
+        int count = 0;
+        while ( parts.find() )
+        {
+            StoredObject part = upload.parts.get( Integer.valueOf( parts.group( 1 ) ) );
+            if ( part == null )
+            {
+                error( exchange, 400, "InvalidPart", "One or more of the specified parts could not be found." );
+                return;
+            }
+            content.write( part.content );
+            digests.write( hexToBytes( part.eTag ) );
+            count++;
+        }
+        String eTag = md5( digests.toByteArray() ) + "-" + count;
+        objects.put( bucket + "/" + key, new StoredObject( content.toByteArray(), eTag, upload.metadata ) );
+        xml( exchange, 200, new StringBuilder( "<CompleteMultipartUploadResult><Bucket>" ).append( bucket )
+            .append( "</Bucket><Key>" ).append( escape( key ) ).append( "</Key><ETag>" ).append( quote( eTag ) )
+            .append( "</ETag></CompleteMultipartUploadResult>" ) );
+    }
+
+    private void listParts( HttpExchange exchange, String uploadId )
+        throws IOException, InterruptedException
+    {
+        Upload upload = uploads.get( uploadId );
+        if ( upload == null )
+        {
+            error( exchange, 404, "NoSuchUpload", "The specified upload does not exist." );
+            return;
+        }
+        StringBuilder xml =
+            new StringBuilder( "<ListPartsResult><UploadId>" ).append( uploadId ).append( "</UploadId>" );
+        for ( Map.Entry<Integer, StoredObject> part : new TreeMap<>( upload.parts ).entrySet() )
+        {
+            xml.append( "<Part><PartNumber>" ).append( part.getKey() ).append( "</PartNumber><ETag>" )
+                .append( quote( part.getValue().eTag ) ).append( "</ETag><Size>" )
+                .append( part.getValue().content.length ).append( "</Size></Part>" );
+        }
+        xml( exchange, 200, xml.append( "<IsTruncated>false</IsTruncated></ListPartsResult>" ) );
+    }
+
+    private void listUploads( HttpExchange exchange, String bucket, String prefix )
+        throws IOException, InterruptedException
+    {
+        StringBuilder xml = new StringBuilder( "<ListMultipartUploadsResult><Bucket>" ).append( bucket )
+            .append( "</Bucket>" );
+        for ( Map.Entry<String, Upload> entry : uploads.entrySet() )
+        {
+            Upload upload = entry.getValue();
+            if ( upload.bucket.equals( bucket ) && upload.key.startsWith( prefix ) )
+            {
+                xml.append( "<Upload><Key>" ).append( escape( upload.key ) ).append( "</Key><UploadId>" )
+                    .append( entry.getKey() ).append( "</UploadId><Initiated>" ).append( upload.initiated )
+                    .append( "</Initiated></Upload>" );
+            }
+        }
+        xml( exchange, 200, xml.append( "<IsTruncated>false</IsTruncated></ListMultipartUploadsResult>" ) );
+    }
+
+    private void listObjects( HttpExchange exchange, String bucket, Map<String, String> query )
+        throws IOException, InterruptedException
+    {
+        String prefix = query.getOrDefault( "prefix", "" );
+        String delimiter = query.get( "delimiter" );
+        int maxKeys = Integer.parseInt( query.getOrDefault( "max-keys", "1000" ) );
+        String after = query.getOrDefault( "continuation-token", query.getOrDefault( "start-after", "" ) );
+        String from = bucket + "/" + prefix;
+        StringBuilder contents = new StringBuilder();
+        TreeSet<String> prefixes = new TreeSet<>();
+        int count = 0;
+        String last = null;
+        boolean truncated = false;
+        for ( Map.Entry<String, StoredObject> entry : objects.tailMap( from ).entrySet() )
+        {
+            if ( !entry.getKey().startsWith( from ) )
+            {
+                break;
+            }
+            String key = entry.getKey().substring( bucket.length() + 1 );
+            int cut = delimiter == null ? -1 : key.indexOf( delimiter, prefix.length() );
+            String name = cut < 0 ? key : key.substring( 0, cut + delimiter.length() );
+            if ( name.compareTo( after ) <= 0 || name.equals( last ) )
+            {
+                continue;
+            }
+            if ( count == maxKeys )
+            {
+                truncated = true;
+                break;
+            }
+            if ( cut < 0 )
+            {
+                StoredObject object = entry.getValue();
+                contents.append( "<Contents><Key>" ).append( escape( key ) ).append( "</Key><LastModified>" )
+                    .append( object.lastModified ).append( "</LastModified><ETag>" ).append( quote( object.eTag ) )
+                    .append( "</ETag><Size>" ).append( object.content.length )
+                    .append( "</Size><StorageClass>STANDARD</StorageClass></Contents>" );
+            }
+            else
+            {
+                prefixes.add( name );
+            }
+            last = name;
+            count++;
+        }
+        StringBuilder xml = new StringBuilder( "<ListBucketResult><Name>" ).append( bucket ).append( "</Name><Prefix>" )
+            .append( escape( prefix ) ).append( "</Prefix><KeyCount>" ).append( count ).append( "</KeyCount><MaxKeys>" )
+            .append( maxKeys ).append( "</MaxKeys><IsTruncated>" ).append( truncated ).append( "</IsTruncated>" );
+        if ( truncated )
+        {
+            xml.append( "<NextContinuationToken>" ).append( escape( last ) ).append( "</NextContinuationToken>" );
+        }
+        xml.append( contents );
+        for ( String common : prefixes )
+        {
+            xml.append( "<CommonPrefixes><Prefix>" ).append( escape( common ) ).append( "</Prefix></CommonPrefixes>" );
+        }
+        xml( exchange, 200, xml.append( "</ListBucketResult>" ) );
+    }
+
+    /**
+     * Reads the whole request body at the bandwidth cap, decoding the signed chunks the SDK sends over plain HTTP.
+     */
+    private byte[] readBody( HttpExchange exchange )
+        throws IOException, InterruptedException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        long started = System.nanoTime();
+        byte[] buffer = new byte[CHUNK];
+        try ( InputStream in = exchange.getRequestBody() )
+        {
+            int read;
+            while ( ( read = in.read( buffer ) ) >= 0 )
+            {
+                body.write( buffer, 0, read );
+                throttle( started, body.size() );
+            }
+        }
+        String sha256 = exchange.getRequestHeaders().getFirst( "x-amz-content-sha256" );
+        if ( sha256 != null && sha256.startsWith( "STREAMING-" ) )
+        {
+            return decodeChunks( body.toByteArray() );
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Strips the {@code aws-chunked} framing: {@code <hex size>;chunk-signature=<signature>\r\n<data>\r\n}, ending
+     * with an empty chunk.
+     */
+    private static byte[] decodeChunks( byte[] chunked )
+    {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream( chunked.length );
+        int position = 0;
+        while ( position < chunked.length )
+        {
+            int lineEnd = position;
+            while ( chunked[lineEnd] != '\r' )
+            {
+                lineEnd++;
+            }
+            String header = new String( chunked, position, lineEnd - position, StandardCharsets.US_ASCII );
+            int semicolon = header.indexOf( ';' );
+            int size = Integer.parseInt( semicolon < 0 ? header : header.substring( 0, semicolon ), 16 );
+            if ( size == 0 )
+            {
+                break;
+            }
+            decoded.write( chunked, lineEnd + 2, size );
+            position = lineEnd + 2 + size + 2;
+        }
+        return decoded.toByteArray();
+    }
+
+    private void write( OutputStream out, byte[] content, int offset, int length )
+        throws IOException, InterruptedException
+    {
+        long started = System.nanoTime();
+        int written = 0;
+        while ( written < length )
+        {
+            int count = Math.min( CHUNK, length - written );
+            out.write( content, offset + written, count );
+            written += count;
+            throttle( started, written );
+        }
+    }
+
+    /**
+     * Sleeps until {@code transferred} bytes are due at the bandwidth cap.
+     */
+    private void throttle( long startedNanos, long transferred )
+        throws InterruptedException
+    {
+        long cap = bandwidth;
+        if ( cap <= 0 )
+        {
+            return;
+        }
+        long due = startedNanos + TimeUnit.SECONDS.toNanos( 1 ) * transferred / cap;
+        long wait = due - System.nanoTime();
+        if ( wait > 0 )
+        {
+            TimeUnit.NANOSECONDS.sleep( wait );
+        }
+    }
+
+    private void xml( HttpExchange exchange, int status, CharSequence xml )
+        throws IOException, InterruptedException
+    {
+        byte[] body = ( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + xml ).getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "application/xml" );
+        exchange.sendResponseHeaders( status, body.length );
+        try ( OutputStream out = exchange.getResponseBody() )
+        {
+            write( out, body, 0, body.length );
+        }
+    }
+
+    private static void empty( HttpExchange exchange, int status )
+        throws IOException
+    {
+        exchange.sendResponseHeaders( status, -1 );
+    }
+
+    private void error( HttpExchange exchange, int status, String code, String message )
+        throws IOException
+    {
+        exchange.getResponseHeaders().set( "Content-Type", "application/xml" );
+        if ( "HEAD".equals( exchange.getRequestMethod() ) )
+        {
+            empty( exchange, status );
+            return;
+        }
+        byte[] body = ( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Error><Code>" + code + "</Code><Message>"
+            + escape( message ) + "</Message><RequestId>" + UUID.randomUUID() + "</RequestId></Error>" )
+                .getBytes( StandardCharsets.UTF_8 );
+        exchange.sendResponseHeaders( status, body.length );
+        try ( OutputStream out = exchange.getResponseBody() )
+        {
+            out.write( body );
+        }
+    }
+
+    private static String errorCode( int status )
+    {
+        switch ( status )
+        {
+            case 403:
+                return "AccessDenied";
+            case 404:
+                return "NoSuchKey";
+            case 503:
+                return "SlowDown";
+            default:
+                return status >= 500 ? "InternalError" : "InvalidRequest";
+        }
+    }
+
+    private static Map<String, String> userMetadata( HttpExchange exchange )
+    {
+        Map<String, String> metadata = new HashMap<>();
+        for ( Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet() )
+        {
+            String name = header.getKey().toLowerCase();
+            if ( name.startsWith( "x-amz-meta-" ) && !header.getValue().isEmpty() )
+            {
+                metadata.put( name.substring( "x-amz-meta-".length() ), header.getValue().get( 0 ) );
+            }
+        }
+        return metadata;
+    }
+
+    private static Map<String, String> parseQuery( String rawQuery )
+    {
+        Map<String, String> query = new HashMap<>();
+        if ( rawQuery == null || rawQuery.isEmpty() )
+        {
+            return query;
+        }
+        for ( String parameter : rawQuery.split( "&" ) )
+        {
+            int equals = parameter.indexOf( '=' );
+            if ( equals < 0 )
+            {
+                query.put( decode( parameter ), "" );
+            }
+            else
+            {
+                query.put( decode( parameter.substring( 0, equals ) ), decode( parameter.substring( equals + 1 ) ) );
+            }
+        }
+        return query;
+    }
+
+    private static String decode( String encoded )
+    {
+        try
+        {
+            return URLDecoder.decode( encoded.replace( "+", "%2B" ), "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static Instant parseDate( String date )
+    {
+        return ZonedDateTime.parse( date, DateTimeFormatter.RFC_1123_DATE_TIME ).toInstant();
+    }
+
+    private static String md5( byte[] content )
+    {
+        try
+        {
+            StringBuilder hex = new StringBuilder( 32 );
+            for ( byte b : MessageDigest.getInstance( "MD5" ).digest( content ) )
+            {
+                hex.append( String.format( "%02x", b ) );
+            }
+            return hex.toString();
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static byte[] hexToBytes( String hex )
+    {
+        byte[] bytes = new byte[hex.length() / 2];
+        for ( int i = 0; i < bytes.length; i++ )
+        {
+            bytes[i] = (byte) Integer.parseInt( hex.substring( 2 * i, 2 * i + 2 ), 16 );
+        }
+        return bytes;
+    }
+
+    private static String quote( String eTag )
+    {
+        return "\"" + eTag + "\"";
+    }
+
+    private static String unquote( String eTag )
+    {
+        return eTag.startsWith( "\"" ) && eTag.endsWith( "\"" ) ? eTag.substring( 1, eTag.length() - 1 ) : eTag;
+    }
+
+    private static String escape( String text )
+    {
+        return text.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" ).replace( "\"", "&quot;" );
+    }
+
+    private static String unescape( String text )
+    {
+        return text.replace( "&lt;", "<" ).replace( "&gt;", ">" ).replace( "&quot;", "\"" ).replace( "&amp;", "&" );
+    }
+
+    private static final class StoredObject
+    {
+        private final byte[] content;
+
+        private final String eTag;
+
+        private final Map<String, String> metadata;
+
+        // S3 keeps dates to the second, conditional gets compare them that way
+        private final Instant lastModified = Instant.now().truncatedTo( ChronoUnit.SECONDS );
+
+        private StoredObject( byte[] content, String eTag, Map<String, String> metadata )
+        {
+            this.content = content;
+            this.eTag = eTag;
+            this.metadata = metadata == null ? Collections.<String, String>emptyMap() : metadata;
+        }
+    }
+
+    private static final class Upload
+    {
+        private final String bucket;
+
+        private final String key;
+
+        private final Map<String, String> metadata;
+
+        private final Instant initiated = Instant.now();
+
+        private final Map<Integer, StoredObject> parts = new ConcurrentHashMap<>();
+
+        private Upload( String bucket, String key, Map<String, String> metadata )
+        {
+            this.bucket = bucket;
+            this.key = key;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * A request received by the emulator.
+     */
+    public static final class Request
+    {
+        private final String method;
+
+        private final String bucket;
+
+        private final String key;
+
+        private final Map<String, String> query;
+
+        private final Headers headers;
+
+        private Request( String method, String bucket, String key, Map<String, String> query, Headers headers )
+        {
+            this.method = method;
+            this.bucket = bucket;
+            this.key = key;
+            this.query = query;
+            this.headers = headers;
+        }
+
+        public String getMethod()
+        {
+            return method;
+        }
+
+        public String getBucket()
+        {
+            return bucket;
+        }
+
+        /**
+         * @return the key of the object, empty for a request on the bucket
+         */
+        public String getKey()
+        {
+            return key;
+        }
+
+        /**
+         * @return the value of a parameter of the query string, or {@code null}
+         */
+        public String getQuery( String name )
+        {
+            return query.get( name );
+        }
+
+        /**
+         * @return the first value of a header, or {@code null}
+         */
+        public String getHeader( String name )
+        {
+            return headers.getFirst( name );
+        }
+
+        /**
+         * @return whether this is a {@code method} request on the object {@code key}
+         */
+        public boolean is( String method, String key )
+        {
+            return this.method.equals( method ) && this.key.equals( key );
+        }
+
+        @Override
+        public String toString()
+        {
+            return method + " /" + bucket + "/" + key + ( query.isEmpty() ? "" : "?" + query );
+        }
+    }
+
+    private static final class Failure
+    {
+        private final Predicate<Request> matcher;
+
+        private final int status;
+
+        private final AtomicInteger remaining;
+
+        private Failure( Predicate<Request> matcher, int status, int times )
+        {
+            this.matcher = matcher;
+            this.status = status;
+            this.remaining = new AtomicInteger( times );
+        }
+    }
+}
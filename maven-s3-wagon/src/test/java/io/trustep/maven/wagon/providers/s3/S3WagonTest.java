@@ -0,0 +1,723 @@
+/*
+ *    Copyright 2020 - Trustep Servicos de Informatica Ltda
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package io.trustep.maven.wagon.providers.s3;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.management.ObjectName;
+
+import org.apache.maven.wagon.TransferFailedException;
+import org.apache.maven.wagon.authentication.AuthenticationInfo;
+import org.apache.maven.wagon.events.TransferEvent;
+import org.apache.maven.wagon.observers.AbstractTransferListener;
+import org.apache.maven.wagon.repository.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the wagon against the {@link S3Emulator}. Every test uses a bucket of its own, since the caches of the wagon
+ * are shared by the whole JVM.
+ *
+ * @author <a href="gilcesarf@trustpe.io">Gil Cesar Faria</a>
+ */
+class S3WagonTest
+{
+    private static final String BASE_DIRECTORY = "repository";
+
+    private static final int MIB = 1024 * 1024;
+
+    private static final AtomicInteger BUCKETS = new AtomicInteger();
+
+    @TempDir
+    Path directory;
+
+    private S3Emulator emulator;
+
+    private String bucket;
+
+    private S3Wagon wagon;
+
+    @BeforeEach
+    void setUp()
+        throws IOException
+    {
+        emulator = new S3Emulator();
+        bucket = "test-" + BUCKETS.incrementAndGet();
+        wagon = newWagon( emulator );
+    }
+
+    private static S3Wagon newWagon( S3Emulator emulator )
+    {
+        S3Wagon wagon = new S3Wagon();
+        wagon.setEndpoint( emulator.getEndpoint() );
+        wagon.setPathStyleAccess( true );
+        wagon.setRegion( "us-east-1" );
+        wagon.setClientIdleTimeout( 0 );
+        // failures injected by the tests must reach the wagon, not be hidden by the retries of the SDK
+        wagon.setMaxRetries( 0 );
+        wagon.setMultipartRetries( 0 );
+        return wagon;
+    }
+
+    @AfterEach
+    void tearDown()
+        throws Exception
+    {
+        if ( wagon.getRepository() != null )
+        {
+            wagon.disconnect();
+        }
+        emulator.close();
+    }
+
+    @Test
+    void multipartPutStoresTheWholeFile()
+        throws Exception
+    {
+        configureMultipart( 2 );
+        connect();
+        byte[] content = random( 12 * MIB );
+        wagon.put( file( "big.jar", content ), "big.jar" );
+
+        assertArrayEquals( content, remote( "big.jar" ) );
+        assertTrue( emulator.getETag( bucket, key( "big.jar" ) ).endsWith( "-3" ) );
+        assertEquals( 3, partPuts( "big.jar" ).size() );
+        assertEquals( 0, emulator.getUploadCount() );
+    }
+
+    @Test
+    void multipartPutAbortsOnPermanentFailure()
+        throws Exception
+    {
+        configureMultipart( 1 );
+        connect();
+        File source = file( "big.jar", random( 12 * MIB ) );
+        emulator.failNext( r -> r.is( "PUT", key( "big.jar" ) ) && "2".equals( r.getQuery( "partNumber" ) ), 403, 1 );
+
+        assertThrows( TransferFailedException.class, () -> wagon.put( source, "big.jar" ) );
+        assertEquals( 0, emulator.getUploadCount() );
+        assertNull( remote( "big.jar" ) );
+        assertFalse( new File( source.getPath() + ".s3upload" ).exists() );
+    }
+
+    @Test
+    void multipartPutContinuesAfterTransientFailure()
+        throws Exception
+    {
+        configureMultipart( 1 );
+        connect();
+        byte[] content = random( 12 * MIB );
+        File source = file( "big.jar", content );
+        emulator.failNext( r -> r.is( "PUT", key( "big.jar" ) ) && "2".equals( r.getQuery( "partNumber" ) ), 500, 1 );
+
+        assertThrows( TransferFailedException.class, () -> wagon.put( source, "big.jar" ) );
+        assertEquals( 1, emulator.getUploadCount() );
+        assertTrue( new File( source.getPath() + ".s3upload" ).exists() );
+
+        emulator.clearRequests();
+        wagon.put( source, "big.jar" );
+
+        assertArrayEquals( content, remote( "big.jar" ) );
+        for ( S3Emulator.Request part : partPuts( "big.jar" ) )
+        {
+            assertFalse( "1".equals( part.getQuery( "partNumber" ) ), "part 1 was sent again" );
+        }
+        assertEquals( 0, emulator.getUploadCount() );
+        assertFalse( new File( source.getPath() + ".s3upload" ).exists() );
+    }
+
+    @Test
+    void rangedGetFetchesEveryRange()
+        throws Exception
+    {
+        wagon.setRangedGetPartSize( MIB );
+        wagon.setRangedGetConcurrency( 4 );
+        connect();
+        byte[] content = random( 3 * MIB + 10 );
+        emulator.putObject( bucket, key( "big.jar" ), content );
+
+        File destination = directory.resolve( "big.jar" ).toFile();
+        wagon.get( "big.jar", destination );
+
+        assertArrayEquals( content, Files.readAllBytes( destination.toPath() ) );
+        List<S3Emulator.Request> gets = emulator.getRequests( "GET", key( "big.jar" ) );
+        assertEquals( 4, gets.size() );
+        for ( S3Emulator.Request get : gets )
+        {
+            assertNotNull( get.getHeader( "Range" ) );
+        }
+    }
+
+    @Test
+    void asyncRangedGetFetchesEveryRange()
+        throws Exception
+    {
+        wagon.setTransferEngine( S3Wagon.TRANSFER_ENGINE_ASYNC );
+        wagon.setRangedGetPartSize( MIB );
+        wagon.setRangedGetConcurrency( 4 );
+        connect();
+        byte[] content = random( 3 * MIB + 10 );
+        emulator.putObject( bucket, key( "big.jar" ), content );
+
+        File destination = directory.resolve( "big.jar" ).toFile();
+        wagon.get( "big.jar", destination );
+
+        assertArrayEquals( content, Files.readAllBytes( destination.toPath() ) );
+        assertEquals( 4, emulator.getRequests( "GET", key( "big.jar" ) ).size() );
+    }
+
+    @Test
+    void smallObjectAboveTheThresholdIsDownloadedLikeAnyOther()
+        throws Exception
+    {
+        wagon.setSmallObjectThreshold( 1024 );
+        wagon.setRangedGetPartSize( MIB );
+        wagon.setRangedGetConcurrency( 4 );
+        connect();
+        byte[] small = random( 1000 );
+        byte[] big = random( 3 * MIB + 10 );
+        emulator.putObject( bucket, key( "small.pom" ), small );
+        emulator.putObject( bucket, key( "big.pom" ), big );
+
+        File destination = directory.resolve( "small.pom" ).toFile();
+        wagon.get( "small.pom", destination );
+
+        assertArrayEquals( small, Files.readAllBytes( destination.toPath() ) );
+        List<S3Emulator.Request> gets = emulator.getRequests( "GET", key( "small.pom" ) );
+        assertEquals( 1, gets.size() );
+        assertNull( gets.get( 0 ).getHeader( "Range" ) );
+
+        destination = directory.resolve( "big.pom" ).toFile();
+        wagon.get( "big.pom", destination );
+
+        assertArrayEquals( big, Files.readAllBytes( destination.toPath() ) );
+        gets = emulator.getRequests( "GET", key( "big.pom" ) );
+        assertEquals( 5, gets.size() );
+        assertNull( gets.get( 0 ).getHeader( "Range" ) );
+        for ( S3Emulator.Request get : gets.subList( 1, gets.size() ) )
+        {
+            assertNotNull( get.getHeader( "Range" ) );
+        }
+    }
+
+    @Test
+    void getResumesAfterTransientFailure()
+        throws Exception
+    {
+        wagon.setRangedGetPartSize( MIB );
+        wagon.setRangedGetConcurrency( 2 );
+        connect();
+        byte[] content = random( 3 * MIB + 10 );
+        emulator.putObject( bucket, key( "big.jar" ), content );
+        String lastRange = "bytes=" + 3 * MIB + "-" + ( 3 * MIB + 9 );
+        emulator.failNext( r -> r.is( "GET", key( "big.jar" ) ) && lastRange.equals( r.getHeader( "Range" ) ), 500,
+                           1 );
+
+        File destination = directory.resolve( "big.jar" ).toFile();
+        assertThrows( TransferFailedException.class, () -> wagon.get( "big.jar", destination ) );
+        assertTrue( new File( destination.getPath() + ".tmp.journal" ).exists() );
+
+        emulator.clearRequests();
+        wagon.get( "big.jar", destination );
+
+        assertArrayEquals( content, Files.readAllBytes( destination.toPath() ) );
+        List<S3Emulator.Request> gets = emulator.getRequests( "GET", key( "big.jar" ) );
+        assertEquals( 1, gets.size() );
+        assertEquals( lastRange, gets.get( 0 ).getHeader( "Range" ) );
+        assertNotNull( gets.get( 0 ).getHeader( "If-Match" ) );
+        assertFalse( new File( destination.getPath() + ".tmp" ).exists() );
+    }
+
+    @Test
+    void getIfNewerSkipsAnOlderObject()
+        throws Exception
+    {
+        connect();
+        emulator.putObject( bucket, key( "lib-1.0.jar" ), random( 1000 ) );
+        File destination = directory.resolve( "lib-1.0.jar" ).toFile();
+
+        assertFalse( wagon.getIfNewer( "lib-1.0.jar", destination, System.currentTimeMillis() + 3600 * 1000 ) );
+        assertFalse( destination.exists() );
+        assertNotNull( emulator.getRequests( "GET", key( "lib-1.0.jar" ) ).get( 0 ).getHeader( "If-Modified-Since" ) );
+
+        assertTrue( wagon.getIfNewer( "lib-1.0.jar", destination, 1000 ) );
+        assertEquals( 1000, destination.length() );
+    }
+
+    @Test
+    void getIfNewerCompletesADownloadNotNewerThanTheLocalCopy()
+        throws Exception
+    {
+        wagon.setContentCacheDirectory( directory.resolve( "cache" ).toString() );
+        connect();
+        emulator.putObject( bucket, key( "lib-1.0.jar" ), random( 1000 ) );
+        wagon.get( "lib-1.0.jar", directory.resolve( "first.jar" ).toFile() );
+        emulator.putObject( bucket, key( "lib-1.0.jar" ), random( 2000 ) );
+        List<Integer> events = new ArrayList<>();
+        wagon.addTransferListener( new AbstractTransferListener()
+        {
+            @Override
+            public void transferStarted( TransferEvent event )
+            {
+                events.add( event.getEventType() );
+            }
+
+            @Override
+            public void transferCompleted( TransferEvent event )
+            {
+                events.add( event.getEventType() );
+            }
+        } );
+        File destination = directory.resolve( "lib-1.0.jar" ).toFile();
+
+        assertFalse( wagon.getIfNewer( "lib-1.0.jar", destination, System.currentTimeMillis() + 3600 * 1000 ) );
+        assertFalse( destination.exists() );
+        assertEquals( Arrays.asList( TransferEvent.TRANSFER_STARTED, TransferEvent.TRANSFER_COMPLETED ), events );
+    }
+
+    @Test
+    void concurrentGetsShareOneDownload()
+        throws Exception
+    {
+        connect();
+        S3Wagon other = newWagon( emulator );
+        connect( other );
+        byte[] content = random( MIB );
+        emulator.putObject( bucket, key( "lib-1.0.jar" ), content );
+        // slow enough for the second get to start while the first one is still downloading
+        emulator.setBandwidth( 2 * MIB );
+        Path first = directory.resolve( "first.jar" );
+        Path second = directory.resolve( "second.jar" );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<?> leader = executor.submit( () -> {
+                wagon.get( "lib-1.0.jar", first.toFile() );
+                return null;
+            } );
+            while ( emulator.getRequests( "GET", key( "lib-1.0.jar" ) ).isEmpty() )
+            {
+                Thread.sleep( 10 );
+            }
+            other.get( "lib-1.0.jar", second.toFile() );
+            leader.get();
+        }
+        finally
+        {
+            executor.shutdown();
+            other.disconnect();
+        }
+
+        assertEquals( 1, emulator.getRequests( "GET", key( "lib-1.0.jar" ) ).size() );
+        assertArrayEquals( content, Files.readAllBytes( second ) );
+        try ( FileChannel channel = FileChannel.open( first, StandardOpenOption.WRITE ) )
+        {
+            channel.write( ByteBuffer.wrap( new byte[1024] ), 0 );
+        }
+        assertArrayEquals( content, Files.readAllBytes( second ) );
+    }
+
+    @Test
+    void contentCacheAnswersRevalidatedGets()
+        throws Exception
+    {
+        wagon.setContentCacheDirectory( directory.resolve( "cache" ).toString() );
+        connect();
+        byte[] content = random( 100 * 1024 );
+        emulator.putObject( bucket, key( "lib-1.0.jar" ), content );
+
+        wagon.get( "lib-1.0.jar", directory.resolve( "first.jar" ).toFile() );
+        emulator.clearRequests();
+        File second = directory.resolve( "second.jar" ).toFile();
+        wagon.get( "lib-1.0.jar", second );
+
+        assertArrayEquals( content, Files.readAllBytes( second.toPath() ) );
+        List<S3Emulator.Request> gets = emulator.getRequests( "GET", key( "lib-1.0.jar" ) );
+        assertEquals( 1, gets.size() );
+        assertNotNull( gets.get( 0 ).getHeader( "If-None-Match" ) );
+    }
+
+    @Test
+    void contentCacheIsNotChangedThroughTheDestination()
+        throws Exception
+    {
+        wagon.setContentCacheDirectory( directory.resolve( "cache" ).toString() );
+        connect();
+        byte[] content = random( 100 * 1024 );
+        emulator.putObject( bucket, key( "lib-1.0.jar" ), content );
+
+        Path first = directory.resolve( "first.jar" );
+        wagon.get( "lib-1.0.jar", first.toFile() );
+        try ( FileChannel channel = FileChannel.open( first, StandardOpenOption.WRITE ) )
+        {
+            channel.write( ByteBuffer.wrap( new byte[1024] ), 0 );
+        }
+        Path second = directory.resolve( "second.jar" );
+        wagon.get( "lib-1.0.jar", second.toFile() );
+
+        assertArrayEquals( content, Files.readAllBytes( second ) );
+    }
+
+    @Test
+    void metadataCacheAnswersWithoutRequestWhileFresh()
+        throws Exception
+    {
+        wagon.setMetadataCacheTtl( 60 * 1000 );
+        connect();
+        byte[] content = "<metadata/>".getBytes( "UTF-8" );
+        String name = "org/example/lib/maven-metadata.xml";
+        emulator.putObject( bucket, key( name ), content );
+
+        wagon.get( name, directory.resolve( "first.xml" ).toFile() );
+        emulator.clearRequests();
+        File second = directory.resolve( "second.xml" ).toFile();
+        wagon.get( name, second );
+
+        assertArrayEquals( content, Files.readAllBytes( second.toPath() ) );
+        assertTrue( emulator.getRequests().isEmpty() );
+    }
+
+    @Test
+    void metadataIsOnlyReadFromThePrimary()
+        throws Exception
+    {
+        String mirror = bucket + "-mirror";
+        wagon.setMirrors( mirror + "@us-east-1@" + emulator.getEndpoint() );
+        connect();
+        String name = "org/example/lib/maven-metadata.xml";
+        byte[] current = "<metadata><version>2</version></metadata>".getBytes( "UTF-8" );
+        emulator.putObject( bucket, key( name ), current );
+        emulator.putObject( mirror, key( name ), "<metadata><version>1</version></metadata>".getBytes( "UTF-8" ) );
+        emulator.putObject( mirror, key( name + ".sha1" ), "stale".getBytes( "UTF-8" ) );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            File destination = directory.resolve( "maven-metadata-" + i + ".xml" ).toFile();
+            wagon.get( name, destination );
+            assertArrayEquals( current, Files.readAllBytes( destination.toPath() ) );
+        }
+        assertFalse( wagon.resourceExists( name + ".sha1" ) );
+
+        for ( S3Emulator.Request request : emulator.getRequests() )
+        {
+            assertEquals( bucket, request.getBucket() );
+        }
+    }
+
+    @Test
+    void cachesTellBucketsOfTheSameNameApart()
+        throws Exception
+    {
+        wagon.setExistenceCacheTtl( 60 * 1000 );
+        wagon.setListingCacheTtl( 60 * 1000 );
+        connect();
+        S3Emulator elsewhere = new S3Emulator();
+        S3Wagon other = newWagon( elsewhere );
+        other.setExistenceCacheTtl( 60 * 1000 );
+        other.setListingCacheTtl( 60 * 1000 );
+        try
+        {
+            connect( other );
+            emulator.putObject( bucket, key( "org/example/lib/1.0/lib-1.0.jar" ), random( 100 ) );
+            elsewhere.putObject( bucket, key( "org/example/lib/1.0/lib-1.0.pom" ), random( 100 ) );
+
+            assertTrue( wagon.resourceExists( "org/example/lib/1.0/lib-1.0.jar" ) );
+            assertFalse( other.resourceExists( "org/example/lib/1.0/lib-1.0.jar" ) );
+            assertEquals( Arrays.asList( "lib-1.0.jar" ), wagon.getFileList( "org/example/lib/1.0" ) );
+            assertEquals( Arrays.asList( "lib-1.0.pom" ), other.getFileList( "org/example/lib/1.0" ) );
+        }
+        finally
+        {
+            other.disconnect();
+            elsewhere.close();
+        }
+    }
+
+    @Test
+    void checksumGetIsAnsweredFromTheMetadataOfTheArtifact()
+        throws Exception
+    {
+        wagon.setExistenceCacheTtl( 60 * 1000 );
+        connect();
+        String name = "org/example/lib/1.0/lib-1.0.jar";
+        File artifact = file( "lib-1.0.jar", random( 100 ) );
+        String sha1 = Checksums.compute( artifact, Arrays.asList( "sha1" ) ).get( "sha1" );
+        byte[] content = Files.readAllBytes( artifact.toPath() );
+        emulator.putObject( bucket, key( name ), content,
+                            Checksums.toMetadata( Collections.singletonMap( "sha1", sha1 ) ) );
+        // an object stored before the digests were kept in its metadata only has its checksum file
+        emulator.putObject( bucket, key( name + ".sha1" ), ( sha1 + "  lib-1.0.jar" ).getBytes( "UTF-8" ) );
+        S3Emulator elsewhere = new S3Emulator();
+        S3Wagon other = newWagon( elsewhere );
+        other.setExistenceCacheTtl( 60 * 1000 );
+        try
+        {
+            connect( other );
+            elsewhere.putObject( bucket, key( name ), content );
+            elsewhere.putObject( bucket, key( name + ".sha1" ), sha1.getBytes( "UTF-8" ) );
+
+            wagon.get( name, directory.resolve( "first.jar" ).toFile() );
+            other.get( name, directory.resolve( "second.jar" ).toFile() );
+            emulator.clearRequests();
+            File first = directory.resolve( "first.jar.sha1" ).toFile();
+            wagon.get( name + ".sha1", first );
+            File second = directory.resolve( "second.jar.sha1" ).toFile();
+            other.get( name + ".sha1", second );
+
+            assertEquals( sha1, new String( Files.readAllBytes( first.toPath() ), "UTF-8" ).trim() );
+            assertTrue( emulator.getRequests().isEmpty() );
+            assertEquals( sha1, new String( Files.readAllBytes( second.toPath() ), "UTF-8" ) );
+            assertEquals( 1, elsewhere.getRequests( "GET", key( name + ".sha1" ) ).size() );
+        }
+        finally
+        {
+            other.disconnect();
+            elsewhere.close();
+        }
+    }
+
+    @Test
+    void metricsArePublishedWhileConnected()
+        throws Exception
+    {
+        assertNull( TransferMetrics.getPublishedName() );
+        connect();
+        ObjectName name = TransferMetrics.getPublishedName();
+
+        assertNotNull( name );
+        assertTrue( ManagementFactory.getPlatformMBeanServer().isRegistered( name ) );
+
+        wagon.disconnect();
+
+        assertNull( TransferMetrics.getPublishedName() );
+        assertFalse( ManagementFactory.getPlatformMBeanServer().isRegistered( name ) );
+    }
+
+    @Test
+    void directorySyncUploadsOnlyChanges()
+        throws Exception
+    {
+        wagon.setDirectorySync( true );
+        wagon.setDirectorySyncDelete( true );
+        wagon.setListingCacheTtl( 0 );
+        connect();
+        Path local = Files.createDirectories( directory.resolve( "site" ) );
+        Files.write( local.resolve( "index.html" ), random( 1000 ) );
+        Files.write( local.resolve( "style.css" ), random( 2000 ) );
+        Files.createDirectories( local.resolve( "images" ) );
+        Files.write( local.resolve( "images/logo.png" ), random( 3000 ) );
+
+        wagon.putDirectory( local.toFile(), "site" );
+        assertEquals( 3, puts().size() );
+
+        emulator.clearRequests();
+        wagon.putDirectory( local.toFile(), "site" );
+        assertEquals( 0, puts().size() );
+
+        emulator.clearRequests();
+        byte[] changed = random( 1500 );
+        Files.write( local.resolve( "style.css" ), changed );
+        Files.delete( local.resolve( "images/logo.png" ) );
+        wagon.putDirectory( local.toFile(), "site" );
+
+        assertEquals( 1, puts().size() );
+        assertArrayEquals( changed, remote( "site/style.css" ) );
+        assertNull( remote( "site/images/logo.png" ) );
+        assertNotNull( remote( "site/index.html" ) );
+    }
+
+    @Test
+    void directorySyncKeepsTheChecksumFilesItWrote()
+        throws Exception
+    {
+        wagon.setDirectorySync( true );
+        wagon.setDirectorySyncDelete( true );
+        wagon.setChecksumFiles( "sha1,md5" );
+        connect();
+        Path local = Files.createDirectories( directory.resolve( "site" ) );
+        Files.write( local.resolve( "index.html" ), random( 1000 ) );
+        Files.write( local.resolve( "style.css" ), random( 2000 ) );
+
+        wagon.putDirectory( local.toFile(), "site" );
+        assertNotNull( remote( "site/index.html.sha1" ) );
+        assertNotNull( remote( "site/index.html.md5" ) );
+
+        Files.delete( local.resolve( "style.css" ) );
+        emulator.clearRequests();
+        wagon.putDirectory( local.toFile(), "site" );
+
+        assertEquals( 0, puts().size() );
+        assertNotNull( remote( "site/index.html.sha1" ) );
+        assertNotNull( remote( "site/index.html.md5" ) );
+        assertNull( remote( "site/style.css" ) );
+        assertNull( remote( "site/style.css.sha1" ) );
+        assertNull( remote( "site/style.css.md5" ) );
+    }
+
+    @Test
+    void writeBehindDrainsBeforeMetadata()
+        throws Exception
+    {
+        wagon.setWriteBehind( true );
+        connect();
+        byte[] jar = random( 5000 );
+        File source = file( "lib-1.0.jar", jar );
+        wagon.put( source, "org/example/lib/1.0/lib-1.0.jar" );
+        wagon.put( file( "lib-1.0.pom", random( 500 ) ), "org/example/lib/1.0/lib-1.0.pom" );
+        // the upload works on a snapshot, the caller may change the file right away
+        Files.write( source.toPath(), random( 10 ) );
+
+        wagon.put( file( "maven-metadata.xml", "<metadata/>".getBytes( "UTF-8" ) ),
+                   "org/example/lib/maven-metadata.xml" );
+
+        assertArrayEquals( jar, remote( "org/example/lib/1.0/lib-1.0.jar" ) );
+        assertNotNull( remote( "org/example/lib/1.0/lib-1.0.pom" ) );
+        assertNotNull( remote( "org/example/lib/maven-metadata.xml" ) );
+    }
+
+    @Test
+    void writeBehindFailureFailsTheMetadataPut()
+        throws Exception
+    {
+        wagon.setWriteBehind( true );
+        connect();
+        emulator.failNext( r -> r.is( "PUT", key( "org/example/lib/1.0/lib-1.0.jar" ) ), 403, 1 );
+        wagon.put( file( "lib-1.0.jar", random( 5000 ) ), "org/example/lib/1.0/lib-1.0.jar" );
+
+        assertThrows( TransferFailedException.class,
+                      () -> wagon.put( file( "maven-metadata.xml", "<metadata/>".getBytes( "UTF-8" ) ),
+                                       "org/example/lib/maven-metadata.xml" ) );
+        assertNull( remote( "org/example/lib/maven-metadata.xml" ) );
+    }
+
+    @Test
+    void writeBehindContinuesAnInterruptedMultipartUpload()
+        throws Exception
+    {
+        wagon.setWriteBehind( true );
+        configureMultipart( 1 );
+        connect();
+        byte[] content = random( 12 * MIB );
+        File source = file( "big.jar", content );
+        File metadata = file( "maven-metadata.xml", "<metadata/>".getBytes( "UTF-8" ) );
+        emulator.failNext( r -> r.is( "PUT", key( "big.jar" ) ) && "2".equals( r.getQuery( "partNumber" ) ), 500, 1 );
+        wagon.put( source, "big.jar" );
+        assertThrows( TransferFailedException.class, () -> wagon.put( metadata, "maven-metadata.xml" ) );
+
+        emulator.clearRequests();
+        wagon.put( source, "big.jar" );
+        wagon.put( metadata, "maven-metadata.xml" );
+
+        assertArrayEquals( content, remote( "big.jar" ) );
+        for ( S3Emulator.Request part : partPuts( "big.jar" ) )
+        {
+            assertFalse( "1".equals( part.getQuery( "partNumber" ) ), "part 1 was sent again" );
+        }
+        try ( Stream<Path> files = Files.list( directory ) )
+        {
+            assertFalse( files.anyMatch( f -> f.getFileName().toString().endsWith( ".deploy" ) ) );
+        }
+    }
+
+    private void configureMultipart( int concurrency )
+    {
+        wagon.setMultipartThreshold( 5 * MIB );
+        wagon.setMultipartPartSize( 5 * MIB );
+        wagon.setMultipartConcurrency( concurrency );
+    }
+
+    private void connect()
+        throws Exception
+    {
+        connect( wagon );
+    }
+
+    private void connect( S3Wagon wagon )
+        throws Exception
+    {
+        AuthenticationInfo authentication = new AuthenticationInfo();
+        authentication.setUserName( "test" );
+        authentication.setPassword( "test" );
+        wagon.connect( new Repository( "test", "s3://" + bucket + "/" + BASE_DIRECTORY ), authentication );
+    }
+
+    private static String key( String resourceName )
+    {
+        return BASE_DIRECTORY + "/" + resourceName;
+    }
+
+    private byte[] remote( String resourceName )
+    {
+        return emulator.getObject( bucket, key( resourceName ) );
+    }
+
+    private List<S3Emulator.Request> partPuts( String resourceName )
+    {
+        List<S3Emulator.Request> parts = emulator.getRequests( "PUT", key( resourceName ) );
+        parts.removeIf( r -> r.getQuery( "partNumber" ) == null );
+        return parts;
+    }
+
+    private List<S3Emulator.Request> puts()
+    {
+        List<S3Emulator.Request> puts = emulator.getRequests();
+        puts.removeIf( r -> !"PUT".equals( r.getMethod() ) );
+        return puts;
+    }
+
+    private File file( String name, byte[] content )
+        throws IOException
+    {
+        Path file = directory.resolve( name );
+        Files.write( file, content );
+        return file.toFile();
+    }
+
+    private static byte[] random( int size )
+    {
+        byte[] content = new byte[size];
+        new Random( size ).nextBytes( content );
+        return content;
+    }
+}